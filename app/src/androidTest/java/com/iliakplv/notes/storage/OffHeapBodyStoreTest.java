@@ -0,0 +1,179 @@
+package com.iliakplv.notes.storage;
+
+import com.iliakplv.notes.notes.TextNote;
+import com.iliakplv.notes.notes.storage.NoteCache;
+import com.iliakplv.notes.notes.storage.OffHeapBodyStore;
+import com.iliakplv.notes.utils.AppLog;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class OffHeapBodyStoreTest extends TestCase {
+
+	private static final String TAG = OffHeapBodyStoreTest.class.getSimpleName();
+
+	private static final int BENCHMARK_NOTES = 500;
+	private static final int BENCHMARK_BODY_LENGTH = 8 * 1024;
+	private static final int BENCHMARK_READS = 5;
+
+	OffHeapBodyStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		store = new OffHeapBodyStore();
+	}
+
+	public void testStoreAndLoad() {
+		final String[] texts = {"", "a", "Заметка", "😀 emoji", body(100), body(5000), body(2 * 1024 * 1024)};
+		final long[] handles = new long[texts.length];
+		for (int i = 0; i < texts.length; i++) {
+			handles[i] = store.store(texts[i]);
+			Assert.assertTrue(handles[i] != OffHeapBodyStore.NO_HANDLE);
+		}
+		for (int i = 0; i < texts.length; i++) {
+			Assert.assertEquals(texts[i], store.load(handles[i]));
+		}
+	}
+
+	public void testFreedBlocksReused() {
+		final long first = store.store(body(1000));
+		final long allocated = store.getAllocatedBytes();
+		store.free(first);
+		Assert.assertEquals(0, store.getUsedBytes());
+
+		final long second = store.store(body(900));
+		Assert.assertEquals(first, second);
+		Assert.assertEquals(allocated, store.getAllocatedBytes());
+
+		final long dedicated = store.store(body(2 * 1024 * 1024));
+		store.free(dedicated);
+		Assert.assertEquals(allocated, store.getAllocatedBytes());
+		Assert.assertEquals(body(900), store.load(second));
+	}
+
+	public void testFreeSlabsReleased() {
+		final long[] handles = new long[300];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = store.store(body(5000) + i); // 8 KB blocks, 128 in each slab
+		}
+		Assert.assertEquals(3L * 1024 * 1024, store.getAllocatedBytes());
+
+		for (int i = 0; i < 128; i++) {
+			store.free(handles[i]); // whole first slab
+		}
+		store.free(handles[200]);
+		Assert.assertEquals(1024 * 1024, store.releaseFreeSlabs());
+		Assert.assertEquals(2L * 1024 * 1024, store.getAllocatedBytes());
+		Assert.assertEquals(0, store.releaseFreeSlabs());
+		for (int i = 128; i < handles.length; i++) {
+			if (i != 200) {
+				Assert.assertEquals(body(5000) + i, store.load(handles[i]));
+			}
+		}
+
+		// released slab is allocated again when free blocks of other slabs are used
+		final long reused = store.store(body(5000));
+		Assert.assertEquals(handles[200], reused);
+		Assert.assertEquals(2L * 1024 * 1024, store.getAllocatedBytes());
+		for (int i = 0; i < 128; i++) {
+			handles[i] = store.store(body(5000) + i);
+		}
+		Assert.assertEquals(3L * 1024 * 1024, store.getAllocatedBytes());
+		Assert.assertEquals(body(5000) + 0, store.load(handles[0]));
+		Assert.assertEquals(body(5000) + 299, store.load(handles[299]));
+	}
+
+	public void testNoteCacheEviction() {
+		final NoteCache cache = new NoteCache("test_notes", store);
+		for (int i = 0; i < 10; i++) {
+			cache.put(new TextNote.Builder().setId(i).setTitle("title" + i).setBody(body(5000) + i).build());
+		}
+		Assert.assertTrue(cache.getRetainedBytes() > store.getAllocatedBytes()); // direct memory is reported
+		Assert.assertEquals(body(5000) + 9, cache.get(9).getBody());
+
+		cache.trimToSize(cache.getRetainedBytes() - 1);
+		Assert.assertNull(cache.get(0)); // least recently used
+		Assert.assertEquals(body(5000) + 9, cache.get(9).getBody());
+
+		cache.trimToSize(0);
+		Assert.assertEquals(0, cache.getRetainedBytes());
+		Assert.assertEquals(0, store.getAllocatedBytes());
+		Assert.assertNull(cache.get(9));
+	}
+
+	public void testCapacity() {
+		final OffHeapBodyStore small = new OffHeapBodyStore(1024 * 1024);
+		Assert.assertTrue(small.store(body(500 * 1024)) != OffHeapBodyStore.NO_HANDLE);
+		Assert.assertEquals(OffHeapBodyStore.NO_HANDLE, small.store(body(500 * 1024)));
+	}
+
+	/**
+	 * Logs heap growth and read time of on-heap bodies vs off-heap bodies.
+	 */
+	public void testBenchmark() {
+		final Runtime runtime = Runtime.getRuntime();
+
+		collectGarbage();
+		long heapBefore = usedHeap(runtime);
+		final List<String> onHeap = new ArrayList<String>(BENCHMARK_NOTES);
+		for (int i = 0; i < BENCHMARK_NOTES; i++) {
+			onHeap.add(body(BENCHMARK_BODY_LENGTH) + i);
+		}
+		collectGarbage();
+		final long onHeapBytes = usedHeap(runtime) - heapBefore;
+		long start = System.nanoTime();
+		long checksum = 0;
+		for (int r = 0; r < BENCHMARK_READS; r++) {
+			for (String body : onHeap) {
+				checksum += body.length();
+			}
+		}
+		final long onHeapReadNanos = System.nanoTime() - start;
+
+		final long[] handles = new long[BENCHMARK_NOTES];
+		for (int i = 0; i < BENCHMARK_NOTES; i++) {
+			handles[i] = store.store(onHeap.get(i));
+		}
+		onHeap.clear();
+		collectGarbage();
+		heapBefore = usedHeap(runtime);
+		start = System.nanoTime();
+		for (int r = 0; r < BENCHMARK_READS; r++) {
+			for (long handle : handles) {
+				checksum -= store.load(handle).length();
+			}
+		}
+		final long offHeapReadNanos = System.nanoTime() - start;
+		collectGarbage();
+		final long offHeapBytes = usedHeap(runtime) - heapBefore;
+
+		Assert.assertEquals(0, checksum);
+		AppLog.d(TAG, "On heap: " + onHeapBytes + " bytes of heap, reads " + onHeapReadNanos / 1000 + " us");
+		AppLog.d(TAG, "Off heap: " + offHeapBytes + " bytes of heap, " + store.getAllocatedBytes() +
+				" bytes direct, reads " + offHeapReadNanos / 1000 + " us");
+	}
+
+	private static String body(int length) {
+		final StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(i % 7 == 0 ? 'ж' : (char) ('a' + i % 26));
+		}
+		return builder.toString();
+	}
+
+	private static long usedHeap(Runtime runtime) {
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void collectGarbage() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			System.runFinalization();
+		}
+	}
+}
@@ -1,21 +1,35 @@
 package com.iliakplv.notes.storage;
 
+import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
+import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
 import com.iliakplv.notes.notes.TextNote;
+import com.iliakplv.notes.notes.search.SearchTask;
+import com.iliakplv.notes.notes.storage.NotesQuery;
 import com.iliakplv.notes.notes.storage.NotesStorage;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
 import com.iliakplv.notes.notes.storage.Storage;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import org.joda.time.DateTime;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 
 public class StorageTest extends TestCase {
 
 	private static final int ALL_LABELS = NotesStorage.NOTES_FOR_ALL_LABELS;
+	private static final long WAIT_MILLIS = 10000;
+	private static final long NO_CHANGE_WAIT_MILLIS = 500;
 
 	List<Serializable> notesIds;
 	List<Serializable> labelsIds;
@@ -116,4 +130,224 @@ public class StorageTest extends TestCase {
 
 		storage.deleteLabel(labelsIds.get(0));
 	}
+
+	public void testVisitNotes() {
+		final List<AbstractNote> visited = new ArrayList<AbstractNote>();
+		storage.visitNotes(NotesStorage.FIELD_TITLE, new NotesVisitor() {
+			@Override
+			public boolean visitNote(AbstractNote note) {
+				visited.add(note);
+				return true;
+			}
+		});
+		Assert.assertEquals(storage.getNotesForLabel(ALL_LABELS).size(), visited.size());
+		for (AbstractNote note : visited) {
+			Assert.assertEquals(storage.getNote(note.getId()).getTitle(), note.getTitle());
+			Assert.assertEquals("", note.getBody());
+			Assert.assertEquals(NotesStorage.NOT_LOADED_TIME, note.getCreateTime());
+		}
+
+		// early termination
+		visited.clear();
+		storage.visitNotes(NotesStorage.ALL_FIELDS, new NotesVisitor() {
+			@Override
+			public boolean visitNote(AbstractNote note) {
+				visited.add(note);
+				return false;
+			}
+		});
+		Assert.assertEquals(1, visited.size());
+
+		cleanUp();
+	}
+
+	public void testSearchResultsUpdatedOnChanges() {
+		final String query = "zqxsearch";
+		Assert.assertEquals(0, storage.getNotesForQuery(query).size());
+
+		// cached results are updated by changed notes
+		final Serializable id = storage.insertNote(new TextNote("title3", "body3 " + query));
+		Assert.assertEquals(1, storage.getNotesForQuery(query).size());
+		storage.updateNote(id, new TextNote("title3", "body3"));
+		Assert.assertEquals(0, storage.getNotesForQuery(query).size());
+		storage.updateNote(id, new TextNote("Title3 " + query.toUpperCase(), "body3"));
+		Assert.assertEquals(1, storage.getNotesForQuery(query).size());
+		storage.deleteNote(id);
+		Assert.assertEquals(0, storage.getNotesForQuery(query).size());
+
+		cleanUp();
+	}
+
+	public void testProgressiveSearch() throws InterruptedException {
+		final String query = "zqxprogressive";
+		final List<Serializable> ids = new ArrayList<Serializable>();
+		for (int i = 0; i < 50; i++) {
+			ids.add(storage.insertNote(new TextNote("title" + i, "body " + query)));
+		}
+
+		final CountDownLatch finished = new CountDownLatch(1);
+		final List<AbstractNote> found = new ArrayList<AbstractNote>();
+		final List<Integer> hitsCounts = new ArrayList<Integer>();
+		storage.startSearch(query, SearchTask.NO_TIME_BUDGET, new SearchTask.Listener() {
+			@Override
+			public void onNotesFound(SearchTask task, List<AbstractNote> notes) {
+				hitsCounts.add(notes.size());
+			}
+
+			@Override
+			public void onSearchFinished(SearchTask task, List<AbstractNote> notes, boolean complete) {
+				Assert.assertTrue(complete);
+				found.addAll(notes);
+				finished.countDown();
+			}
+
+			@Override
+			public void onResultsChanged(SearchTask task, List<AbstractNote> notes) {}
+		});
+		Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(ids.size(), found.size());
+		// first hits are reported before all notes are loaded
+		Assert.assertFalse(hitsCounts.isEmpty());
+		Assert.assertTrue(hitsCounts.get(0) < ids.size());
+
+		cleanUp();
+	}
+
+	public void testLiveSearchResults() throws InterruptedException {
+		final String query = "zqxlive";
+		final Serializable firstId = storage.insertNote(new TextNote("title3", "body3 " + query));
+
+		final CountDownLatch finished = new CountDownLatch(1);
+		final BlockingQueue<List<AbstractNote>> changes = new LinkedBlockingQueue<List<AbstractNote>>();
+		final SearchTask task = storage.startSearch(query, SearchTask.NO_TIME_BUDGET, new SearchTask.Listener() {
+			@Override
+			public void onNotesFound(SearchTask task, List<AbstractNote> notes) {}
+
+			@Override
+			public void onSearchFinished(SearchTask task, List<AbstractNote> notes, boolean complete) {
+				finished.countDown();
+			}
+
+			@Override
+			public void onResultsChanged(SearchTask task, List<AbstractNote> notes) {
+				changes.add(notes);
+			}
+		});
+		Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, task.getResults().size());
+
+		// only changed note is applied to finished results, changes are reported in background in order of writes
+		final Serializable id = storage.insertNote(new TextNote("title4", "body4 " + query));
+		List<AbstractNote> results = changes.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(results);
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(id, results.get(1).getId());
+		storage.updateNote(firstId, new TextNote("title3", "body3"));
+		results = changes.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(results);
+		Assert.assertEquals(1, results.size());
+		Assert.assertEquals(id, results.get(0).getId());
+		storage.insertNote(new TextNote("title5", "body5")); // not matching, next change is of deleted note
+		storage.deleteNote(id);
+		results = changes.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		Assert.assertNotNull(results);
+		Assert.assertEquals(0, results.size());
+		Assert.assertEquals(0, task.getResults().size());
+
+		task.cancel();
+		storage.insertNote(new TextNote("title6", "body6 " + query));
+		Assert.assertNull(changes.poll(NO_CHANGE_WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+		cleanUp();
+	}
+
+	public void testRegexSearch() {
+		storage.insertNote(new TextNote("Bug", "see TICKET-42 and TICKET-7"));
+		storage.insertNote(new TextNote("Ticket", "no number"));
+		storage.insertNote(new TextNote("Call", "+7 (495) 123-45-67"));
+
+		Assert.assertEquals(1, storage.getNotesForQuery("/ticket-\\d+/").size());
+		Assert.assertEquals(1, storage.getNotesForQuery("/\\(\\d{3}\\) \\d{3}-\\d\\d-\\d\\d/").size());
+		Assert.assertEquals(2, storage.getNotesForQuery("/^(bug|call)$/").size());
+		// invalid and pathological patterns
+		Assert.assertEquals(0, storage.getNotesForQuery("/[ticket/").size());
+		Assert.assertEquals(0, storage.getNotesForQuery("/(t+)+x/").size());
+
+		cleanUp();
+	}
+
+	public void testSavedSearch() throws InterruptedException {
+		final String query = "zqxsaved";
+		final Serializable matchingId = storage.insertNote(new TextNote("title3", "body3 " + query));
+		final Serializable searchId = storage.insertSavedSearch(new SavedSearch("saved", query));
+		Assert.assertEquals("saved", storage.getSavedSearch(searchId).getName());
+
+		// notes of smart label are filled and kept up to date in background
+		assertNotesCountForLabel(1, searchId);
+		final Serializable id = storage.insertNote(new TextNote(query.toUpperCase(), "body4"));
+		assertNotesCountForLabel(2, searchId);
+		storage.updateNote(id, new TextNote("title4", "body4"));
+		assertNotesCountForLabel(1, searchId);
+		storage.deleteNote(matchingId);
+		storage.deleteNote(id);
+		assertNotesCountForLabel(0, searchId);
+
+		Assert.assertTrue(storage.deleteSavedSearch(searchId));
+		Assert.assertNull(storage.getSavedSearch(searchId));
+
+		cleanUp();
+	}
+
+	public void testNotesQuery() {
+		// title0 -- label0, label1
+		// title1 -- label1
+		Assert.assertEquals(2, storage.getNotes(new NotesQuery.Builder()
+				.addLabel(labelsIds.get(1))
+				.build()).size());
+		Assert.assertEquals(1, storage.getNotes(new NotesQuery.Builder()
+				.addLabel(labelsIds.get(0))
+				.addLabel(labelsIds.get(1))
+				.build()).size());
+		Assert.assertEquals(0, storage.getNotes(new NotesQuery.Builder()
+				.addLabel(labelsIds.get(2))
+				.build()).size());
+
+		final List<AbstractNote> notes = storage.getNotes(new NotesQuery.Builder()
+				.addLabel(labelsIds.get(1))
+				.setText("BODY1")
+				.build());
+		Assert.assertEquals(1, notes.size());
+		Assert.assertEquals(notesIds.get(1), notes.get(0).getId());
+
+		Assert.assertEquals(1, storage.getNotes(new NotesQuery.Builder()
+				.addLabel(labelsIds.get(1))
+				.setSortOrder(NotesUtils.NoteSortOrder.Title)
+				.setLimit(1)
+				.build()).size());
+		Assert.assertEquals(0, storage.getNotes(new NotesQuery.Builder()
+				.setChangeTimeRange(DateTime.now().plusDays(1), null)
+				.build()).size());
+
+		cleanUp();
+	}
+
+	/**
+	 * Waits until background changes of label (e.g. smart label) are applied
+	 */
+	private void assertNotesCountForLabel(int expected, Serializable labelId) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+		while (storage.getNotesForLabel(labelId).size() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, storage.getNotesForLabel(labelId).size());
+	}
+
+	private void cleanUp() {
+		for (Serializable noteId : notesIds) {
+			storage.deleteNote(noteId);
+		}
+		for (Serializable labelId : labelsIds) {
+			storage.deleteLabel(labelId);
+		}
+	}
 }
@@ -4,6 +4,7 @@ import android.app.Application;
 import android.content.Context;
 
 import com.iliakplv.notes.notes.dropbox.DropboxHelper;
+import com.iliakplv.notes.notes.storage.MemoryBudget;
 import com.iliakplv.notes.notes.storage.Storage;
 import com.iliakplv.notes.utils.AppLog;
 
@@ -44,6 +45,20 @@ public class NotesApplication extends Application {
 				new LinkedBlockingQueue<Runnable>());
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		AppLog.d(TAG, "onTrimMemory() call. Level: " + level);
+		MemoryBudget.onTrimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		AppLog.d(TAG, "onLowMemory() call");
+		MemoryBudget.onLowMemory();
+	}
+
 	@Override
 	public void onTerminate() {
 		AppLog.d(TAG, "onTerminate() call");
@@ -9,6 +9,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.speech.RecognizerIntent;
 import android.support.v4.widget.DrawerLayout;
 import android.view.Menu;
@@ -18,12 +19,14 @@ import android.widget.SearchView;
 import android.widget.Toast;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
+import com.iliakplv.notes.NotesApplication;
 import com.iliakplv.notes.R;
 import com.iliakplv.notes.gui.main.dialogs.AboutDialog;
 import com.iliakplv.notes.gui.main.dialogs.DropboxAnnouncementDialog;
 import com.iliakplv.notes.gui.main.dialogs.VoiceSearchInstallDialog;
 import com.iliakplv.notes.gui.settings.SettingsActivity;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
 import com.iliakplv.notes.notes.storage.NotesStorage;
 import com.iliakplv.notes.notes.storage.Storage;
 import com.iliakplv.notes.utils.ConnectivityUtils;
@@ -40,6 +43,7 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
     private static final String PREFS_KEY_SORT_ORDER = "sort_order";
     private static final String PREFS_KEY_SHOW_ANNOUNCEMENT = "announcement";
     private static final int RESULT_SPEECH_TO_TEXT = 42;
+    private static final long SEARCH_AS_YOU_TYPE_DELAY_MILLIS = 300;
 
     public static final Integer NEW_NOTE = 0;
 
@@ -51,6 +55,17 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
 
     private Serializable selectedLabelId = NavigationDrawerFragment.ALL_LABELS;
     private String searchQuery;
+    private MenuItem saveSearchItem; // visible while search results shown
+
+    // search as you type (performed when user stops typing)
+    private final Handler searchHandler = new Handler();
+    private String typedSearchQuery;
+    private final Runnable typedSearch = new Runnable() {
+        @Override
+        public void run() {
+            showSearchResults(typedSearchQuery);
+        }
+    };
 
     private FirebaseAnalytics firebaseAnalytics;
 
@@ -132,9 +147,22 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
         updateUi();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        searchHandler.removeCallbacks(typedSearch);
+    }
+
     private void performSearch(String searchQuery) {
         if (!StringUtils.isBlank(searchQuery)) {
             logEvent("note_search");
+            storage.addRecentSearchQuery(searchQuery); // queries searched as you type are not recorded
+            showSearchResults(searchQuery);
+        }
+    }
+
+    private void showSearchResults(String searchQuery) {
+        if (!StringUtils.isBlank(searchQuery)) {
             this.searchQuery = searchQuery.trim();
             updateUi();
         }
@@ -143,6 +171,9 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
     private void updateUi() {
         updateNotesList();
         restoreActionBar();
+        if (saveSearchItem != null) {
+            saveSearchItem.setVisible(searchQuery != null);
+        }
     }
 
     private void updateNotesList() {
@@ -247,12 +278,15 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
+        saveSearchItem = null;
         if (!isDrawerOpened()) {
             if (!isDetailsShown()) {
                 final int menuId = isDropboxLinked ? R.menu.main_menu_db : R.menu.main_menu;
                 getMenuInflater().inflate(menuId, menu);
                 inflateSortMenu(menu);
                 configureSearchMenu(menu);
+                saveSearchItem = menu.findItem(R.id.action_save_search);
+                saveSearchItem.setVisible(searchQuery != null);
             }
             restoreActionBar();
             return true;
@@ -267,6 +301,23 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
                 (SearchView) menu.findItem(R.id.search).getActionView();
         searchView.setSearchableInfo(
                 searchManager.getSearchableInfo(getComponentName()));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchHandler.removeCallbacks(typedSearch);
+                return false; // search performed by ACTION_SEARCH intent
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchHandler.removeCallbacks(typedSearch);
+                if (!StringUtils.isBlank(newText)) {
+                    typedSearchQuery = newText;
+                    searchHandler.postDelayed(typedSearch, SEARCH_AS_YOU_TYPE_DELAY_MILLIS);
+                }
+                return true;
+            }
+        });
     }
 
     private void inflateSortMenu(Menu menu) {
@@ -312,6 +363,11 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
                 setNotesSortOrder(NotesUtils.NoteSortOrder.ChangeDate);
                 return true;
 
+            case R.id.action_save_search:
+                logEvent("save_search");
+                saveSearch();
+                return true;
+
             case R.id.action_settings:
                 logEvent("show_settings");
                 showAppSettings();
@@ -334,6 +390,19 @@ public class MainActivity extends Activity implements NavigationDrawerFragment.N
         return super.onOptionsItemSelected(item);
     }
 
+    private void saveSearch() {
+        final String query = searchQuery;
+        if (query != null) {
+            NotesApplication.executeInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    storage.insertSavedSearch(new SavedSearch(query, query));
+                }
+            });
+            Toast.makeText(this, R.string.action_save_search_toast, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     private void startVoiceInput() {
         try {
             logEvent("voice_input");
@@ -25,6 +25,7 @@ import com.iliakplv.notes.gui.main.dialogs.LabelEditDialog;
 import com.iliakplv.notes.gui.main.dialogs.SimpleItemDialog;
 import com.iliakplv.notes.notes.Label;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
 import com.iliakplv.notes.notes.storage.NotesStorage;
 import com.iliakplv.notes.notes.storage.NotesStorageListener;
 import com.iliakplv.notes.notes.storage.Storage;
@@ -88,13 +89,19 @@ public class NavigationDrawerFragment extends Fragment implements
 			public boolean onItemLongClick(AdapterView<?> parent, View view, final int position, long id) {
 
 				final List<Label> labels = storage.getAllLabels();
+				final List<SavedSearch> savedSearches = storage.getAllSavedSearches();
 				final int labelItemIndex = position - 1;
+				final int savedSearchItemIndex = labelItemIndex - labels.size();
 
 				if (labelItemIndex >= 0 && labelItemIndex < labels.size()) { // not header or footer
 					final Label label = labels.get(labelItemIndex);
 					SimpleItemDialog.show(SimpleItemDialog.DialogType.LabelActions,
 							label.getId(),
 							mainActivity.getFragmentManager());
+				} else if (savedSearchItemIndex >= 0 && savedSearchItemIndex < savedSearches.size()) {
+					SimpleItemDialog.show(SimpleItemDialog.DialogType.SavedSearchDelete,
+							savedSearches.get(savedSearchItemIndex).getId(),
+							mainActivity.getFragmentManager());
 				}
 				return true;
 			}
@@ -182,8 +189,15 @@ public class NavigationDrawerFragment extends Fragment implements
 				labelId = ALL_LABELS;
 			} else {
 				final List<Label> allLabels = storage.getAllLabels();
-				final Label label = allLabels.get(position - 1);
-				labelId = label.getId();
+				if (position - 1 < allLabels.size()) {
+					final Label label = allLabels.get(position - 1);
+					labelId = label.getId();
+				} else {
+					// smart labels follow labels
+					final SavedSearch savedSearch =
+							storage.getAllSavedSearches().get(position - 1 - allLabels.size());
+					labelId = savedSearch.getId();
+				}
 			}
 
 			mainActivity.onLabelSelected(labelId);
@@ -300,20 +314,32 @@ public class NavigationDrawerFragment extends Fragment implements
 				view = LayoutInflater.from(getContext()).inflate(R.layout.label_list_item, parent, false);
 			}
 
-			final Label label = storage.getAllLabels().get(position);
+			final List<Label> labels = storage.getAllLabels();
 			final View color = view.findViewById(R.id.label_color);
 			final TextView name = (TextView) view.findViewById(R.id.label_name);
-			final int labelColor = labelsColors[label.getColor()];
-			name.setText(NotesUtils.getTitleForLabel(label));
-			name.setTextColor(labelColor);
-			color.setBackgroundColor(labelColor);
+			if (position < labels.size()) {
+				final Label label = labels.get(position);
+				final int labelColor = labelsColors[label.getColor()];
+				name.setText(NotesUtils.getTitleForLabel(label));
+				name.setTextColor(labelColor);
+				name.setTypeface(null, Typeface.NORMAL);
+				color.setVisibility(View.VISIBLE);
+				color.setBackgroundColor(labelColor);
+			} else {
+				// smart label
+				final SavedSearch savedSearch = storage.getAllSavedSearches().get(position - labels.size());
+				name.setText(savedSearch.getName());
+				name.setTextColor(getResources().getColor(R.color.label_color_default));
+				name.setTypeface(null, Typeface.ITALIC);
+				color.setVisibility(View.GONE);
+			}
 
 			return view;
 		}
 
 		@Override
 		public int getCount() {
-			return storage.getAllLabels().size();
+			return storage.getAllLabels().size() + storage.getAllSavedSearches().size();
 		}
 	}
 
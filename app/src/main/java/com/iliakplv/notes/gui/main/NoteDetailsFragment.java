@@ -4,7 +4,13 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.text.style.BackgroundColorSpan;
 import android.text.util.Linkify;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -13,17 +19,24 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
+import android.widget.ScrollView;
+import android.widget.SearchView;
 import android.widget.Toast;
 
+import com.iliakplv.notes.NotesApplication;
 import com.iliakplv.notes.R;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.TextNote;
+import com.iliakplv.notes.notes.search.TextFinder;
 import com.iliakplv.notes.notes.storage.NotesStorage;
 import com.iliakplv.notes.notes.storage.Storage;
 import com.iliakplv.notes.utils.AppLog;
 import com.iliakplv.notes.utils.StringUtils;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class NoteDetailsFragment extends Fragment {
 
@@ -37,6 +50,10 @@ public class NoteDetailsFragment extends Fragment {
 			Linkify.EMAIL_ADDRESSES |
 			Linkify.PHONE_NUMBERS;
 
+	private static final long FIND_AS_YOU_TYPE_DELAY_MILLIS = 300;
+	private static final int FIND_CHUNK_LENGTH = 64 * 1024; // newer find is checked between chunks
+	private static final int MAX_FIND_MATCHES = 10000;
+
 	private final NotesStorage storage = Storage.getStorage();
 
 	private Serializable noteId;
@@ -44,12 +61,31 @@ public class NoteDetailsFragment extends Fragment {
 
 	private EditText title;
 	private EditText body;
+	private ScrollView scrollView;
 
 	private String titleFromArgs;
 	private String textFromArgs;
 
 	private MainActivity mainActivity;
 
+	// find in note
+	private final Handler findHandler = new Handler();
+	private final Runnable typedFind = new Runnable() {
+		@Override
+		public void run() {
+			startFind();
+		}
+	};
+	private volatile int findGeneration = 0; // results of older finds are dropped
+	private String findQuery;
+	private int[] findMatches = new int[0];
+	private boolean findMatchesLimited;
+	private int findMatchLength;
+	private int currentMatch = -1;
+	private BackgroundColorSpan findHighlight;
+	private MenuItem findNextItem;
+	private MenuItem findPreviousItem;
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -72,6 +108,8 @@ public class NoteDetailsFragment extends Fragment {
 		final View view = inflater.inflate(R.layout.note_details, container, false);
 		title = (EditText) view.findViewById(R.id.note_title);
 		body = (EditText) view.findViewById(R.id.note_body);
+		scrollView = (ScrollView) view.findViewById(R.id.details_scroll_view);
+		findHighlight = new BackgroundColorSpan(getResources().getColor(R.color.search_highlight));
 
 		final boolean fromSaveInstanceState = savedInstanceState != null;
 
@@ -89,10 +127,17 @@ public class NoteDetailsFragment extends Fragment {
 		}
 
 		linkifyNoteBody();
+		body.addTextChangedListener(bodyWatcher);
 
 		return view;
 	}
 
+	@Override
+	public void onDestroyView() {
+		closeFind();
+		super.onDestroyView();
+	}
+
 	private void linkifyNoteBody() {
 		final SharedPreferences sp =
 				PreferenceManager.getDefaultSharedPreferences(getActivity());
@@ -105,11 +150,54 @@ public class NoteDetailsFragment extends Fragment {
 	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
 		if (!mainActivity.isDrawerOpened()) {
 			inflater.inflate(R.menu.note_menu, menu);
+			configureFindMenu(menu);
 		} else {
 			super.onCreateOptionsMenu(menu, inflater);
 		}
 	}
 
+	private void configureFindMenu(Menu menu) {
+		closeFind(); // menu recreated with collapsed find view
+		final MenuItem findItem = menu.findItem(R.id.action_find_in_note);
+		findNextItem = menu.findItem(R.id.action_find_next);
+		findPreviousItem = menu.findItem(R.id.action_find_previous);
+
+		findItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+			@Override
+			public boolean onMenuItemActionExpand(MenuItem item) {
+				findNextItem.setVisible(true);
+				findPreviousItem.setVisible(true);
+				return true;
+			}
+
+			@Override
+			public boolean onMenuItemActionCollapse(MenuItem item) {
+				closeFind();
+				findNextItem.setVisible(false);
+				findPreviousItem.setVisible(false);
+				return true;
+			}
+		});
+
+		final SearchView findView = (SearchView) findItem.getActionView();
+		findView.setQueryHint(getString(R.string.note_action_find));
+		findView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+			@Override
+			public boolean onQueryTextSubmit(String query) {
+				showMatch(currentMatch + 1);
+				return true;
+			}
+
+			@Override
+			public boolean onQueryTextChange(String newText) {
+				findQuery = newText;
+				findHandler.removeCallbacks(typedFind);
+				findHandler.postDelayed(typedFind, FIND_AS_YOU_TYPE_DELAY_MILLIS);
+				return true;
+			}
+		});
+	}
+
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		final int itemId = item.getItemId();
@@ -132,12 +220,163 @@ public class NoteDetailsFragment extends Fragment {
 					}
 				}
 				return true;
+
+			case R.id.action_find_next:
+				showMatch(currentMatch + 1);
+				return true;
+
+			case R.id.action_find_previous:
+				showMatch(currentMatch - 1);
+				return true;
 		}
 
 		return super.onOptionsItemSelected(item);
 	}
 
 
+	// Find in note
+
+	private final TextWatcher bodyWatcher = new TextWatcher() {
+		@Override
+		public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+		@Override
+		public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+		@Override
+		public void afterTextChanged(Editable s) {
+			if (!StringUtils.isNullOrEmpty(findQuery)) {
+				// positions of matches changed, find again when typing paused
+				findHandler.removeCallbacks(typedFind);
+				findHandler.postDelayed(typedFind, FIND_AS_YOU_TYPE_DELAY_MILLIS);
+			}
+		}
+	};
+
+	/**
+	 * Finds all matches of query in background, long body is searched by chunks,
+	 * so find is abandoned soon after newer one started
+	 */
+	private void startFind() {
+		findHandler.removeCallbacks(typedFind);
+		final int generation = ++findGeneration;
+		if (StringUtils.isNullOrEmpty(findQuery)) {
+			onFindCompleted(new int[0], 0, false);
+			return;
+		}
+		final TextFinder finder = new TextFinder(findQuery);
+		final String text = body.getText().toString(); // body could be changed while finding
+
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				final List<int[]> chunksMatches = new ArrayList<int[]>();
+				int count = 0;
+				int position = 0;
+				while (position < text.length() && count < MAX_FIND_MATCHES) {
+					if (generation != findGeneration) {
+						return;
+					}
+					final int chunkEnd = Math.min(position + FIND_CHUNK_LENGTH, text.length());
+					final int[] matches = finder.findAll(text, position, chunkEnd, MAX_FIND_MATCHES - count);
+					chunksMatches.add(matches);
+					count += matches.length;
+					position = matches.length > 0 ?
+							Math.max(chunkEnd, matches[matches.length - 1] + finder.getLength()) :
+							chunkEnd;
+				}
+
+				final int[] allMatches = new int[count];
+				int copied = 0;
+				for (int[] matches : chunksMatches) {
+					System.arraycopy(matches, 0, allMatches, copied, matches.length);
+					copied += matches.length;
+				}
+				final boolean limited = count == MAX_FIND_MATCHES;
+				mainActivity.runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (generation == findGeneration && isAdded()) {
+							onFindCompleted(allMatches, finder.getLength(), limited);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void onFindCompleted(int[] matches, int matchLength, boolean limited) {
+		// stay near current match while query is typed or body edited
+		final int previousStart = currentMatch >= 0 ? findMatches[currentMatch] : 0;
+		findMatches = matches;
+		findMatchesLimited = limited;
+		findMatchLength = matchLength;
+		int nearest = Arrays.binarySearch(matches, previousStart);
+		if (nearest < 0) {
+			nearest = -nearest - 1;
+		}
+		currentMatch = -1;
+		showMatch(nearest);
+	}
+
+	/**
+	 * Highlights match (cyclically) and scrolls to it, only one match is highlighted at a time
+	 */
+	private void showMatch(int index) {
+		final Editable text = body.getText();
+		text.removeSpan(findHighlight);
+		if (findMatches.length > 0) {
+			currentMatch = (index % findMatches.length + findMatches.length) % findMatches.length;
+			final int start = findMatches[currentMatch];
+			final int end = start + findMatchLength;
+			if (end <= text.length()) { // body could be changed after find
+				text.setSpan(findHighlight, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+				scrollToOffset(start);
+			}
+		} else {
+			currentMatch = -1;
+		}
+		updateFindStatus();
+	}
+
+	private void scrollToOffset(int offset) {
+		final Layout layout = body.getLayout();
+		if (layout == null) {
+			return; // not laid out yet
+		}
+		final View content = (View) body.getParent();
+		final int y = content.getTop() + body.getTop() + body.getTotalPaddingTop() +
+				layout.getLineTop(layout.getLineForOffset(offset));
+		scrollView.smoothScrollTo(0, Math.max(y - scrollView.getHeight() / 3, 0));
+	}
+
+	private void updateFindStatus() {
+		final String status;
+		if (StringUtils.isNullOrEmpty(findQuery)) {
+			status = null;
+		} else if (findMatches.length == 0) {
+			status = getString(R.string.note_find_no_matches);
+		} else {
+			status = getString(findMatchesLimited ? R.string.note_find_matches_limited : R.string.note_find_matches,
+					currentMatch + 1, findMatches.length);
+		}
+		mainActivity.getActionBar().setSubtitle(status);
+	}
+
+	private void closeFind() {
+		findHandler.removeCallbacks(typedFind);
+		findGeneration++;
+		if (findQuery == null) {
+			return;
+		}
+		findQuery = null;
+		findMatches = new int[0];
+		currentMatch = -1;
+		body.getText().removeSpan(findHighlight);
+		mainActivity.getActionBar().setSubtitle(null);
+	}
+
+
 	public void onBackPressed() {
         mainActivity.logEvent("note_details_back");
         saveNote();
@@ -164,10 +403,12 @@ public class NoteDetailsFragment extends Fragment {
 				if (!StringUtils.equals(note.getTitle(), titleText) ||
 						!StringUtils.equals(note.getBody(), bodyText)) {
 					// update current note if changed
-					note.setTitle(titleText);
-					note.setBody(bodyText);
-					note.updateChangeTime();
-					final boolean updated = storage.updateNote(noteId, note);
+					final AbstractNote changedNote = note.buildUpon()
+							.setTitle(titleText)
+							.setBody(bodyText)
+							.updateChangeTime()
+							.build();
+					final boolean updated = storage.updateNote(noteId, changedNote);
 					AppLog.d(TAG, LOG_PREFIX + "Note data changed. Storage "
 							+ (updated ? "" : "NOT (!!!) ") + "updated.");
 				} else {
@@ -3,6 +3,9 @@ package com.iliakplv.notes.gui.main;
 import android.app.Activity;
 import android.app.Fragment;
 import android.os.Bundle;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -17,12 +20,16 @@ import com.iliakplv.notes.gui.main.dialogs.SimpleItemDialog;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.search.SavedSearches;
+import com.iliakplv.notes.notes.search.SearchMatches;
+import com.iliakplv.notes.notes.search.SearchTask;
 import com.iliakplv.notes.notes.storage.NotesStorage;
 import com.iliakplv.notes.notes.storage.NotesStorageListener;
 import com.iliakplv.notes.notes.storage.Storage;
 import com.iliakplv.notes.utils.StringUtils;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 public class NotesListFragment extends Fragment implements NotesStorageListener {
@@ -37,6 +44,16 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 
 	private boolean showSearchResults = false;
 	private String searchQuery;
+	private SearchTask searchTask; // kept after search finished, its results stay live
+	private List<AbstractNote> searchResults = Collections.emptyList();
+	private SearchTask searchResultsTask; // task of shown results, has their matches
+	private boolean searchInProgress = false;
+	private boolean searchComplete = true;
+
+	private static final long SEARCH_TIME_BUDGET_MILLIS = 3000;
+
+	private static final int SNIPPET_CONTEXT_LENGTH = 30;
+	private static final String SNIPPET_ELLIPSIS = "\u2026";
 
 	private static final Integer ALL_LABELS = NotesStorage.NOTES_FOR_ALL_LABELS;
 	private final NotesStorage storage = Storage.getStorage();
@@ -105,6 +122,9 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 		super.onResume();
 		isUiVisible = true;
 		startListeningStorage();
+		if (showSearchResults && (searchTask == null || searchTask.isCancelled())) {
+			startSearch(); // stopped on pause or results stopped being live
+		}
 		updateUi();
 	}
 
@@ -113,11 +133,20 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 		super.onPause();
 		isUiVisible = false;
 		stopListeningStorage();
+		if (searchInProgress) {
+			cancelSearch(); // finished search keeps results live while note is edited
+		}
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		cancelSearch();
 	}
 
 	private List<AbstractNote> getNotesList() {
 		return showSearchResults ?
-				storage.getNotesForQuery(searchQuery) :
+				searchResults :
 				storage.getNotesForLabel(currentLabelId);
 	}
 
@@ -131,22 +160,104 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 
 	@Override
 	public void onContentChanged() {
-		updateUiFromBackgroundThread();
+		if (mainActivity != null) {
+			mainActivity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					if (showSearchResults && isUiVisible && searchTask != null && searchTask.isCancelled()) {
+						startSearch(); // results stopped being live, shown results stay until new ones arrive
+					}
+					updateUi();
+				}
+			});
+		}
 	}
 
 	public void showNotesForLabel(Serializable labelId) {
+		cancelSearch();
 		currentLabelId = labelId;
 		showSearchResults = false;
+		searchResults = Collections.emptyList();
+		searchResultsTask = null;
 		updateUi();
 	}
 
 	public void showNotesForQuery(String searchQuery) {
 		this.searchQuery = searchQuery;
 		showSearchResults = true;
+		searchResults = Collections.emptyList();
+		searchResultsTask = null;
+		startSearch();
 		updateUi();
 	}
 
 
+	private void startSearch() {
+		cancelSearch();
+		searchInProgress = true;
+		searchComplete = true;
+		searchTask = storage.startSearch(searchQuery, SEARCH_TIME_BUDGET_MILLIS, searchListener);
+	}
+
+	private void cancelSearch() {
+		if (searchTask != null) {
+			searchTask.cancel();
+			searchTask = null;
+		}
+	}
+
+	private final SearchTask.Listener searchListener = new SearchTask.Listener() {
+		@Override
+		public void onNotesFound(SearchTask task, List<AbstractNote> notes) {
+			onSearchResults(task, notes, false, true);
+		}
+
+		@Override
+		public void onSearchFinished(SearchTask task, List<AbstractNote> notes, boolean complete) {
+			onSearchResults(task, notes, true, complete);
+		}
+
+		@Override
+		public void onResultsChanged(final SearchTask task, List<AbstractNote> notes) {
+			if (mainActivity != null) {
+				mainActivity.runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						final List<AbstractNote> results = task.getResults(); // latest, callbacks could be reordered
+						if (task == searchTask && results != null) {
+							searchResults = results; // status stays, no search is started
+							searchResultsTask = task;
+							updateUi();
+						}
+					}
+				});
+			}
+		}
+	};
+
+	private void onSearchResults(final SearchTask task, final List<AbstractNote> notes,
+								 final boolean finished, final boolean complete) {
+		if (mainActivity != null) {
+			mainActivity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					if (task != searchTask) { // query changed or search cancelled
+						return;
+					}
+					final List<AbstractNote> results = finished ? task.getResults() : null;
+					searchResults = results != null ? results : notes; // changed after finish
+					searchResultsTask = task;
+					if (finished) {
+						searchInProgress = false;
+						searchComplete = complete;
+					}
+					updateUi();
+				}
+			});
+		}
+	}
+
+
 	private void updateListView() {
 		if (isUiVisible && listAdapter != null) {
 			listAdapter.notifyDataSetChanged();
@@ -158,8 +269,17 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 			if (showSearchResults) {
 				status.setVisibility(View.VISIBLE);
 				status.setBackgroundColor(getResources().getColor(R.color.status_search_background));
-				status.setText(getString(R.string.action_bar_search_results, searchQuery));
-			} else if (!ALL_LABELS.equals(currentLabelId) && storage.getLabel(currentLabelId) != null) {
+				final int statusText = searchInProgress ? R.string.action_bar_search_in_progress :
+						searchComplete ? R.string.action_bar_search_results :
+								R.string.action_bar_search_results_partial;
+				status.setText(getString(statusText, searchQuery));
+			} else if (SavedSearches.isSavedSearchId(currentLabelId) && storage.getSavedSearch(currentLabelId) != null) {
+				status.setVisibility(View.VISIBLE);
+				status.setBackgroundColor(getResources().getColor(R.color.status_search_background));
+				status.setText(getString(R.string.action_bar_saved_search_selected,
+						storage.getSavedSearch(currentLabelId).getName()));
+			} else if (!ALL_LABELS.equals(currentLabelId) && !SavedSearches.isSavedSearchId(currentLabelId) &&
+					storage.getLabel(currentLabelId) != null) {
 				status.setVisibility(View.VISIBLE);
 				final Label label = storage.getLabel(currentLabelId);
 				status.setBackgroundColor(labelsColors[label.getColor()]);
@@ -172,7 +292,7 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 
 	private void updateNoNotesText() {
 		if (isUiVisible && noNotesText != null) {
-			if (getNotesList().isEmpty()) {
+			if (getNotesList().isEmpty() && !(showSearchResults && searchInProgress)) {
 				noNotesText.setVisibility(View.VISIBLE);
 				if (showSearchResults) {
 					noNotesText.setText(R.string.no_notes_for_search);
@@ -190,17 +310,6 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 		}
 	}
 
-	private void updateUiFromBackgroundThread() {
-		if (mainActivity != null) {
-			mainActivity.runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					updateUi();
-				}
-			});
-		}
-	}
-
 	private void updateUi() {
 		updateListView();
 		updateStatus();
@@ -257,7 +366,13 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 			final AbstractNote note = getNotesList().get(position);
 			final TextView title = (TextView) view.findViewById(R.id.title);
 			final TextView subtitle = (TextView) view.findViewById(R.id.subtitle);
-			title.setText(NotesUtils.getTitleForNoteInList(note));
+			final String titleText = NotesUtils.getTitleForNoteInList(note);
+			final SearchMatches.NoteMatch match = showSearchResults && searchResultsTask != null ?
+					searchResultsTask.getMatch(note.getId()) :
+					null;
+			title.setText(match != null && !NotesUtils.isNoteTitleBlank(note) ?
+					highlightMatch(titleText, match.getTitleMatch()) :
+					titleText);
 			if (!NotesUtils.isNoteTitleBlank(note)) {
 				title.setTextColor(getResources().getColor(R.color.note_list_item_black));
 				title.setTextSize(TypedValue.COMPLEX_UNIT_PX,
@@ -273,7 +388,8 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 				subtitle.setTextSize(TypedValue.COMPLEX_UNIT_PX,
 						getResources().getDimension(R.dimen.note_list_item_large_text_size));
 			}
-			subtitle.setText(note.getBody().trim());
+			final String bodyText = note.getBody().trim();
+			subtitle.setText(match != null ? getSnippet(bodyText, match.getBodyMatch()) : bodyText);
 
 			// labels
 			final List<Label> labels = storage.getLabelsForNote(note.getId());
@@ -301,6 +417,31 @@ public class NotesListFragment extends Fragment implements NotesStorageListener
 		private String getLetterForLabelName(String name) {
 			return StringUtils.isBlank(name) ? "" : name.trim().substring(0, 1).toUpperCase();
 		}
+
+		// match is computed by search task, text is not searched here
+		private CharSequence highlightMatch(String text, int[] match) {
+			if (match == null || match[1] > text.length()) {
+				return text;
+			}
+			final SpannableString highlighted = new SpannableString(text);
+			highlighted.setSpan(new BackgroundColorSpan(getResources().getColor(R.color.search_highlight)),
+					match[0], match[1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+			return highlighted;
+		}
+
+		// text around first match instead of text start
+		private CharSequence getSnippet(String text, int[] match) {
+			if (match == null || match[1] > text.length()) {
+				return text;
+			}
+			final int start = SearchMatches.getSnippetStart(text, match[0], SNIPPET_CONTEXT_LENGTH);
+			final String prefix = start > 0 ? SNIPPET_ELLIPSIS : "";
+			final SpannableString snippet = new SpannableString(prefix + text.substring(start));
+			snippet.setSpan(new BackgroundColorSpan(getResources().getColor(R.color.search_highlight)),
+					prefix.length() + match[0] - start, prefix.length() + match[1] - start,
+					Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+			return snippet;
+		}
 	}
 
 }
@@ -86,12 +86,14 @@ public class LabelEditDialog extends AbstractItemDialog {
 						NotesApplication.executeInBackground(new Runnable() {
 							@Override
 							public void run() {
-								label.setName(labelName);
-								label.setColor(selectedColor);
+								final Label changedLabel = label.buildUpon()
+										.setName(labelName)
+										.setColor(selectedColor)
+										.build();
 								if (editMode) {
-									storage.updateLabel(id, label);
+									storage.updateLabel(id, changedLabel);
 								} else {
-									final Serializable labelId = storage.insertLabel(label);
+									final Serializable labelId = storage.insertLabel(changedLabel);
 									if (insertLabelToNote) {
 										storage.insertLabelToNote(noteId, labelId);
 									}
@@ -13,6 +13,7 @@ import com.iliakplv.notes.gui.main.MainActivity;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
 import com.iliakplv.notes.utils.StringUtils;
 
 import org.joda.time.DateTime;
@@ -49,6 +50,10 @@ public class SimpleItemDialog extends AbstractItemDialog {
 			case LabelDelete:
 				return createLabelDeleteDialog();
 
+			// for saved search
+			case SavedSearchDelete:
+				return createSavedSearchDeleteDialog();
+
 			default:
 				throw new RuntimeException("Unknown dialog type: " + type.toString());
 		}
@@ -154,6 +159,26 @@ public class SimpleItemDialog extends AbstractItemDialog {
 	}
 
 
+	private Dialog createSavedSearchDeleteDialog() {
+		final SavedSearch savedSearch = storage.getSavedSearch(id);
+		return new AlertDialog.Builder(activity).
+				setTitle(savedSearch != null ? savedSearch.getName() : "").
+				setMessage(StringUtils.wrapWithEmptyLines(getString(R.string.saved_search_delete_confirm_dialog_text))).
+				setNegativeButton(R.string.common_no, null).
+				setPositiveButton(R.string.common_yes, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialogInterface, int i) {
+						NotesApplication.executeInBackground(new Runnable() {
+							@Override
+							public void run() {
+								storage.deleteSavedSearch(id);
+							}
+						});
+					}
+				}).create();
+	}
+
+
 	// New dialog showing
 
 	public static void show(DialogType type, Serializable itemId, FragmentManager fragmentManager) {
@@ -185,7 +210,9 @@ public class SimpleItemDialog extends AbstractItemDialog {
 		NoteNoLabels,
 		// for label
 		LabelActions,
-		LabelDelete
+		LabelDelete,
+		// for saved search
+		SavedSearchDelete
 	}
 
 	private class NoteActionDialogClickListener implements DialogInterface.OnClickListener {
@@ -1,27 +1,54 @@
 package com.iliakplv.notes.notes;
 
+import com.iliakplv.notes.utils.CollationKeys;
 import com.iliakplv.notes.utils.StringUtils;
 import org.joda.time.DateTime;
 
 import java.io.Serializable;
 
+/**
+ * Immutable note. To change note use {@link #buildUpon()}, modify values
+ * and pass built note to storage. Unchanged fields are shared between instances.
+ */
 public abstract class AbstractNote {
 
-	private Serializable id = NotesUtils.DEFAULT_ID;
+	private final Serializable id;
 
-	private String title;
-	private String body;
-	private DateTime createTime;
-	private DateTime changeTime;
+	private final String title;
+	private final String body;
+	private final DateTime createTime;
+	private final DateTime changeTime;
 
+	private volatile byte[] titleSortKey; // computed on demand
 
 	public AbstractNote(String title, String body) {
-		setTitle(title);
-		setBody(body);
-		createTime = new DateTime();
-		changeTime = new DateTime();
+		final DateTime now = new DateTime();
+		this.id = NotesUtils.DEFAULT_ID;
+		this.title = StringUtils.getNotNull(title);
+		this.body = StringUtils.getNotNull(body);
+		this.createTime = now;
+		this.changeTime = now;
 	}
 
+	protected AbstractNote(Builder builder) {
+		if (builder.createTime == null) {
+			throw new NullPointerException("Note's create time can not be null");
+		}
+		if (builder.changeTime == null) {
+			throw new NullPointerException("Note's change time can not be null");
+		}
+		this.id = NotesUtils.getValidNoteId(builder.id);
+		this.title = StringUtils.getNotNull(builder.title);
+		this.body = StringUtils.getNotNull(builder.body);
+		this.createTime = builder.createTime;
+		this.changeTime = builder.changeTime;
+	}
+
+	/**
+	 * @return builder initialized with values of this note
+	 */
+	public abstract Builder buildUpon();
+
 
 	// Text
 
@@ -29,16 +56,20 @@ public abstract class AbstractNote {
 		return title;
 	}
 
-	public void setTitle(String title) {
-		this.title = StringUtils.getNotNull(title);
-	}
-
 	public String getBody() {
 		return body;
 	}
 
-	public void setBody(String body) {
-		this.body = StringUtils.getNotNull(body);
+	/**
+	 * @return locale-aware sort key of title (see {@link CollationKeys})
+	 */
+	public byte[] getTitleSortKey() {
+		byte[] key = titleSortKey;
+		if (key == null) {
+			key = CollationKeys.getKey(title);
+			titleSortKey = key;
+		}
+		return key;
 	}
 
 
@@ -48,33 +79,98 @@ public abstract class AbstractNote {
 		return createTime;
 	}
 
-	public void setCreateTime(DateTime time) {
-		if (time == null) {
-			throw new NullPointerException("Note's create time can not be null");
-		}
-		createTime = time;
-	}
-
 	public DateTime getChangeTime() {
 		return changeTime;
 	}
 
-	public void setChangeTime(DateTime time) {
-		if (time == null) {
-			throw new NullPointerException("Note's change time can not be null");
-		}
-		changeTime = time;
-	}
-
-	public void updateChangeTime() {
-		changeTime = new DateTime();
-	}
-
 	public Serializable getId() {
 		return id;
 	}
 
-	public void setId(Serializable id) {
-		this.id = NotesUtils.getValidNoteId(id);
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	public static abstract class Builder {
+
+		private final AbstractNote source;
+		private boolean changed = false;
+
+		private Serializable id = NotesUtils.DEFAULT_ID;
+		private String title = "";
+		private String body = "";
+		private DateTime createTime;
+		private DateTime changeTime;
+
+
+		protected Builder() {
+			source = null;
+			createTime = new DateTime();
+			changeTime = createTime;
+		}
+
+		protected Builder(AbstractNote note) {
+			source = note;
+			id = note.id;
+			title = note.title;
+			body = note.body;
+			createTime = note.createTime;
+			changeTime = note.changeTime;
+		}
+
+
+		public Builder setId(Serializable id) {
+			this.id = NotesUtils.getValidNoteId(id);
+			changed = true;
+			return this;
+		}
+
+		public Builder setTitle(String title) {
+			this.title = StringUtils.getNotNull(title);
+			changed = true;
+			return this;
+		}
+
+		public Builder setBody(String body) {
+			this.body = StringUtils.getNotNull(body);
+			changed = true;
+			return this;
+		}
+
+		public Builder setCreateTime(DateTime time) {
+			if (time == null) {
+				throw new NullPointerException("Note's create time can not be null");
+			}
+			createTime = time;
+			changed = true;
+			return this;
+		}
+
+		public Builder setChangeTime(DateTime time) {
+			if (time == null) {
+				throw new NullPointerException("Note's change time can not be null");
+			}
+			changeTime = time;
+			changed = true;
+			return this;
+		}
+
+		public Builder updateChangeTime() {
+			return setChangeTime(new DateTime());
+		}
+
+		/**
+		 * @return new note or source note if nothing changed
+		 */
+		public AbstractNote build() {
+			return source != null && !changed ? source : create();
+		}
+
+		protected abstract AbstractNote create();
 	}
 }
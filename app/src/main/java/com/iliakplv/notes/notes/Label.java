@@ -1,20 +1,39 @@
 package com.iliakplv.notes.notes;
 
+import com.iliakplv.notes.utils.CollationKeys;
 import com.iliakplv.notes.utils.StringUtils;
 
 import java.io.Serializable;
 
-public class Label {
+/**
+ * Immutable label. Instances obtained from storage are shared (see {@link LabelsRegistry}),
+ * so label changes are made by building new instance (see {@link #buildUpon()})
+ * and passing it to storage.
+ */
+public final class Label {
 
-	private Serializable id = NotesUtils.DEFAULT_ID;
+	private final Serializable id;
 
-	private String name;
-	private int color;
+	private final String name;
+	private final int color;
 
+	private volatile byte[] nameSortKey; // computed on demand
 
 	public Label(String name, int color) {
-		setName(name);
-		setColor(color);
+		this(NotesUtils.DEFAULT_ID, name, color);
+	}
+
+	private Label(Serializable id, String name, int color) {
+		this.id = NotesUtils.getValidNoteId(id);
+		this.name = StringUtils.getNotNull(name);
+		this.color = color;
+	}
+
+	/**
+	 * @return builder initialized with values of this label
+	 */
+	public Builder buildUpon() {
+		return new Builder(this);
 	}
 
 
@@ -22,23 +41,84 @@ public class Label {
 		return name;
 	}
 
-	public void setName(String name) {
-		this.name = StringUtils.getNotNull(name);
+	/**
+	 * @return locale-aware sort key of name (see {@link CollationKeys})
+	 */
+	public byte[] getNameSortKey() {
+		byte[] key = nameSortKey;
+		if (key == null) {
+			key = CollationKeys.getKey(name);
+			nameSortKey = key;
+		}
+		return key;
 	}
 
 	public int getColor() {
 		return color;
 	}
 
-	public void setColor(int color) {
-		this.color = color;
-	}
-
 	public Serializable getId() {
 		return id;
 	}
 
-	public void setId(Serializable id) {
-		this.id = NotesUtils.getValidNoteId(id);
+	/* package */ boolean hasValues(String name, int color) {
+		return this.color == color && this.name.equals(StringUtils.getNotNull(name));
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	public static final class Builder {
+
+		private final Label source;
+		private boolean changed = false;
+
+		private Serializable id = NotesUtils.DEFAULT_ID;
+		private String name = "";
+		private int color;
+
+
+		public Builder() {
+			source = null;
+		}
+
+		private Builder(Label label) {
+			source = label;
+			id = label.id;
+			name = label.name;
+			color = label.color;
+		}
+
+
+		public Builder setId(Serializable id) {
+			this.id = id;
+			changed = true;
+			return this;
+		}
+
+		public Builder setName(String name) {
+			this.name = name;
+			changed = true;
+			return this;
+		}
+
+		public Builder setColor(int color) {
+			this.color = color;
+			changed = true;
+			return this;
+		}
+
+		/**
+		 * @return new label or source label if nothing changed
+		 */
+		public Label build() {
+			return source != null && !changed ? source : new Label(id, name, color);
+		}
 	}
 }
@@ -1,12 +1,14 @@
 package com.iliakplv.notes.notes;
 
+import com.iliakplv.notes.utils.CollationKeys;
+
 import java.util.Comparator;
 
 public class LabelComparator implements Comparator<Label> {
 
 	@Override
 	public int compare(Label lhs, Label rhs) {
-		return lhs.getName().compareToIgnoreCase(rhs.getName());
+		return CollationKeys.compare(lhs.getNameSortKey(), rhs.getNameSortKey());
 	}
 
 }
@@ -0,0 +1,62 @@
+package com.iliakplv.notes.notes;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of canonical labels: one shared {@link Label} instance per label id.
+ * Storages obtain labels from registry instead of creating new instance for every query,
+ * so all lists and notes refer to the same objects and labels can be compared by identity.
+ */
+public final class LabelsRegistry {
+
+	private final ConcurrentHashMap<Serializable, Label> labels =
+			new ConcurrentHashMap<Serializable, Label>();
+
+
+	/**
+	 * Returns canonical label for id. Creates (or replaces outdated) instance if needed.
+	 */
+	public Label obtain(Serializable id, String name, int color) {
+		while (true) {
+			final Label cached = labels.get(id);
+			if (cached != null && cached.hasValues(name, color)) {
+				return cached;
+			}
+
+			final Label label = create(id, name, color);
+			final boolean stored = cached == null ?
+					labels.putIfAbsent(id, label) == null :
+					labels.replace(id, cached, label);
+			if (stored) {
+				return label;
+			}
+			// concurrent modification, retry with actual value
+		}
+	}
+
+	/**
+	 * Atomically replaces canonical label for id with new values
+	 */
+	public Label update(Serializable id, String name, int color) {
+		final Label label = create(id, name, color);
+		labels.put(id, label);
+		return label;
+	}
+
+	private static Label create(Serializable id, String name, int color) {
+		return new Label.Builder()
+				.setId(id)
+				.setName(name)
+				.setColor(color)
+				.build();
+	}
+
+	public void remove(Serializable id) {
+		labels.remove(id);
+	}
+
+	public void clear() {
+		labels.clear();
+	}
+}
@@ -1,5 +1,7 @@
 package com.iliakplv.notes.notes;
 
+import com.iliakplv.notes.utils.CollationKeys;
+
 import java.util.Comparator;
 
 public class NoteComparator implements Comparator<AbstractNote> {
@@ -32,7 +34,7 @@ public class NoteComparator implements Comparator<AbstractNote> {
 	public int compare(AbstractNote lhs, AbstractNote rhs) {
 		switch (order) {
 			case Title:
-				return lhs.getTitle().compareToIgnoreCase(rhs.getTitle());
+				return CollationKeys.compare(lhs.getTitleSortKey(), rhs.getTitleSortKey());
 			case CreateDateAscending:
 				return lhs.getCreateTime().compareTo(rhs.getCreateTime());
 			case CreateDateDescending:
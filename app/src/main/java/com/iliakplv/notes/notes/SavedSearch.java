@@ -0,0 +1,46 @@
+package com.iliakplv.notes.notes;
+
+import com.iliakplv.notes.utils.StringUtils;
+
+import java.io.Serializable;
+
+/**
+ * Immutable saved search, shown as smart label: notes of smart label are notes matching query.
+ * Notes are obtained like notes of label with {@link com.iliakplv.notes.notes.storage.NotesStorage#getNotesForLabel}.
+ */
+public final class SavedSearch {
+
+	private final Serializable id;
+
+	private final String name;
+	private final String query;
+
+	public SavedSearch(String name, String query) {
+		this(null, name, query);
+	}
+
+	public SavedSearch(Serializable id, String name, String query) {
+		this.id = id;
+		this.name = StringUtils.getNotNull(name);
+		this.query = StringUtils.getNotNull(query);
+	}
+
+
+	/**
+	 * @return id or null if search is not saved yet
+	 */
+	public Serializable getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return search query as typed by user
+	 */
+	public String getQuery() {
+		return query;
+	}
+}
@@ -10,4 +10,30 @@ public class TextNote extends AbstractNote {
 		super(null, null);
 	}
 
+	private TextNote(Builder builder) {
+		super(builder);
+	}
+
+	@Override
+	public Builder buildUpon() {
+		return new Builder(this);
+	}
+
+
+	public static class Builder extends AbstractNote.Builder {
+
+		public Builder() {
+			super();
+		}
+
+		private Builder(TextNote note) {
+			super(note);
+		}
+
+		@Override
+		protected AbstractNote create() {
+			return new TextNote(this);
+		}
+	}
+
 }
@@ -8,22 +8,32 @@ import android.util.Pair;
 
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
+import com.iliakplv.notes.notes.LabelsRegistry;
 import com.iliakplv.notes.notes.NotesUtils;
 import com.iliakplv.notes.notes.TextNote;
+import com.iliakplv.notes.notes.storage.NotesQuery;
+import com.iliakplv.notes.notes.storage.NotesStorage;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
 
 import org.joda.time.DateTime;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /* package */ class NotesDatabaseAdapter {
 
 	// Database
 	private static final String DATABASE_NAME = "notes.db";
-	private static final int CURRENT_VERSION = NotesDatabaseOpenHelper.DATABASE_VERSION_LABELS;
+	private static final int CURRENT_VERSION = NotesDatabaseOpenHelper.DATABASE_VERSION_QUERIES;
 	private static final int ALL_ENTRIES = 0;
+	private static final String COLLATE_LOCALIZED = " COLLATE LOCALIZED"; // Android collator of current locale
 
 	// Common keys
 	private static final String KEY_ID = "_id";
@@ -68,6 +78,13 @@ import java.util.Set;
 			NOTES_LABELS_NOTE_ID, NOTES_LABELS_LABEL_ID};
 
 
+	// Table: Notes full-text index (virtual, docid = notes._id, filled by triggers)
+	private static final String NOTES_FTS_TABLE = "notes_fts";
+	private static final String NOTES_FTS_DOCID = "docid";
+	private static final int NOTES_FTS_TITLE_WEIGHT = 3;
+	private static final int NOTES_FTS_BODY_WEIGHT = 1;
+
+
 	// Schema creation
 	static final String CREATE_NOTES_TABLE =
 			"CREATE TABLE " + NOTES_TABLE +
@@ -91,14 +108,45 @@ import java.util.Set;
 					" FOREIGN KEY (" + NOTES_LABELS_NOTE_ID + ") REFERENCES " + NOTES_TABLE + " (" + KEY_ID + ")," +
 					" FOREIGN KEY (" + NOTES_LABELS_LABEL_ID + ") REFERENCES " + LABELS_TABLE + " (" + KEY_ID + "));";
 
+	static final String CREATE_NOTES_FTS_TABLE =
+			"CREATE VIRTUAL TABLE " + NOTES_FTS_TABLE + " USING fts4(" +
+					NOTES_NAME + ", " + NOTES_BODY + ", tokenize=unicode61);";
+
+	static final String CREATE_NOTES_FTS_TABLE_SIMPLE_TOKENIZER =
+			"CREATE VIRTUAL TABLE " + NOTES_FTS_TABLE + " USING fts4(" +
+					NOTES_NAME + ", " + NOTES_BODY + ");";
+
+	static final String[] CREATE_NOTES_FTS_TRIGGERS = {
+			"CREATE TRIGGER " + NOTES_FTS_TABLE + "_insert AFTER INSERT ON " + NOTES_TABLE + " BEGIN" +
+					" INSERT INTO " + NOTES_FTS_TABLE + " (" + NOTES_FTS_DOCID + ", " + NOTES_NAME + ", " + NOTES_BODY + ")" +
+					" VALUES (new." + KEY_ID + ", new." + NOTES_NAME + ", new." + NOTES_BODY + "); END;",
+			"CREATE TRIGGER " + NOTES_FTS_TABLE + "_update AFTER UPDATE ON " + NOTES_TABLE + " BEGIN" +
+					" UPDATE " + NOTES_FTS_TABLE + " SET " + NOTES_NAME + " = new." + NOTES_NAME + ", " +
+					NOTES_BODY + " = new." + NOTES_BODY + " WHERE " + NOTES_FTS_DOCID + " = old." + KEY_ID + "; END;",
+			"CREATE TRIGGER " + NOTES_FTS_TABLE + "_delete AFTER DELETE ON " + NOTES_TABLE + " BEGIN" +
+					" DELETE FROM " + NOTES_FTS_TABLE + " WHERE " + NOTES_FTS_DOCID + " = old." + KEY_ID + "; END;"
+	};
+
+	// labels conditions use (label_id, note_id), time ranges and sorts by time use dates
+	static final String[] CREATE_QUERIES_INDEXES = {
+			"CREATE INDEX " + NOTES_LABELS_TABLE + "_label_note ON " + NOTES_LABELS_TABLE +
+					" (" + NOTES_LABELS_LABEL_ID + ", " + NOTES_LABELS_NOTE_ID + ");",
+			"CREATE INDEX " + NOTES_TABLE + "_" + NOTES_CREATE_DATE + " ON " + NOTES_TABLE +
+					" (" + NOTES_CREATE_DATE + ");",
+			"CREATE INDEX " + NOTES_TABLE + "_" + NOTES_CHANGE_DATE + " ON " + NOTES_TABLE +
+					" (" + NOTES_CHANGE_DATE + ");"
+	};
+
 	private SQLiteDatabase db;
 	private NotesDatabaseOpenHelper dbHelper;
+	private final LabelsRegistry labelsRegistry;
 
 
 	// Constructors
 
-	NotesDatabaseAdapter() {
+	NotesDatabaseAdapter(LabelsRegistry labelsRegistry) {
 		dbHelper = new NotesDatabaseOpenHelper(DATABASE_NAME, null, CURRENT_VERSION);
+		this.labelsRegistry = labelsRegistry;
 	}
 
 
@@ -117,6 +165,121 @@ import java.util.Set;
 		return notesQuery(ALL_ENTRIES, order);
 	}
 
+	/**
+	 * @return notes in order of ids
+	 */
+	List<AbstractNote> getNotes(List<Integer> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<AbstractNote>();
+		}
+
+		final StringBuilder whereClause = new StringBuilder(KEY_ID).append(" IN (");
+		final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		for (int i = 0; i < ids.size(); i++) {
+			whereClause.append(i > 0 ? "," : "").append(ids.get(i).intValue());
+			positions.put(ids.get(i), i);
+		}
+		whereClause.append(")");
+
+		final AbstractNote[] notes = new AbstractNote[ids.size()];
+		final Cursor cursor = db.query(NOTES_TABLE, NOTES_PROJECTION,
+				whereClause.toString(), null, null, null, null);
+		try {
+			if (cursor.moveToFirst()) {
+				do {
+					final AbstractNote note = noteFromCursor(cursor);
+					notes[positions.get((Integer) note.getId())] = note;
+				} while (cursor.moveToNext());
+			}
+		} finally {
+			cursor.close();
+		}
+
+		final List<AbstractNote> result = new ArrayList<AbstractNote>(notes.length);
+		for (AbstractNote note : notes) {
+			if (note != null) {
+				result.add(note);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Notes satisfying labels and time conditions of query. Conditions are checked by SQLite with indexes.
+	 * @param ids ids of notes matched by text condition of query or null if query has no text
+	 * @param order sort order or null to keep order of ids
+	 * @param limit max notes count or {@link NotesQuery#NO_LIMIT}, limit of query is not used
+	 */
+	List<AbstractNote> getNotes(NotesQuery query, List<Integer> ids, NotesUtils.NoteSortOrder order, int limit) {
+		final StringBuilder whereClause = new StringBuilder();
+		final List<String> args = new ArrayList<String>();
+		if (ids != null) {
+			whereClause.append(KEY_ID).append(" IN (");
+			for (int i = 0; i < ids.size(); i++) {
+				whereClause.append(i > 0 ? "," : "").append(ids.get(i).intValue());
+			}
+			whereClause.append(")");
+		}
+		for (Serializable labelId : query.getLabelsIds()) {
+			appendCondition(whereClause, KEY_ID + " IN (SELECT " + NOTES_LABELS_NOTE_ID +
+					" FROM " + NOTES_LABELS_TABLE + " WHERE " + NOTES_LABELS_LABEL_ID + " = ?)");
+			args.add(labelId.toString());
+		}
+		if (query.hasCreateTimeRange()) {
+			appendCondition(whereClause, NOTES_CREATE_DATE + " >= ? AND " + NOTES_CREATE_DATE + " < ?");
+			args.add(String.valueOf(query.getCreateTimeFrom()));
+			args.add(String.valueOf(query.getCreateTimeTo()));
+		}
+		if (query.hasChangeTimeRange()) {
+			appendCondition(whereClause, NOTES_CHANGE_DATE + " >= ? AND " + NOTES_CHANGE_DATE + " < ?");
+			args.add(String.valueOf(query.getChangeTimeFrom()));
+			args.add(String.valueOf(query.getChangeTimeTo()));
+		}
+
+		// limit is applied by SQLite only if SQLite sorts
+		final boolean sqlLimit = limit != NotesQuery.NO_LIMIT && (order != null || ids == null);
+		final Cursor cursor = db.query(NOTES_TABLE, NOTES_PROJECTION,
+				whereClause.length() > 0 ? whereClause.toString() : null,
+				args.toArray(new String[args.size()]),
+				null, null, sortOrderClause(order),
+				sqlLimit ? String.valueOf(limit) : null);
+
+		final List<AbstractNote> result = new ArrayList<AbstractNote>();
+		try {
+			if (cursor.moveToFirst()) {
+				do {
+					result.add(noteFromCursor(cursor));
+				} while (cursor.moveToNext());
+			}
+		} finally {
+			cursor.close();
+		}
+
+		if (order == null && ids != null) {
+			final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+			for (int i = 0; i < ids.size(); i++) {
+				positions.put(ids.get(i), i);
+			}
+			Collections.sort(result, new Comparator<AbstractNote>() {
+				@Override
+				public int compare(AbstractNote lhs, AbstractNote rhs) {
+					return positions.get((Integer) lhs.getId()) - positions.get((Integer) rhs.getId());
+				}
+			});
+			if (limit != NotesQuery.NO_LIMIT && result.size() > limit) {
+				return new ArrayList<AbstractNote>(result.subList(0, limit));
+			}
+		}
+		return result;
+	}
+
+	private static void appendCondition(StringBuilder whereClause, String condition) {
+		if (whereClause.length() > 0) {
+			whereClause.append(" AND ");
+		}
+		whereClause.append(condition);
+	}
+
 	private List<AbstractNote> notesQuery(int id, NotesUtils.NoteSortOrder order) {
 		Cursor cursor = db.query(NOTES_TABLE, NOTES_PROJECTION,
 				whereClauseForId(id), null, null, null, sortOrderClause(order));
@@ -125,18 +288,183 @@ import java.util.Set;
 
 		if (cursor.moveToFirst()) {
 			do {
-				AbstractNote note = new TextNote(cursor.getString(NOTES_NAME_COLUMN),
-						cursor.getString(NOTES_BODY_COLUMN));
-				note.setCreateTime(new DateTime(cursor.getLong(NOTES_CREATE_DATE_COLUMN)));
-				note.setChangeTime(new DateTime(cursor.getLong(NOTES_CHANGE_DATE_COLUMN)));
-				note.setId(cursor.getInt(KEY_ID_COLUMN));
-				result.add(note);
+				result.add(noteFromCursor(cursor));
 			} while (cursor.moveToNext());
 		}
 
 		return result;
 	}
 
+	/**
+	 * Walks notes in table order with only requested fields
+	 * (see {@link NotesStorage#visitNotes(int, NotesVisitor)})
+	 */
+	void visitNotes(int fields, NotesVisitor visitor) {
+		final List<String> projection = new ArrayList<String>();
+		projection.add(KEY_ID);
+		if ((fields & NotesStorage.FIELD_TITLE) != 0) {
+			projection.add(NOTES_NAME);
+		}
+		if ((fields & NotesStorage.FIELD_BODY) != 0) {
+			projection.add(NOTES_BODY);
+		}
+		if ((fields & NotesStorage.FIELD_TIMES) != 0) {
+			projection.add(NOTES_CREATE_DATE);
+			projection.add(NOTES_CHANGE_DATE);
+		}
+
+		final Cursor cursor = db.query(NOTES_TABLE, projection.toArray(new String[projection.size()]),
+				null, null, null, null, null);
+		try {
+			final int titleColumn = cursor.getColumnIndex(NOTES_NAME);
+			final int bodyColumn = cursor.getColumnIndex(NOTES_BODY);
+			final int createDateColumn = cursor.getColumnIndex(NOTES_CREATE_DATE);
+			final int changeDateColumn = cursor.getColumnIndex(NOTES_CHANGE_DATE);
+
+			boolean proceed = cursor.moveToFirst();
+			while (proceed) {
+				final AbstractNote note = new TextNote.Builder()
+						.setId(cursor.getInt(KEY_ID_COLUMN))
+						.setTitle(titleColumn >= 0 ? cursor.getString(titleColumn) : "")
+						.setBody(bodyColumn >= 0 ? cursor.getString(bodyColumn) : "")
+						.setCreateTime(createDateColumn >= 0 ?
+								new DateTime(cursor.getLong(createDateColumn)) :
+								NotesStorage.NOT_LOADED_TIME)
+						.setChangeTime(changeDateColumn >= 0 ?
+								new DateTime(cursor.getLong(changeDateColumn)) :
+								NotesStorage.NOT_LOADED_TIME)
+						.build();
+				proceed = visitor.visitNote(note) && cursor.moveToNext();
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Full-text search of notes with all query tokens as prefixes
+	 * @return ids of notes sorted by relevance (title hits weigh more) or empty list if query has no tokens
+	 */
+	List<Integer> searchNotesIds(String query) {
+		final String matchExpression = matchExpressionForQuery(query);
+		if (matchExpression == null) {
+			return new ArrayList<Integer>();
+		}
+
+		final String sql = "SELECT " + NOTES_FTS_DOCID + ", offsets(" + NOTES_FTS_TABLE + ")" +
+				" FROM " + NOTES_FTS_TABLE +
+				" WHERE " + NOTES_FTS_TABLE + " MATCH ?;";
+		final Cursor cursor = db.rawQuery(sql, new String[] {matchExpression});
+
+		final List<RankedNoteId> ranked = new ArrayList<RankedNoteId>();
+		try {
+			if (cursor.moveToFirst()) {
+				do {
+					ranked.add(new RankedNoteId(cursor.getInt(0), relevance(cursor.getString(1))));
+				} while (cursor.moveToNext());
+			}
+		} finally {
+			cursor.close();
+		}
+		Collections.sort(ranked);
+
+		final List<Integer> result = new ArrayList<Integer>(ranked.size());
+		for (RankedNoteId rankedNoteId : ranked) {
+			result.add(rankedNoteId.id);
+		}
+		return result;
+	}
+
+	/**
+	 * @return FTS match expression (all tokens as prefixes) or null if query has no tokens
+	 */
+	private static String matchExpressionForQuery(String query) {
+		final StringBuilder expression = new StringBuilder();
+		int tokenStart = -1;
+		for (int i = 0; i <= query.length(); i++) {
+			final boolean tokenChar = i < query.length() && Character.isLetterOrDigit(query.charAt(i));
+			if (tokenChar && tokenStart < 0) {
+				tokenStart = i;
+			} else if (!tokenChar && tokenStart >= 0) {
+				if (expression.length() > 0) {
+					expression.append(' ');
+				}
+				expression.append('"').append(query, tokenStart, i).append("*\"");
+				tokenStart = -1;
+			}
+		}
+		return expression.length() > 0 ? expression.toString() : null;
+	}
+
+	// offsets() returns 4 integers for each hit: column, term, byte offset, size
+	private static int relevance(String offsets) {
+		int relevance = 0;
+		int value = 0;
+		int valueIndex = 0;
+		for (int i = 0; i <= offsets.length(); i++) {
+			final char c = i < offsets.length() ? offsets.charAt(i) : ' ';
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+			} else {
+				if (valueIndex % 4 == 0) { // column
+					relevance += value == 0 ? NOTES_FTS_TITLE_WEIGHT : NOTES_FTS_BODY_WEIGHT;
+				}
+				valueIndex++;
+				value = 0;
+			}
+		}
+		return relevance;
+	}
+
+	/**
+	 * Adds notes with ids in (fromId, toId] not indexed yet to full-text index
+	 */
+	void fillFullTextIndex(int fromId, int toId) {
+		db.execSQL("INSERT INTO " + NOTES_FTS_TABLE +
+						" (" + NOTES_FTS_DOCID + ", " + NOTES_NAME + ", " + NOTES_BODY + ")" +
+						" SELECT " + KEY_ID + ", " + NOTES_NAME + ", " + NOTES_BODY + " FROM " + NOTES_TABLE +
+						" WHERE " + KEY_ID + " > ? AND " + KEY_ID + " <= ? AND " + notIndexedCondition() + ";",
+				new Object[] {fromId, toId});
+	}
+
+	/**
+	 * @return true if all notes are in full-text index
+	 */
+	boolean isFullTextIndexFilled() {
+		final Cursor cursor = db.rawQuery("SELECT EXISTS (SELECT 1 FROM " + NOTES_TABLE +
+				" WHERE " + notIndexedCondition() + ");", null);
+		try {
+			return cursor.moveToFirst() && cursor.getInt(0) == 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	// note is looked up in index by docid, not compared with all indexed ids
+	private static String notIndexedCondition() {
+		return "NOT EXISTS (SELECT 1 FROM " + NOTES_FTS_TABLE +
+				" WHERE " + NOTES_FTS_DOCID + " = " + NOTES_TABLE + "." + KEY_ID + ")";
+	}
+
+	int getMaxNoteId() {
+		final Cursor cursor = db.rawQuery("SELECT MAX(" + KEY_ID + ") FROM " + NOTES_TABLE + ";", null);
+		try {
+			return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static AbstractNote noteFromCursor(Cursor cursor) {
+		return new TextNote.Builder()
+				.setId(cursor.getInt(KEY_ID_COLUMN))
+				.setTitle(cursor.getString(NOTES_NAME_COLUMN))
+				.setBody(cursor.getString(NOTES_BODY_COLUMN))
+				.setCreateTime(new DateTime(cursor.getLong(NOTES_CREATE_DATE_COLUMN)))
+				.setChangeTime(new DateTime(cursor.getLong(NOTES_CHANGE_DATE_COLUMN)))
+				.build();
+	}
+
 
 	// notes data modification
 
@@ -166,21 +494,25 @@ import java.util.Set;
 
 	private List<Label> labelsQuery(int id) {
 		Cursor cursor = db.query(LABELS_TABLE, LABELS_PROJECTION,
-				whereClauseForId(id), null, null, null, LABELS_NAME);
+				whereClauseForId(id), null, null, null, LABELS_NAME + COLLATE_LOCALIZED);
 
 		List<Label> result = new ArrayList<Label>();
 
 		if (cursor.moveToFirst()) {
 			do {
-				Label label = new Label(cursor.getString(LABELS_NAME_COLUMN), cursor.getInt(LABELS_COLOR_COLUMN));
-				label.setId(cursor.getInt(KEY_ID_COLUMN));
-				result.add(label);
+				result.add(labelFromCursor(cursor));
 			} while (cursor.moveToNext());
 		}
 
 		return result;
 	}
 
+	private Label labelFromCursor(Cursor cursor) {
+		return labelsRegistry.obtain(cursor.getInt(KEY_ID_COLUMN),
+				cursor.getString(LABELS_NAME_COLUMN),
+				cursor.getInt(LABELS_COLOR_COLUMN));
+	}
+
 
 	// labels data modification
 
@@ -219,9 +551,7 @@ import java.util.Set;
 		List<Label> result = new ArrayList<Label>();
 		if (cursor.moveToFirst()) {
 			do {
-				Label label = new Label(cursor.getString(LABELS_NAME_COLUMN), cursor.getInt(LABELS_COLOR_COLUMN));
-				label.setId(cursor.getInt(KEY_ID_COLUMN));
-				result.add(label);
+				result.add(labelFromCursor(cursor));
 			} while (cursor.moveToNext());
 		}
 		return result;
@@ -240,7 +570,7 @@ import java.util.Set;
 
 	private Cursor getLabelsForNoteCursor(int noteId, boolean orderByName) {
 		final String orderSuffix = orderByName ?
-				" ORDER BY " + LABELS_NAME:
+				" ORDER BY " + LABELS_NAME + COLLATE_LOCALIZED :
 				"";
 		final String query = "SELECT " + projectionToString(LABELS_PROJECTION) +
 				" FROM " + LABELS_TABLE + " WHERE " + KEY_ID +
@@ -262,12 +592,7 @@ import java.util.Set;
 
 		if (cursor.moveToFirst()) {
 			do {
-				AbstractNote note = new TextNote(cursor.getString(NOTES_NAME_COLUMN),
-						cursor.getString(NOTES_BODY_COLUMN));
-				note.setCreateTime(new DateTime(cursor.getLong(NOTES_CREATE_DATE_COLUMN)));
-				note.setChangeTime(new DateTime(cursor.getLong(NOTES_CHANGE_DATE_COLUMN)));
-				note.setId(cursor.getInt(KEY_ID_COLUMN));
-				result.add(note);
+				result.add(noteFromCursor(cursor));
 			} while (cursor.moveToNext());
 		}
 
@@ -309,7 +634,7 @@ import java.util.Set;
 		}
 		switch (order) {
 			case Title:
-				return NOTES_NAME;
+				return NOTES_NAME + COLLATE_LOCALIZED;
 
 			case CreateDateAscending:
 				return NOTES_CREATE_DATE + " ASC";
@@ -400,4 +725,27 @@ import java.util.Set;
 		}
 	}
 
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class RankedNoteId implements Comparable<RankedNoteId> {
+		final int id;
+		final int relevance;
+
+		RankedNoteId(int id, int relevance) {
+			this.id = id;
+			this.relevance = relevance;
+		}
+
+		@Override
+		public int compareTo(RankedNoteId another) {
+			return another.relevance - relevance; // most relevant first
+		}
+	}
 }
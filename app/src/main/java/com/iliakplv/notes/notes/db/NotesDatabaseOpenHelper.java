@@ -1,6 +1,7 @@
 package com.iliakplv.notes.notes.db;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.iliakplv.notes.NotesApplication;
@@ -12,6 +13,8 @@ import com.iliakplv.notes.utils.AppLog;
 
 	static final int DATABASE_VERSION_FIRST = 1;     // Only (notes)
 	static final int DATABASE_VERSION_LABELS = 2;    // Added: (labels), (notes_labels)
+	static final int DATABASE_VERSION_SEARCH = 3;    // Added: (notes_fts) with triggers
+	static final int DATABASE_VERSION_QUERIES = 4;   // Added: indexes for notes queries
 
 
 	NotesDatabaseOpenHelper(String name, SQLiteDatabase.CursorFactory factory, int version) {
@@ -22,15 +25,23 @@ import com.iliakplv.notes.utils.AppLog;
 	public void onCreate(SQLiteDatabase db) {
 		createFirstVersion(db);
 		upgradeToLabels(db, true);
+		upgradeToSearch(db, true);
+		upgradeToQueries(db, true);
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		AppLog.d(LOG_TAG, "Upgrading version " + oldVersion + " to " + newVersion);
 
-		if (oldVersion == DATABASE_VERSION_FIRST && newVersion == DATABASE_VERSION_LABELS) {
+		if (oldVersion < DATABASE_VERSION_LABELS && newVersion >= DATABASE_VERSION_LABELS) {
 			upgradeToLabels(db, false);
 		}
+		if (oldVersion < DATABASE_VERSION_SEARCH && newVersion >= DATABASE_VERSION_SEARCH) {
+			upgradeToSearch(db, false); // existing notes indexed in background (see NotesDatabaseStorage)
+		}
+		if (oldVersion < DATABASE_VERSION_QUERIES && newVersion >= DATABASE_VERSION_QUERIES) {
+			upgradeToQueries(db, false);
+		}
 	}
 
 	private void createFirstVersion(SQLiteDatabase db) {
@@ -44,4 +55,27 @@ import com.iliakplv.notes.utils.AppLog;
 		AppLog.d(LOG_TAG, (creation ? "Schema creation: " : "Schema upgrading: ") + NotesDatabaseAdapter.CREATE_LABELS_TABLE);
 		AppLog.d(LOG_TAG, (creation ? "Schema creation: " : "Schema upgrading: ") + NotesDatabaseAdapter.CREATE_NOTES_LABELS_TABLE);
 	}
+
+	private void upgradeToSearch(SQLiteDatabase db, boolean creation) {
+		String createFtsTable = NotesDatabaseAdapter.CREATE_NOTES_FTS_TABLE;
+		try {
+			db.execSQL(createFtsTable);
+		} catch (SQLiteException e) {
+			// unicode61 tokenizer is not available in old SQLite versions
+			createFtsTable = NotesDatabaseAdapter.CREATE_NOTES_FTS_TABLE_SIMPLE_TOKENIZER;
+			db.execSQL(createFtsTable);
+		}
+		AppLog.d(LOG_TAG, (creation ? "Schema creation: " : "Schema upgrading: ") + createFtsTable);
+		for (String createTrigger : NotesDatabaseAdapter.CREATE_NOTES_FTS_TRIGGERS) {
+			db.execSQL(createTrigger);
+			AppLog.d(LOG_TAG, (creation ? "Schema creation: " : "Schema upgrading: ") + createTrigger);
+		}
+	}
+
+	private void upgradeToQueries(SQLiteDatabase db, boolean creation) {
+		for (String createIndex : NotesDatabaseAdapter.CREATE_QUERIES_INDEXES) {
+			db.execSQL(createIndex);
+			AppLog.d(LOG_TAG, (creation ? "Schema creation: " : "Schema upgrading: ") + createIndex);
+		}
+	}
 }
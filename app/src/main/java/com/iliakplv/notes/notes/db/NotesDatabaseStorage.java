@@ -5,14 +5,32 @@ import android.util.Pair;
 import com.iliakplv.notes.NotesApplication;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
+import com.iliakplv.notes.notes.LabelsRegistry;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
+import com.iliakplv.notes.notes.search.LiveSearchTasks;
+import com.iliakplv.notes.notes.search.RegexQuery;
+import com.iliakplv.notes.notes.search.RegexSearchSource;
+import com.iliakplv.notes.notes.search.SavedSearches;
+import com.iliakplv.notes.notes.search.SearchNormalizer;
+import com.iliakplv.notes.notes.search.SearchResultsCache;
+import com.iliakplv.notes.notes.search.SearchSuggestions;
+import com.iliakplv.notes.notes.search.SearchTask;
+import com.iliakplv.notes.notes.search.TrigramIndex;
+import com.iliakplv.notes.notes.storage.MemoryBudget;
+import com.iliakplv.notes.notes.storage.NoteCache;
+import com.iliakplv.notes.notes.storage.NotesQuery;
 import com.iliakplv.notes.notes.storage.NotesStorage;
 import com.iliakplv.notes.notes.storage.NotesStorageListener;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
+import com.iliakplv.notes.notes.storage.OffHeapBodyStore;
+import com.iliakplv.notes.notes.storage.TrimmableCache;
 import com.iliakplv.notes.utils.AppLog;
 import com.iliakplv.notes.utils.StringUtils;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -21,32 +39,119 @@ public class NotesDatabaseStorage implements NotesStorage {
 
 	private static final String LOG_TAG = NotesDatabaseStorage.class.getSimpleName();
 	private static final Integer INVALID_ID = -1;
+	private static final NotesQuery ALL_NOTES_QUERY = new NotesQuery.Builder().build();
 
 
 	// list cache
-	private List<AbstractNote> notesListCache;
-	private volatile Integer notesListCacheLabelId = INVALID_ID;
+	private volatile List<AbstractNote> notesListCache;
+	private volatile Serializable notesListCacheLabelId = INVALID_ID;
 	private volatile boolean notesListCacheActual = false;
+	private volatile long notesListCacheBytes = 0;
 
 	// list sort
 	private volatile NotesUtils.NoteSortOrder notesSortOrder = NotesUtils.DEFAULT_SORT_ORDER;
 
 	// note cache
-	private AbstractNote noteCache;
-	private volatile Integer noteCacheNoteId = INVALID_ID;
-	private volatile boolean noteCacheActual = false;
+	private final NoteCache noteCache = new NoteCache("db_notes", new OffHeapBodyStore());
 
 	// labels cache
-	private List<Label> labelsListCache;
+	private volatile List<Label> labelsListCache;
 	private volatile boolean labelsListCacheActual = false;
 
+	// canonical labels
+	private final LabelsRegistry labelsRegistry = new LabelsRegistry();
+
 	// search cache
-	private List<AbstractNote> searchListCache = new ArrayList<AbstractNote>();
-	private String lastSearchQuery = "";
+	private final SearchResultsCache searchResultsCache = new SearchResultsCache("db_search");
+
+	// search tasks with live results
+	private final LiveSearchTasks liveSearchTasks = new LiveSearchTasks();
+
+	// saved searches (smart labels)
+	private final SavedSearches.Listener savedSearchesListener = new SavedSearches.Listener() {
+		@Override
+		public void onNotesIdsChanged() {
+			if (SavedSearches.isSavedSearchId(notesListCacheLabelId)) {
+				notesListCacheActual = false;
+				notifyListeners();
+			}
+		}
+	};
+	private final SavedSearches savedSearches = new SavedSearches("db_saved_searches", savedSearchesListener);
+
+	// search suggestions (titles and recent queries)
+	private final SearchSuggestions searchSuggestions = new SearchSuggestions("db_search_suggestions");
+
+	// full-text index (notes created before index are added in background)
+	private static final int FULL_TEXT_INDEX_FILL_BATCH = 200;
+	private static final int MIN_FULL_TEXT_TOKEN_LENGTH = 2; // shorter prefixes expand to most of terms
+	private volatile boolean fullTextIndexFilled = false;
+
+	// substring search index (for queries inside of words)
+	private final TrigramIndex trigramIndex = new TrigramIndex("db_trigram_index");
 
 	// listeners
 	private final List<NotesStorageListener> storageListeners = new LinkedList<NotesStorageListener>();
 
+	// memory budget
+	private final TrimmableCache notesListCacheTrimmer = new TrimmableCache() {
+		@Override
+		public long getRetainedBytes() {
+			return notesListCacheBytes;
+		}
+
+		@Override
+		public void trimToSize(long maxBytes) {
+			if (notesListCacheBytes > maxBytes) {
+				notesListCacheActual = false;
+				notesListCache = null;
+				notesListCacheBytes = 0;
+			}
+		}
+	};
+
+
+	public NotesDatabaseStorage() {
+		MemoryBudget.register("db_notes_list", MemoryBudget.PRIORITY_NOTES_LIST, notesListCacheTrimmer);
+
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				fillFullTextIndex();
+			}
+		});
+		savedSearches.fillInBackground(this);
+		searchSuggestions.fillInBackground(this);
+	}
+
+	/**
+	 * Fill state is taken from database itself (not indexed notes are looked up by ids),
+	 * so database created or replaced without index is filled again.
+	 * Notes inserted later are indexed by trigger. Each batch is one statement copying current rows
+	 * not indexed yet, so notes updated or deleted concurrently are indexed either by trigger or by batch.
+	 * Batches are written under storage lock like notes, so writes of other connection wait for one batch only.
+	 */
+	private void fillFullTextIndex() {
+		final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter(labelsRegistry);
+		adapter.open();
+		try {
+			if (adapter.isFullTextIndexFilled()) {
+				fullTextIndexFilled = true;
+				return;
+			}
+			final int maxId = adapter.getMaxNoteId();
+			for (int fromId = 0; fromId < maxId; fromId += FULL_TEXT_INDEX_FILL_BATCH) {
+				synchronized (this) {
+					adapter.fillFullTextIndex(fromId, fromId + FULL_TEXT_INDEX_FILL_BATCH);
+				}
+			}
+		} finally {
+			adapter.close();
+		}
+		fullTextIndexFilled = true;
+		AppLog.d(LOG_TAG, "Full-text index filled");
+	}
+
 
 	// notes
 
@@ -63,66 +168,140 @@ public class NotesDatabaseStorage implements NotesStorage {
 
 	@Override
 	public AbstractNote getNote(Serializable id) {
-		refreshNoteCacheIfNeeded((Integer) id);
-		return noteCache;
+		return refreshNoteCacheIfNeeded((Integer) id);
 	}
 
-	private void refreshNoteCacheIfNeeded(Integer noteId) {
-		final boolean needToRefresh = !noteCacheActual || !noteCacheNoteId.equals(noteId);
+	private AbstractNote refreshNoteCacheIfNeeded(Integer noteId) {
+		AbstractNote note = noteCache.get(noteId);
+		final boolean needToRefresh = note == null;
 		AppLog.d(LOG_TAG, "Note entry refresh (id=" + noteId + "). Cached entry " +
 				(needToRefresh ? "NOT " : "") + "actual");
 		if (needToRefresh) {
-			noteCache = (AbstractNote) performDatabaseTransaction(TransactionType.GetNote, noteId);
-			noteCacheNoteId = noteId;
-			noteCacheActual = true;
+			note = (AbstractNote) performDatabaseTransaction(TransactionType.GetNote, noteId);
+			noteCache.put(note);
 		}
+		return note;
 	}
 
-	private void refreshNotesListCacheIfNeeded(Integer labelId) {
-		final boolean needToRefresh = !notesListCacheActual || !notesListCacheLabelId.equals(labelId);
+	private List<AbstractNote> refreshNotesListCacheIfNeeded(Serializable labelId) {
+		List<AbstractNote> notes = notesListCache;
+		final boolean needToRefresh = notes == null ||
+				!notesListCacheActual ||
+				!notesListCacheLabelId.equals(labelId);
 		AppLog.d(LOG_TAG, "Notes entries refresh (labelId=" + labelId + "). Cached entries list " +
 				(needToRefresh ? "NOT " : "") + "actual");
 		if (needToRefresh) {
-			final TransactionType selectTransaction = labelId == NOTES_FOR_ALL_LABELS ?
-							TransactionType.GetAllNotes :
-							TransactionType.GetNotesForLabel;
-			notesListCache =
-					(List<AbstractNote>) performDatabaseTransaction(selectTransaction, labelId);
+			boolean actual = true;
+			if (SavedSearches.isSavedSearchId(labelId)) {
+				final Set<Serializable> notesIds = savedSearches.getNotesIds(labelId);
+				actual = notesIds != null; // otherwise listener is called when notes set is filled
+				notes = actual ?
+						(List<AbstractNote>) performDatabaseTransaction(TransactionType.GetNotesForSavedSearch, notesIds) :
+						new ArrayList<AbstractNote>();
+			} else {
+				final TransactionType selectTransaction = NOTES_FOR_ALL_LABELS.equals(labelId) ?
+						TransactionType.GetAllNotes :
+						TransactionType.GetNotesForLabel;
+				notes = (List<AbstractNote>) performDatabaseTransaction(selectTransaction, labelId);
+			}
+			notesListCache = notes;
 			notesListCacheLabelId = labelId;
-			notesListCacheActual = true;
+			notesListCacheActual = actual;
+			notesListCacheBytes = MemoryBudget.estimateBytes(notes);
+			MemoryBudget.onCacheGrown();
 		}
+		return notes;
 	}
 
 	@Override
 	public List<AbstractNote> getNotesForLabel(Serializable labelId) {
-		refreshNotesListCacheIfNeeded((Integer) labelId);
-		return notesListCache;
+		return refreshNotesListCacheIfNeeded(labelId);
 	}
 
 	@Override
 	public List<AbstractNote> getNotesForQuery(String searchQuery) {
 		if (!StringUtils.isBlank(searchQuery)) {
-			searchQuery = StringUtils.normalizeString(searchQuery);
-			if (!lastSearchQuery.equals(searchQuery)) {
-				final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter();
-				adapter.open();
-				final List<AbstractNote> allNotes = adapter.getAllNotes(notesSortOrder);
-				adapter.close();
+			final String query = SearchNormalizer.normalizeQuery(searchQuery);
+			final SearchTask.Source source = createSearchSource(searchQuery);
+			List<AbstractNote> searchResult = source.getCachedResults(query);
+			if (searchResult == null) {
+				searchResult = Collections.unmodifiableList(source.loadNotes(SearchTask.findAllNotesIds(source, query)));
+				source.onSearchCompleted(query, searchResult);
+			}
+			return searchResult;
+		}
+		return EMPTY_NOTES_LIST;
+	}
 
-				final List<AbstractNote> searchResult = new ArrayList<AbstractNote>();
-				for (AbstractNote note : allNotes) {
-					final String title = StringUtils.normalizeString(note.getTitle());
-					final String body = StringUtils.normalizeString(note.getBody());
-					if (title.contains(searchQuery) || body.contains(searchQuery)) {
-						searchResult.add(note);
-					}
+	@Override
+	public SearchTask startSearch(String searchQuery, long timeBudgetMillis, SearchTask.Listener listener) {
+		final SearchTask task = new SearchTask(SearchNormalizer.normalizeQuery(searchQuery),
+				timeBudgetMillis, createSearchSource(searchQuery), listener);
+		liveSearchTasks.add(task); // before start, notes written during search are applied to results
+		NotesApplication.executeInBackground(task);
+		return task;
+	}
+
+	private SearchTask.Source createSearchSource(String searchQuery) {
+		final String query = SearchNormalizer.normalizeQuery(searchQuery);
+		final SearchSource source = new SearchSource(searchQuery);
+		return RegexQuery.isRegex(query) ? new RegexSearchSource(query, trigramIndex, this, source) : source;
+	}
+
+	/**
+	 * Text condition is checked with trigram index, other conditions, sort and limit by SQLite
+	 */
+	@Override
+	public List<AbstractNote> getNotes(NotesQuery query) {
+		List<Integer> ids = null;
+		RegexQuery regex = null;
+		if (query.hasText()) {
+			final List<Serializable> foundIds;
+			if (RegexQuery.isRegex(query.getText())) {
+				regex = RegexQuery.compile(query.getText());
+				if (regex == null) {
+					return EMPTY_NOTES_LIST; // invalid pattern
 				}
-				searchListCache = searchResult;
-				lastSearchQuery = searchQuery;
+				foundIds = trigramIndex.findRegexCandidates(regex, this);
+			} else {
+				foundIds = trigramIndex.search(query.getText(), this);
+			}
+			ids = new ArrayList<Integer>(foundIds.size());
+			for (Serializable id : foundIds) {
+				ids.add((Integer) id);
+			}
+			if (ids.isEmpty()) {
+				return EMPTY_NOTES_LIST;
 			}
-			return searchListCache;
 		}
-		return EMPTY_NOTES_LIST;
+		final NotesUtils.NoteSortOrder order = query.getSortOrder() != null || query.hasText() ?
+				query.getSortOrder() :
+				notesSortOrder;
+
+		final List<AbstractNote> notes;
+		final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter(labelsRegistry);
+		adapter.open();
+		try {
+			// candidates of pattern are limited after matching
+			notes = adapter.getNotes(query, ids, order, regex != null ? NotesQuery.NO_LIMIT : query.getLimit());
+		} finally {
+			adapter.close();
+		}
+		return regex != null ? matchRegex(notes, regex, query.getLimit()) : notes;
+	}
+
+	// notes matching pattern in order of given notes, up to limit
+	private static List<AbstractNote> matchRegex(List<AbstractNote> notes, RegexQuery regex, int limit) {
+		final List<AbstractNote> matched = new ArrayList<AbstractNote>();
+		for (AbstractNote note : notes) {
+			if (limit != NotesQuery.NO_LIMIT && matched.size() == limit) {
+				break;
+			}
+			if (regex.matches(note)) {
+				matched.add(note);
+			}
+		}
+		return matched;
 	}
 
 	@Override
@@ -140,6 +319,17 @@ public class NotesDatabaseStorage implements NotesStorage {
 		return (Boolean) performDatabaseTransaction(TransactionType.DeleteNote, id);
 	}
 
+	@Override
+	public void visitNotes(int fields, NotesVisitor visitor) {
+		final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter(labelsRegistry);
+		adapter.open();
+		try {
+			adapter.visitNotes(fields, visitor);
+		} finally {
+			adapter.close();
+		}
+	}
+
 
 	// labels
 
@@ -179,6 +369,49 @@ public class NotesDatabaseStorage implements NotesStorage {
 	}
 
 
+	// saved searches
+
+	@Override
+	public SavedSearch getSavedSearch(Serializable id) {
+		return savedSearches.get(id);
+	}
+
+	@Override
+	public List<SavedSearch> getAllSavedSearches() {
+		return savedSearches.getAll();
+	}
+
+	@Override
+	public Serializable insertSavedSearch(SavedSearch search) {
+		final Serializable id = savedSearches.add(search);
+		savedSearches.fillInBackground(this);
+		notifyListeners();
+		return id;
+	}
+
+	@Override
+	public boolean deleteSavedSearch(Serializable id) {
+		final boolean deleted = savedSearches.remove(id);
+		if (deleted) {
+			notesListCacheActual = false;
+			notifyListeners();
+		}
+		return deleted;
+	}
+
+	// search suggestions
+
+	@Override
+	public List<String> getSearchSuggestions(String prefix, int limit) {
+		return searchSuggestions.getSuggestions(prefix, limit);
+	}
+
+	@Override
+	public void addRecentSearchQuery(String query) {
+		searchSuggestions.addRecentQuery(query);
+	}
+
+
 	// notes_labels
 
 	@Override
@@ -212,7 +445,7 @@ public class NotesDatabaseStorage implements NotesStorage {
 		Integer noteId = 0;
 		Integer labelId = 0;
 
-		final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter();
+		final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter(labelsRegistry);
 		adapter.open();
 		switch (transactionType) {
 			case GetNote:
@@ -223,16 +456,39 @@ public class NotesDatabaseStorage implements NotesStorage {
 				result = adapter.getAllNotes(notesSortOrder);
 				break;
 			case InsertNote:
-				result = adapter.insertNote((AbstractNote) args[0]);
+				final AbstractNote insertedNote = (AbstractNote) args[0];
+				result = adapter.insertNote(insertedNote);
+				trigramIndex.put((Integer) result, insertedNote.getTitle(), insertedNote.getBody(),
+						insertedNote.getChangeTime().getMillis());
+				final AbstractNote insertedNoteWithId = insertedNote.buildUpon().setId((Integer) result).build();
+				searchResultsCache.onNoteChanged(insertedNoteWithId);
+				savedSearches.onNoteChanged(insertedNoteWithId);
+				searchSuggestions.onNoteChanged(insertedNoteWithId);
+				liveSearchTasks.onNoteChanged(insertedNoteWithId);
 				break;
 			case UpdateNote:
 				noteId = (Integer) args[0];
-				result = adapter.updateNote(noteId, (AbstractNote) args[1]);
+				final AbstractNote updatedNote = (AbstractNote) args[1];
+				result = adapter.updateNote(noteId, updatedNote);
+				if ((Boolean) result) {
+					trigramIndex.put(noteId, updatedNote.getTitle(), updatedNote.getBody(),
+							updatedNote.getChangeTime().getMillis());
+					final AbstractNote updatedNoteWithId = updatedNote.buildUpon().setId(noteId).build();
+					searchResultsCache.onNoteChanged(updatedNoteWithId);
+					savedSearches.onNoteChanged(updatedNoteWithId);
+					searchSuggestions.onNoteChanged(updatedNoteWithId);
+					liveSearchTasks.onNoteChanged(updatedNoteWithId);
+				}
 				break;
 			case DeleteNote:
 				noteId = (Integer) args[0];
 				adapter.deleteNoteLabelsForNote(noteId);
 				result = adapter.deleteNote(noteId);
+				trigramIndex.remove(noteId);
+				searchResultsCache.onNoteDeleted(noteId);
+				savedSearches.onNoteDeleted(noteId);
+				searchSuggestions.onNoteDeleted(noteId);
+				liveSearchTasks.onNoteDeleted(noteId);
 				break;
 
 			case GetLabel:
@@ -247,12 +503,17 @@ public class NotesDatabaseStorage implements NotesStorage {
 				break;
 			case UpdateLabel:
 				labelId = (Integer) args[0];
-				result = adapter.updateLabel(labelId, (Label) args[1]);
+				final Label label = (Label) args[1];
+				result = adapter.updateLabel(labelId, label);
+				if ((Boolean) result) {
+					labelsRegistry.update(labelId, label.getName(), label.getColor());
+				}
 				break;
 			case DeleteLabel:
 				labelId = (Integer) args[0];
 				adapter.deleteNoteLabelsForLabel(labelId);
 				result = adapter.deleteLabel(labelId);
+				labelsRegistry.remove(labelId);
 				break;
 
 			case GetAllNotesLabelsIds:
@@ -270,6 +531,15 @@ public class NotesDatabaseStorage implements NotesStorage {
 				labelId = (Integer) args[0];
 				result = adapter.getNotesForLabel(labelId, notesSortOrder);
 				break;
+			case GetNotesForSavedSearch:
+				final List<Integer> notesIds = new ArrayList<Integer>();
+				for (Serializable id : (Set<Serializable>) args[0]) {
+					notesIds.add((Integer) id);
+				}
+				result = notesIds.isEmpty() ?
+						new ArrayList<AbstractNote>() :
+						adapter.getNotes(ALL_NOTES_QUERY, notesIds, notesSortOrder, NotesQuery.NO_LIMIT);
+				break;
 			case InsertLabelToNote:
 				noteId = (Integer) args[0];
 				labelId = (Integer) args[1];
@@ -283,6 +553,12 @@ public class NotesDatabaseStorage implements NotesStorage {
 
 			case DeleteAllData:
 				adapter.deleteAllData();
+				labelsRegistry.clear();
+				trigramIndex.clear();
+				searchResultsCache.clear();
+				savedSearches.clear();
+				searchSuggestions.clear();
+				liveSearchTasks.clear();
 				result = null;
 				break;
 
@@ -298,15 +574,16 @@ public class NotesDatabaseStorage implements NotesStorage {
 	private void onTransactionPerformed(TransactionType transactionType, Integer noteId, Integer labelId) {
 		AppLog.d(LOG_TAG, "Database transaction (" + transactionType.name() + ") performed");
 
-		if (noteCacheNoteId.equals(noteId) && noteModificationTransaction(transactionType)) {
-			noteCacheActual = false;
+		if (transactionType == TransactionType.DeleteAllData) {
+			noteCache.clear();
+		} else if (noteModificationTransaction(transactionType)) {
+			noteCache.remove(noteId);
 		}
 		if (labelsModificationTransaction(transactionType)) {
 			labelsListCacheActual = false;
 		}
 		if (databaseModificationTransaction(transactionType)) {
 			notesListCacheActual = false;
-			lastSearchQuery = "";
 			notifyListeners();
 		}
 	}
@@ -430,6 +707,92 @@ public class NotesDatabaseStorage implements NotesStorage {
 	 *
 	 *********************************************/
 
+	/**
+	 * Results are notes with query words as words prefixes (full-text index, ranked by relevance).
+	 * Trigram index (substrings, typos and other word forms) is searched only if full-text index
+	 * can't answer: it is not filled yet, query is not plain or has too short words,
+	 * or no notes have query words as prefixes (query is inside of words).
+	 */
+	private final class SearchSource implements SearchTask.Source {
+
+		// full text index tokenizer does not fold all diacritics, such queries are matched by substring only
+		private final boolean plainQuery;
+
+		SearchSource(String searchQuery) {
+			plainQuery = SearchNormalizer.normalizeQuery(searchQuery).equals(StringUtils.normalizeString(searchQuery));
+		}
+
+		private boolean isFullTextQuery(String query) {
+			if (!fullTextIndexFilled || !plainQuery) {
+				return false;
+			}
+			int tokens = 0;
+			int tokenLength = 0;
+			for (int i = 0; i <= query.length(); i++) {
+				if (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+					tokenLength++;
+				} else if (tokenLength > 0) {
+					if (tokenLength < MIN_FULL_TEXT_TOKEN_LENGTH) {
+						return false;
+					}
+					tokens++;
+					tokenLength = 0;
+				}
+			}
+			return tokens > 0;
+		}
+
+		@Override
+		public List<AbstractNote> getCachedResults(String query) {
+			return searchResultsCache.get(query);
+		}
+
+		@Override
+		public void findNotesIds(String query, SearchTask.Hits hits) {
+			if (isFullTextQuery(query)) {
+				final List<Integer> ids;
+				final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter(labelsRegistry);
+				adapter.open();
+				try {
+					ids = adapter.searchNotesIds(query);
+				} finally {
+					adapter.close();
+				}
+				if (!ids.isEmpty()) {
+					hits.add(new ArrayList<Serializable>(ids));
+					return;
+				}
+			}
+			// query is a substring inside of words or can't be answered by full-text index
+			trigramIndex.search(query, NotesDatabaseStorage.this, hits);
+		}
+
+		@Override
+		public List<AbstractNote> loadNotes(List<Serializable> ids) {
+			final List<Integer> intIds = new ArrayList<Integer>(ids.size());
+			for (Serializable id : ids) {
+				intIds.add((Integer) id);
+			}
+			final NotesDatabaseAdapter adapter = new NotesDatabaseAdapter(labelsRegistry);
+			adapter.open();
+			try {
+				return adapter.getNotes(intIds);
+			} finally {
+				adapter.close();
+			}
+		}
+
+		@Override
+		public boolean isComplete() {
+			return true;
+		}
+
+		@Override
+		public void onSearchCompleted(String query, List<AbstractNote> notes) {
+			searchResultsCache.put(query, notes);
+		}
+	}
+
 	private static enum TransactionType {
 		GetNote,
 		GetAllNotes,
@@ -447,6 +810,7 @@ public class NotesDatabaseStorage implements NotesStorage {
 		GetLabelsForNote,
 		GetLabelsIdsForNote,
 		GetNotesForLabel,
+		GetNotesForSavedSearch,
 		InsertLabelToNote,
 		DeleteLabelFromNote,
 
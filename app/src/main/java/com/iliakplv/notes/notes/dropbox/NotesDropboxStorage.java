@@ -12,11 +12,29 @@ import com.iliakplv.notes.NotesApplication;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
 import com.iliakplv.notes.notes.LabelComparator;
+import com.iliakplv.notes.notes.LabelsRegistry;
 import com.iliakplv.notes.notes.NoteComparator;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
 import com.iliakplv.notes.notes.TextNote;
+import com.iliakplv.notes.notes.search.LiveSearchTasks;
+import com.iliakplv.notes.notes.search.RegexQuery;
+import com.iliakplv.notes.notes.search.RegexSearchSource;
+import com.iliakplv.notes.notes.search.SavedSearches;
+import com.iliakplv.notes.notes.search.SearchNormalizer;
+import com.iliakplv.notes.notes.search.SearchResultsCache;
+import com.iliakplv.notes.notes.search.SearchSuggestions;
+import com.iliakplv.notes.notes.search.SearchTask;
+import com.iliakplv.notes.notes.search.TrigramIndex;
+import com.iliakplv.notes.notes.storage.MemoryBudget;
+import com.iliakplv.notes.notes.storage.NoteCache;
+import com.iliakplv.notes.notes.storage.NotesColumnarIndex;
+import com.iliakplv.notes.notes.storage.NotesQuery;
 import com.iliakplv.notes.notes.storage.NotesStorage;
 import com.iliakplv.notes.notes.storage.NotesStorageListener;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
+import com.iliakplv.notes.notes.storage.OffHeapBodyStore;
+import com.iliakplv.notes.notes.storage.TrimmableCache;
 import com.iliakplv.notes.utils.AppLog;
 import com.iliakplv.notes.utils.StringUtils;
 
@@ -24,10 +42,13 @@ import org.joda.time.DateTime;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class NotesDropboxStorage implements NotesStorage {
@@ -68,33 +89,122 @@ public class NotesDropboxStorage implements NotesStorage {
 	private static final int CACHE_NOTES_LIST = 2;
 	private static final int CACHE_LABELS_LIST = 4;
 
-	// notes list cache
-	private List<AbstractNote> notesListCache;
+	// notes index and list cache (list materializes notes from index rows on access)
+	private volatile NotesColumnarIndex notesIndex;
+	private volatile List<AbstractNote> notesListCache;
 	private volatile Serializable notesListCacheLabelId = INVALID_ID;
 	private volatile boolean notesListCacheActual = false;
+	private volatile long notesListCacheBytes = 0;
 
 	// list sort
 	private NoteComparator noteComparator = new NoteComparator();
 	private LabelComparator labelComparator = new LabelComparator();
 
 	// note cache
-	private AbstractNote noteCache;
-	private volatile Serializable noteCacheNoteId = INVALID_ID;
-	private volatile boolean noteCacheActual = false;
+	private final NoteCache noteCache = new NoteCache("dropbox_notes", new OffHeapBodyStore());
 
 	// labels cache
-	private List<Label> labelsListCache;
+	private volatile List<Label> labelsListCache;
 	private volatile boolean labelsListCacheActual = false;
 
+	// canonical labels
+	private final LabelsRegistry labelsRegistry = new LabelsRegistry();
+
 	// search cache
-	private List<AbstractNote> searchListCache = new ArrayList<AbstractNote>();
-	private String lastSearchQuery = "";
+	private final SearchResultsCache searchResultsCache = new SearchResultsCache("dropbox_search");
+
+	// search tasks with live results
+	private final LiveSearchTasks liveSearchTasks = new LiveSearchTasks();
+
+	// search index
+	private final TrigramIndex trigramIndex = new TrigramIndex("dropbox_trigram_index");
+
+	// saved searches (smart labels), not synced
+	private final SavedSearches.Listener savedSearchesListener = new SavedSearches.Listener() {
+		@Override
+		public void onNotesIdsChanged() {
+			if (SavedSearches.isSavedSearchId(notesListCacheLabelId)) {
+				notesListCacheActual = false;
+				notifyListeners();
+			}
+		}
+	};
+	private final SavedSearches savedSearches = new SavedSearches("dropbox_saved_searches", savedSearchesListener);
+
+	// search suggestions (titles and recent queries)
+	private final SearchSuggestions searchSuggestions = new SearchSuggestions("dropbox_search_suggestions");
 
 	// listeners
 	private final List<NotesStorageListener> storageListeners = new LinkedList<NotesStorageListener>();
 
+	// memory budget
+	private final TrimmableCache notesListCacheTrimmer = new TrimmableCache() {
+		@Override
+		public long getRetainedBytes() {
+			return notesListCacheBytes;
+		}
+
+		@Override
+		public void trimToSize(long maxBytes) {
+			if (notesListCacheBytes > maxBytes) {
+				notesListCacheActual = false;
+				notesListCache = null;
+				notesIndex = null;
+				notesListCacheBytes = 0;
+			}
+		}
+	};
+
+	private final SearchTask.Source searchSource = new SearchTask.Source() {
+		@Override
+		public List<AbstractNote> getCachedResults(String query) {
+			return searchResultsCache.get(query);
+		}
+
+		@Override
+		public void findNotesIds(String query, SearchTask.Hits hits) {
+			trigramIndex.search(query, NotesDropboxStorage.this, hits);
+		}
+
+		@Override
+		public List<AbstractNote> loadNotes(List<Serializable> ids) {
+			final List<AbstractNote> notes = new ArrayList<AbstractNote>(ids.size());
+			try {
+				for (Serializable id : ids) {
+					final AbstractNote note = createNoteFromRecord(notesTable.get((String) id));
+					if (note != null) {
+						notes.add(note);
+					}
+				}
+			} catch (DbxException e) {
+				AppLog.e(TAG, "loadNotes()", e);
+				throw new RuntimeException();
+			}
+			return notes;
+		}
+
+		@Override
+		public boolean isComplete() {
+			return true;
+		}
+
+		@Override
+		public void onSearchCompleted(String query, List<AbstractNote> notes) {
+			searchResultsCache.put(query, notes);
+		}
+	};
+
+	private final NotesColumnarIndex.NoteLoader noteLoader = new NotesColumnarIndex.NoteLoader() {
+		@Override
+		public AbstractNote loadNote(Serializable id) {
+			return refreshNoteCacheIfNeeded((String) id);
+		}
+	};
+
 
 	public NotesDropboxStorage() {
+		MemoryBudget.register("dropbox_notes_list", MemoryBudget.PRIORITY_NOTES_LIST, notesListCacheTrimmer);
+
 		try {
 			datastore = DbxDatastore.openDefault(DropboxHelper.getAccount());
 		} catch (DbxException e) {
@@ -104,15 +214,39 @@ public class NotesDropboxStorage implements NotesStorage {
 
 		syncDatastore();
 		initTables();
+		savedSearches.fillInBackground(this);
+		searchSuggestions.fillInBackground(this);
 	}
 
 	private void syncDatastore() {
+		final Map<String, Set<DbxRecord>> incomingChanges;
 		try {
-			datastore.sync();
+			incomingChanges = datastore.sync();
 		} catch (DbxException e) {
 			AppLog.e(TAG, "syncDatastore()", e);
 			throw new RuntimeException();
 		}
+
+		final Set<DbxRecord> changedNotes = incomingChanges.get(NOTES_TABLE);
+		if (changedNotes != null) {
+			for (DbxRecord record : changedNotes) {
+				if (record.isDeleted()) {
+					trigramIndex.remove(record.getId());
+					searchResultsCache.onNoteDeleted(record.getId());
+					savedSearches.onNoteDeleted(record.getId());
+					searchSuggestions.onNoteDeleted(record.getId());
+					liveSearchTasks.onNoteDeleted(record.getId());
+				} else {
+					trigramIndex.put(record.getId(), record.getString(NOTES_TITLE), record.getString(NOTES_TEXT),
+							record.getLong(NOTES_CHANGE_TIME));
+					final AbstractNote note = createNoteFromRecord(record);
+					searchResultsCache.onNoteChanged(note);
+					savedSearches.onNoteChanged(note);
+					searchSuggestions.onNoteChanged(note);
+					liveSearchTasks.onNoteChanged(note);
+				}
+			}
+		}
 	}
 
 	@Override
@@ -143,7 +277,9 @@ public class NotesDropboxStorage implements NotesStorage {
 		boolean orderChanged = noteComparator.getSortOrder() != notesSortOrder;
 		if (orderChanged) {
 			noteComparator.setSortOrder(notesSortOrder);
-			onStorageContentChanged(CACHE_NOTES_LIST);
+			// index stays actual, only lists should be sorted again
+			notesListCacheActual = false;
+			notifyListeners();
 		}
 		return orderChanged;
 	}
@@ -154,67 +290,82 @@ public class NotesDropboxStorage implements NotesStorage {
 		if (!DbxTable.isValidId(stringId)) {
 			return null;
 		}
-		refreshNoteCacheIfNeeded(stringId);
-		return noteCache;
+		return refreshNoteCacheIfNeeded(stringId);
 	}
 
-	private void refreshNoteCacheIfNeeded(String noteId) {
-		final boolean needToRefresh = !noteCacheActual || !noteCacheNoteId.equals(noteId);
+	private AbstractNote refreshNoteCacheIfNeeded(String noteId) {
+		AbstractNote note = noteCache.get(noteId);
+		final boolean needToRefresh = note == null;
 		AppLog.d(TAG, "Note entry refresh (id=" + noteId + "). Cached entry " +
 				(needToRefresh ? "NOT " : "") + "actual");
 		if (needToRefresh) {
 			try {
-				noteCache = createNoteFromRecord(notesTable.get(noteId));
+				note = createNoteFromRecord(notesTable.get(noteId));
 			} catch (DbxException e) {
 				AppLog.e(TAG, "refreshNoteCacheIfNeeded()", e);
 				throw new RuntimeException();
 			}
-
-			noteCacheNoteId = noteId;
-			noteCacheActual = true;
+			noteCache.put(note);
 		}
+		return note;
 	}
 
-	private void refreshNotesListCacheIfNeeded(Serializable labelId) {
-		final boolean needToRefresh = !notesListCacheActual || !notesListCacheLabelId.equals(labelId);
+	private List<AbstractNote> refreshNotesListCacheIfNeeded(Serializable labelId) {
+		List<AbstractNote> notes = notesListCache;
+		final boolean needToRefresh = notes == null ||
+				!notesListCacheActual ||
+				!notesListCacheLabelId.equals(labelId);
 		AppLog.d(TAG, "Notes entries refresh (labelId=" + labelId + "). Cached entries list " +
 				(needToRefresh ? "NOT " : "") + "actual");
 		if (needToRefresh) {
-			// query all notes records
+			final NotesColumnarIndex index = refreshNotesIndexIfNeeded();
+			final boolean savedSearch = SavedSearches.isSavedSearchId(labelId);
+			final Set<Serializable> notesIds = savedSearch ? savedSearches.getNotesIds(labelId) : null;
+			final boolean actual = !savedSearch || notesIds != null; // otherwise listener is called when filled
+			final int[] rows = savedSearch ?
+					index.selectRowsOfNotes(actual ? notesIds : Collections.<Serializable>emptySet()) :
+					index.selectRows(labelId);
+			index.sort(rows, noteComparator.getSortOrder());
+			notes = index.asNotesList(rows, noteLoader);
+			notesListCache = notes;
+
+			notesListCacheLabelId = labelId;
+			notesListCacheActual = actual;
+			notesListCacheBytes = index.getRetainedBytes() + 4L * rows.length;
+			MemoryBudget.onCacheGrown();
+		}
+		return notes;
+	}
+
+	private NotesColumnarIndex refreshNotesIndexIfNeeded() {
+		NotesColumnarIndex index = notesIndex;
+		if (index == null) {
 			final DbxTable.QueryResult allNotesRecords;
+			final DbxTable.QueryResult allNotesLabelsRecords;
 			try {
 				allNotesRecords = notesTable.query();
+				allNotesLabelsRecords = notesLabelsTable.query();
 			} catch (DbxException e) {
-				AppLog.e(TAG, "refreshNotesListCacheIfNeeded", e);
+				AppLog.e(TAG, "refreshNotesIndexIfNeeded()", e);
 				throw new RuntimeException();
 			}
 
-			// find notes ids for specified label
-			final boolean notesForAllLabels = labelId.equals(NOTES_FOR_ALL_LABELS);
-			final Set<String> noteIdsForLabel = notesForAllLabels ?
-					null :
-					getNotesIdsForLabel((String) labelId);
-
-			// add required notes to cache
-			if (notesListCache != null) {
-				notesListCache.clear();
-			} else {
-				notesListCache = new ArrayList<AbstractNote>();
+			// note bodies are not read here
+			final NotesColumnarIndex.Builder builder = new NotesColumnarIndex.Builder();
+			for (DbxRecord record : allNotesRecords) {
+				builder.addNote(record.getId(),
+						record.getString(NOTES_TITLE),
+						record.getLong(NOTES_CREATE_TIME),
+						record.getLong(NOTES_CHANGE_TIME));
 			}
-			for (DbxRecord noteRecord : allNotesRecords) {
-				if (notesForAllLabels || noteIdsForLabel.contains(noteRecord.getId())) {
-					final AbstractNote noteFromRecord = createNoteFromRecord(noteRecord);
-					if (noteFromRecord != null) {
-						notesListCache.add(noteFromRecord);
-					}
-				}
+			for (DbxRecord record : allNotesLabelsRecords) {
+				builder.addNoteLabel(record.getString(NOTES_LABELS_NOTE_ID),
+						record.getString(NOTES_LABELS_LABEL_ID));
 			}
-
-			Collections.sort(notesListCache, noteComparator);
-
-			notesListCacheLabelId = labelId;
-			notesListCacheActual = true;
+			index = builder.build();
+			notesIndex = index;
 		}
+		return index;
 	}
 
 	private static AbstractNote createNoteFromRecord(DbxRecord record) {
@@ -227,50 +378,98 @@ public class NotesDropboxStorage implements NotesStorage {
 		final long createTime = record.getLong(NOTES_CREATE_TIME);
 		final long changeTime = record.getLong(NOTES_CHANGE_TIME);
 
-		final AbstractNote note = new TextNote(title, text);
-		note.setCreateTime(new DateTime(createTime));
-		note.setChangeTime(new DateTime(changeTime));
-		note.setId(record.getId());
-		return note;
+		return new TextNote.Builder()
+				.setId(record.getId())
+				.setTitle(title)
+				.setBody(text)
+				.setCreateTime(new DateTime(createTime))
+				.setChangeTime(new DateTime(changeTime))
+				.build();
 	}
 
 	@Override
 	public List<AbstractNote> getNotesForLabel(Serializable labelId) {
-		refreshNotesListCacheIfNeeded(labelId);
-		return notesListCache;
+		return refreshNotesListCacheIfNeeded(labelId);
 	}
 
 	@Override
 	public List<AbstractNote> getNotesForQuery(String searchQuery) {
 		if (!StringUtils.isBlank(searchQuery)) {
-			searchQuery = StringUtils.normalizeString(searchQuery);
-			if (!lastSearchQuery.equals(searchQuery)) {
-				final DbxTable.QueryResult allNotesRecords;
-				try {
-					allNotesRecords = notesTable.query();
-				} catch (DbxException e) {
-					AppLog.e(TAG, "getNotesForQuery", e);
-					throw new RuntimeException();
-				}
+			final String query = SearchNormalizer.normalizeQuery(searchQuery);
+			final SearchTask.Source source = createSearchSource(query);
+			List<AbstractNote> searchResult = source.getCachedResults(query);
+			if (searchResult == null) {
+				searchResult = Collections.unmodifiableList(source.loadNotes(SearchTask.findAllNotesIds(source, query)));
+				source.onSearchCompleted(query, searchResult);
+			}
+			return searchResult;
+		}
+		return EMPTY_NOTES_LIST;
+	}
 
-				final List<AbstractNote> searchResult = new ArrayList<AbstractNote>();
-				for (DbxRecord noteRecord : allNotesRecords) {
-					final AbstractNote noteFromRecord = createNoteFromRecord(noteRecord);
-					if (noteFromRecord != null) {
-						final String title = StringUtils.normalizeString(noteFromRecord.getTitle());
-						final String body = StringUtils.normalizeString(noteFromRecord.getBody());
-						if (title.contains(searchQuery) || body.contains(searchQuery)) {
-							searchResult.add(noteFromRecord);
-						}
-					}
+	@Override
+	public SearchTask startSearch(String searchQuery, long timeBudgetMillis, SearchTask.Listener listener) {
+		final String query = SearchNormalizer.normalizeQuery(searchQuery);
+		final SearchTask task = new SearchTask(query, timeBudgetMillis, createSearchSource(query), listener);
+		liveSearchTasks.add(task); // before start, notes written during search are applied to results
+		NotesApplication.executeInBackground(task);
+		return task;
+	}
+
+	private SearchTask.Source createSearchSource(String query) {
+		return RegexQuery.isRegex(query) ? new RegexSearchSource(query, trigramIndex, this, searchSource) : searchSource;
+	}
+
+	/**
+	 * Text condition is checked with trigram index, other conditions and sort with columnar index
+	 */
+	@Override
+	public List<AbstractNote> getNotes(NotesQuery query) {
+		final NotesColumnarIndex index = refreshNotesIndexIfNeeded();
+		int[] rows = index.selectRows(query);
+
+		if (query.hasText()) {
+			final Map<Serializable, Integer> rowsByIds = new HashMap<Serializable, Integer>();
+			for (int row : rows) {
+				rowsByIds.put(index.getId(row), row);
+			}
+			final RegexQuery regex;
+			final List<Serializable> foundIds;
+			if (RegexQuery.isRegex(query.getText())) {
+				regex = RegexQuery.compile(query.getText());
+				foundIds = regex != null ? // otherwise invalid pattern, nothing is found
+						trigramIndex.findRegexCandidates(regex, this) :
+						Collections.<Serializable>emptyList();
+			} else {
+				regex = null;
+				foundIds = trigramIndex.search(query.getText(), this);
+			}
+			// rows of matched notes in relevance order, candidates of pattern are checked by it
+			final int[] matchedRows = new int[rows.length];
+			int matchedCount = 0;
+			for (Serializable id : foundIds) {
+				final Integer row = rowsByIds.get(id);
+				if (row != null && (regex == null || matchesRegex(id, regex))) {
+					matchedRows[matchedCount++] = row;
 				}
-				Collections.sort(searchResult, noteComparator);
-				searchListCache = searchResult;
-				lastSearchQuery = searchQuery;
 			}
-			return searchListCache;
+			rows = Arrays.copyOf(matchedRows, matchedCount);
+			if (query.getSortOrder() != null) {
+				index.sort(rows, query.getSortOrder());
+			}
+		} else {
+			index.sort(rows, query.getSortOrder() != null ? query.getSortOrder() : noteComparator.getSortOrder());
 		}
-		return EMPTY_NOTES_LIST;
+
+		if (query.getLimit() != NotesQuery.NO_LIMIT && rows.length > query.getLimit()) {
+			rows = Arrays.copyOf(rows, query.getLimit());
+		}
+		return index.asNotesList(rows, noteLoader);
+	}
+
+	private boolean matchesRegex(Serializable id, RegexQuery regex) {
+		final AbstractNote note = noteLoader.loadNote(id);
+		return note != null && regex.matches(note);
 	}
 
 	@Override
@@ -280,6 +479,12 @@ public class NotesDropboxStorage implements NotesStorage {
 				.set(NOTES_TEXT, note.getBody())
 				.set(NOTES_CREATE_TIME, note.getCreateTime().getMillis())
 				.set(NOTES_CHANGE_TIME, note.getChangeTime().getMillis());
+		trigramIndex.put(temp.getId(), note.getTitle(), note.getBody(), note.getChangeTime().getMillis());
+		final AbstractNote insertedNote = note.buildUpon().setId(temp.getId()).build();
+		searchResultsCache.onNoteChanged(insertedNote);
+		savedSearches.onNoteChanged(insertedNote);
+		searchSuggestions.onNoteChanged(insertedNote);
+		liveSearchTasks.onNoteChanged(insertedNote);
 
 		onStorageContentChanged(CACHE_NOTES_LIST);
 		return temp.getId();
@@ -302,7 +507,14 @@ public class NotesDropboxStorage implements NotesStorage {
 					.set(NOTES_TEXT, note.getBody())
 					.set(NOTES_CREATE_TIME, note.getCreateTime().getMillis())
 					.set(NOTES_CHANGE_TIME, note.getChangeTime().getMillis());
-			onStorageContentChanged((noteCacheNoteId.equals(id) ? CACHE_NOTE : 0) | CACHE_NOTES_LIST);
+			trigramIndex.put(id, note.getTitle(), note.getBody(), note.getChangeTime().getMillis());
+			final AbstractNote updatedNote = note.buildUpon().setId(id).build();
+			searchResultsCache.onNoteChanged(updatedNote);
+			savedSearches.onNoteChanged(updatedNote);
+			searchSuggestions.onNoteChanged(updatedNote);
+			liveSearchTasks.onNoteChanged(updatedNote);
+			noteCache.remove(id);
+			onStorageContentChanged(CACHE_NOTES_LIST);
 		}
 
 		return existingRecord;
@@ -318,7 +530,13 @@ public class NotesDropboxStorage implements NotesStorage {
 				deleteNoteLabels(true, stringId);
 				noteRecord.deleteRecord();
 				deleted = true;
-				onStorageContentChanged((noteCacheNoteId.equals(id) ? CACHE_NOTE : 0) | CACHE_NOTES_LIST);
+				trigramIndex.remove(id);
+				searchResultsCache.onNoteDeleted(id);
+				savedSearches.onNoteDeleted(id);
+				searchSuggestions.onNoteDeleted(id);
+				liveSearchTasks.onNoteDeleted(id);
+				noteCache.remove(id);
+				onStorageContentChanged(CACHE_NOTES_LIST);
 			}
 		} catch (DbxException e) {
 			AppLog.e(TAG, "deleteNote()", e);
@@ -328,6 +546,34 @@ public class NotesDropboxStorage implements NotesStorage {
 		return deleted;
 	}
 
+	@Override
+	public void visitNotes(int fields, NotesVisitor visitor) {
+		final DbxTable.QueryResult allNotesRecords;
+		try {
+			allNotesRecords = notesTable.query();
+		} catch (DbxException e) {
+			AppLog.e(TAG, "visitNotes()", e);
+			throw new RuntimeException();
+		}
+
+		for (DbxRecord record : allNotesRecords) {
+			final AbstractNote note = new TextNote.Builder()
+					.setId(record.getId())
+					.setTitle((fields & FIELD_TITLE) != 0 ? record.getString(NOTES_TITLE) : "")
+					.setBody((fields & FIELD_BODY) != 0 ? record.getString(NOTES_TEXT) : "")
+					.setCreateTime((fields & FIELD_TIMES) != 0 ?
+							new DateTime(record.getLong(NOTES_CREATE_TIME)) :
+							NOT_LOADED_TIME)
+					.setChangeTime((fields & FIELD_TIMES) != 0 ?
+							new DateTime(record.getLong(NOTES_CHANGE_TIME)) :
+							NOT_LOADED_TIME)
+					.build();
+			if (!visitor.visitNote(note)) {
+				break;
+			}
+		}
+	}
+
 	private void deleteNoteLabels(boolean forNote, String id) {
 		final DbxFields queryParams =
 				new DbxFields().set(forNote ? NOTES_LABELS_NOTE_ID : NOTES_LABELS_LABEL_ID, id);
@@ -381,35 +627,30 @@ public class NotesDropboxStorage implements NotesStorage {
 				throw new RuntimeException();
 			}
 
-			// fill cache
-			if (labelsListCache != null) {
-				labelsListCache.clear();
-			} else {
-				labelsListCache = new ArrayList<Label>();
-			}
+			// fill new cache snapshot
+			final List<Label> labels = new ArrayList<Label>();
 			for (DbxRecord labelRecord : allLabelsRecords) {
 				final Label labelFromRecord = createLabelFromRecord(labelRecord);
 				if (labelFromRecord != null) {
-					labelsListCache.add(labelFromRecord);
+					labels.add(labelFromRecord);
 				}
 			}
 
-			Collections.sort(labelsListCache, labelComparator);
+			Collections.sort(labels, labelComparator);
+			labelsListCache = labels;
 
 			labelsListCacheActual = true;
 		}
 	}
 
-	private static Label createLabelFromRecord(DbxRecord record) {
+	private Label createLabelFromRecord(DbxRecord record) {
 		if (record == null) {
 			return null;
 		}
 
 		final String name = record.getString(LABELS_NAME);
 		final int color = (int) record.getLong(LABELS_COLOR);
-		final Label label = new Label(name, color);
-		label.setId(record.getId());
-		return label;
+		return labelsRegistry.obtain(record.getId(), name, color);
 	}
 
 	@Override
@@ -436,6 +677,7 @@ public class NotesDropboxStorage implements NotesStorage {
 			labelRecord
 					.set(LABELS_NAME, label.getName())
 					.set(LABELS_COLOR, label.getColor());
+			labelsRegistry.update(id, label.getName(), label.getColor());
 			onStorageContentChanged(CACHE_NOTE | CACHE_NOTES_LIST | CACHE_LABELS_LIST);
 		}
 		return existingRecord;
@@ -450,6 +692,7 @@ public class NotesDropboxStorage implements NotesStorage {
 			if (labelRecord != null) {
 				deleteNoteLabels(false, stringId);
 				labelRecord.deleteRecord();
+				labelsRegistry.remove(stringId);
 				deleted = true;
 				onStorageContentChanged(CACHE_NOTE | CACHE_NOTES_LIST | CACHE_LABELS_LIST);
 			}
@@ -460,6 +703,48 @@ public class NotesDropboxStorage implements NotesStorage {
 		return deleted;
 	}
 
+	// saved searches
+
+	@Override
+	public SavedSearch getSavedSearch(Serializable id) {
+		return savedSearches.get(id);
+	}
+
+	@Override
+	public List<SavedSearch> getAllSavedSearches() {
+		return savedSearches.getAll();
+	}
+
+	@Override
+	public Serializable insertSavedSearch(SavedSearch search) {
+		final Serializable id = savedSearches.add(search);
+		savedSearches.fillInBackground(this);
+		notifyListeners();
+		return id;
+	}
+
+	@Override
+	public boolean deleteSavedSearch(Serializable id) {
+		final boolean deleted = savedSearches.remove(id);
+		if (deleted) {
+			notesListCacheActual = false;
+			notifyListeners();
+		}
+		return deleted;
+	}
+
+	// search suggestions
+
+	@Override
+	public List<String> getSearchSuggestions(String prefix, int limit) {
+		return searchSuggestions.getSuggestions(prefix, limit);
+	}
+
+	@Override
+	public void addRecentSearchQuery(String query) {
+		searchSuggestions.addRecentQuery(query);
+	}
+
 	@Override
 	public List<Label> getLabelsForNote(Serializable noteId) {
 		final List<Label> allLabels = getAllLabels();
@@ -494,24 +779,6 @@ public class NotesDropboxStorage implements NotesStorage {
 		return result;
 	}
 
-	private Set<String> getNotesIdsForLabel(String labelId) {
-		final DbxFields queryParams = new DbxFields().set(NOTES_LABELS_LABEL_ID, labelId);
-		final DbxTable.QueryResult notesLabelsIds;
-
-		try {
-			notesLabelsIds = notesLabelsTable.query(queryParams);
-		} catch (DbxException e) {
-			AppLog.e(TAG, "getNotesIdsForLabel()", e);
-			throw new RuntimeException();
-		}
-
-		final Set<String> result = new HashSet<String>();
-		for (DbxRecord record : notesLabelsIds) {
-			result.add(record.getString(NOTES_LABELS_NOTE_ID));
-		}
-		return result;
-	}
-
 	@Override
 	public Set<Pair<Serializable, Serializable>> getAllNotesLabelsIds() {
 		final DbxTable.QueryResult allNotesLabelsIds;
@@ -537,7 +804,8 @@ public class NotesDropboxStorage implements NotesStorage {
 				.set(NOTES_LABELS_NOTE_ID, (String) noteId)
 				.set(NOTES_LABELS_LABEL_ID, (String) labelId);
 
-		onStorageContentChanged((noteCacheNoteId.equals(noteId) ? CACHE_NOTE : 0) | CACHE_NOTES_LIST);
+		noteCache.remove(noteId);
+		onStorageContentChanged(CACHE_NOTES_LIST);
 		return temp.getId();
 	}
 
@@ -561,7 +829,8 @@ public class NotesDropboxStorage implements NotesStorage {
 			deleted = true;
 		}
 		if (deleted) {
-			onStorageContentChanged((noteCacheNoteId.equals(noteId) ? CACHE_NOTE : 0) | CACHE_NOTES_LIST);
+			noteCache.remove(noteId);
+			onStorageContentChanged(CACHE_NOTES_LIST);
 		}
 		return deleted;
 	}
@@ -583,6 +852,12 @@ public class NotesDropboxStorage implements NotesStorage {
 				record.deleteRecord();
 			}
 		}
+		labelsRegistry.clear();
+		trigramIndex.clear();
+		searchResultsCache.clear();
+		savedSearches.clear();
+		searchSuggestions.clear();
+		liveSearchTasks.clear();
 
 		onStorageContentChanged(CACHE_NOTE | CACHE_NOTES_LIST | CACHE_LABELS_LIST);
 	}
@@ -594,11 +869,11 @@ public class NotesDropboxStorage implements NotesStorage {
 
 		// cache invalidation
 		if ((affectedCacheType & CACHE_NOTE) != 0) {
-			noteCacheActual = false;
+			noteCache.clear();
 		}
 		if ((affectedCacheType & CACHE_NOTES_LIST) != 0) {
+			notesIndex = null;
 			notesListCacheActual = false;
-			lastSearchQuery = "";
 		}
 		if ((affectedCacheType & CACHE_LABELS_LIST) != 0) {
 			labelsListCacheActual = false;
@@ -0,0 +1,283 @@
+package com.iliakplv.notes.notes.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snowball English (Porter2) stemmer, see snowballstem.org/algorithms/english/stemmer.html
+ */
+final class EnglishStemmer implements Stemmer {
+
+	private static final int VERSION = 1;
+
+	private static final Map<String, String> EXCEPTIONS = new HashMap<String, String>();
+	static {
+		final String[] exceptions = {
+				"skis", "ski", "skies", "sky", "dying", "die", "lying", "lie", "tying", "tie",
+				"idly", "idl", "gently", "gentl", "ugly", "ugli", "early", "earli", "only", "onli",
+				"singly", "singl", "sky", "sky", "news", "news", "howe", "howe",
+				"atlas", "atlas", "cosmos", "cosmos", "bias", "bias", "andes", "andes"};
+		for (int i = 0; i < exceptions.length; i += 2) {
+			EXCEPTIONS.put(exceptions[i], exceptions[i + 1]);
+		}
+	}
+	private static final Set<String> STEP_1A_INVARIANTS = new HashSet<String>(Arrays.asList(
+			"inning", "outing", "canning", "herring", "earring", "proceed", "exceed", "succeed"));
+	private static final String[] R1_PREFIXES = {"gener", "commun", "arsen"};
+
+	// longest suffixes first
+	private static final String[] STEP_2_SUFFIXES = {
+			"ization", "ational", "fulness", "ousness", "iveness",
+			"tional", "biliti", "lessli",
+			"entli", "ation", "alism", "aliti", "ousli", "iviti", "fulli",
+			"enci", "anci", "abli", "izer", "ator", "alli",
+			"bli", "ogi",
+			"li"};
+	private static final String[] STEP_2_REPLACEMENTS = {
+			"ize", "ate", "ful", "ous", "ive",
+			"tion", "ble", "less",
+			"ent", "ate", "al", "al", "ous", "ive", "ful",
+			"ence", "ance", "able", "ize", "ate", "al",
+			"ble", "og",
+			""};
+	private static final String[] STEP_3_SUFFIXES = {
+			"ational", "tional", "alize", "icate", "iciti", "ative", "ical", "ness", "ful"};
+	private static final String[] STEP_3_REPLACEMENTS = {
+			"ate", "tion", "al", "ic", "ic", "", "ic", "", ""};
+	private static final String[] STEP_4_SUFFIXES = {
+			"ement", "ance", "ence", "able", "ible", "ment",
+			"ant", "ent", "ism", "ate", "iti", "ous", "ive", "ize", "ion",
+			"al", "er", "ic"};
+
+
+	@Override
+	public boolean canStem(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			final char c = word.charAt(i);
+			if (c < 'a' || c > 'z') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public String stem(String word) {
+		if (word.length() <= 2) {
+			return word;
+		}
+		final String exception = EXCEPTIONS.get(word);
+		if (exception != null) {
+			return exception;
+		}
+
+		final StringBuilder w = new StringBuilder(word);
+		markConsonantY(w);
+		final int r1 = getR1(w);
+		final int r2 = getRegionStart(w, r1);
+
+		step1a(w);
+		if (STEP_1A_INVARIANTS.contains(w.toString())) {
+			return w.toString();
+		}
+		step1b(w, r1);
+		step1c(w);
+		replaceSuffix(w, STEP_2_SUFFIXES, STEP_2_REPLACEMENTS, r1, r2);
+		replaceSuffix(w, STEP_3_SUFFIXES, STEP_3_REPLACEMENTS, r1, r2);
+		step4(w, r2);
+		step5(w, r1, r2);
+
+		for (int i = 0; i < w.length(); i++) {
+			if (w.charAt(i) == 'Y') {
+				w.setCharAt(i, 'y');
+			}
+		}
+		return w.toString();
+	}
+
+	// initial "y" and "y" after vowel are consonants
+	private static void markConsonantY(StringBuilder w) {
+		for (int i = 0; i < w.length(); i++) {
+			if (w.charAt(i) == 'y' && (i == 0 || isVowel(w.charAt(i - 1)))) {
+				w.setCharAt(i, 'Y');
+			}
+		}
+	}
+
+	private static int getR1(StringBuilder w) {
+		for (String prefix : R1_PREFIXES) {
+			if (w.length() >= prefix.length() && w.substring(0, prefix.length()).equals(prefix)) {
+				return prefix.length();
+			}
+		}
+		return getRegionStart(w, 0);
+	}
+
+	// position after first non-vowel following a vowel
+	private static int getRegionStart(StringBuilder w, int from) {
+		for (int i = from + 1; i < w.length(); i++) {
+			if (!isVowel(w.charAt(i)) && isVowel(w.charAt(i - 1))) {
+				return i + 1;
+			}
+		}
+		return w.length();
+	}
+
+	private static void step1a(StringBuilder w) {
+		if (endsWith(w, "sses")) {
+			w.setLength(w.length() - 2);
+		} else if (endsWith(w, "ied") || endsWith(w, "ies")) {
+			w.setLength(w.length() > 4 ? w.length() - 2 : w.length() - 1);
+		} else if (endsWith(w, "us") || endsWith(w, "ss")) {
+			// kept
+		} else if (endsWith(w, "s") && hasVowel(w, w.length() - 2)) {
+			w.setLength(w.length() - 1);
+		}
+	}
+
+	private static void step1b(StringBuilder w, int r1) {
+		if (endsWith(w, "eedly") || endsWith(w, "eed")) {
+			final int suffixLength = endsWith(w, "eedly") ? 5 : 3;
+			if (w.length() - suffixLength >= r1) {
+				w.setLength(w.length() - suffixLength + 2); // "ee"
+			}
+			return;
+		}
+		final int suffixLength;
+		if (endsWith(w, "ingly")) {
+			suffixLength = 5;
+		} else if (endsWith(w, "edly")) {
+			suffixLength = 4;
+		} else if (endsWith(w, "ing")) {
+			suffixLength = 3;
+		} else if (endsWith(w, "ed")) {
+			suffixLength = 2;
+		} else {
+			return;
+		}
+		if (!hasVowel(w, w.length() - suffixLength)) {
+			return;
+		}
+		w.setLength(w.length() - suffixLength);
+		if (endsWith(w, "at") || endsWith(w, "bl") || endsWith(w, "iz")) {
+			w.append('e');
+		} else if (endsWithDouble(w)) {
+			w.setLength(w.length() - 1);
+		} else if (r1 >= w.length() && endsWithShortSyllable(w, w.length())) { // short word
+			w.append('e');
+		}
+	}
+
+	private static void step1c(StringBuilder w) {
+		final int last = w.length() - 1;
+		if (last >= 2 && (w.charAt(last) == 'y' || w.charAt(last) == 'Y') && !isVowel(w.charAt(last - 1))) {
+			w.setCharAt(last, 'i');
+		}
+	}
+
+	// longest suffix is replaced if it is in R1
+	private static void replaceSuffix(StringBuilder w, String[] suffixes, String[] replacements, int r1, int r2) {
+		for (int i = 0; i < suffixes.length; i++) {
+			final String suffix = suffixes[i];
+			if (!endsWith(w, suffix)) {
+				continue;
+			}
+			final int start = w.length() - suffix.length();
+			if (start < r1) {
+				return;
+			}
+			final char previous = start > 0 ? w.charAt(start - 1) : 0;
+			if ((suffix.equals("ogi") && previous != 'l') ||
+					(suffix.equals("li") && "cdeghkmnrt".indexOf(previous) < 0) ||
+					(suffix.equals("ative") && start < r2)) {
+				return;
+			}
+			w.replace(start, w.length(), replacements[i]);
+			return;
+		}
+	}
+
+	private static void step4(StringBuilder w, int r2) {
+		for (String suffix : STEP_4_SUFFIXES) {
+			if (!endsWith(w, suffix)) {
+				continue;
+			}
+			final int start = w.length() - suffix.length();
+			if (start >= r2 && (!suffix.equals("ion") ||
+					(start > 0 && (w.charAt(start - 1) == 's' || w.charAt(start - 1) == 't')))) {
+				w.setLength(start);
+			}
+			return;
+		}
+	}
+
+	private static void step5(StringBuilder w, int r1, int r2) {
+		final int last = w.length() - 1;
+		if (last < 0) {
+			return;
+		}
+		if (w.charAt(last) == 'e') {
+			if (last >= r2 || (last >= r1 && !endsWithShortSyllable(w, last))) {
+				w.setLength(last);
+			}
+		} else if (w.charAt(last) == 'l' && last >= r2 && last > 0 && w.charAt(last - 1) == 'l') {
+			w.setLength(last);
+		}
+	}
+
+	/**
+	 * Short syllable: non-vowel, vowel, non-vowel (not "w", "x" or "Y"),
+	 * or vowel and non-vowel at word start
+	 */
+	private static boolean endsWithShortSyllable(StringBuilder w, int end) {
+		if (end == 2) {
+			return isVowel(w.charAt(0)) && !isVowel(w.charAt(1));
+		}
+		if (end < 3) {
+			return false;
+		}
+		final char last = w.charAt(end - 1);
+		return !isVowel(w.charAt(end - 3)) && isVowel(w.charAt(end - 2)) &&
+				!isVowel(last) && last != 'w' && last != 'x' && last != 'Y';
+	}
+
+	private static boolean endsWithDouble(StringBuilder w) {
+		final int length = w.length();
+		return length >= 2 && w.charAt(length - 1) == w.charAt(length - 2) &&
+				"bdfgmnprt".indexOf(w.charAt(length - 1)) >= 0;
+	}
+
+	private static boolean hasVowel(StringBuilder w, int end) {
+		for (int i = 0; i < end; i++) {
+			if (isVowel(w.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean endsWith(StringBuilder w, String suffix) {
+		final int start = w.length() - suffix.length();
+		if (start < 0) {
+			return false;
+		}
+		for (int i = 0; i < suffix.length(); i++) {
+			if (w.charAt(start + i) != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isVowel(char c) {
+		return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u' || c == 'y';
+	}
+}
@@ -0,0 +1,243 @@
+package com.iliakplv.notes.notes.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Vocabulary of indexed words for typo-tolerant lookup (symmetric delete):
+ * every word is indexed by all variants of its prefix with up to {@link #MAX_DISTANCE} deleted characters,
+ * so words within edit distance of a term share some deletes variant with the term.
+ * Lookup only checks words found by deletes variants of the term, not the whole vocabulary.
+ *
+ * Variants are stored as hashes in open addressing table of (hash, word id) pairs without boxing,
+ * hash collisions only add candidates, which are verified by edit distance.
+ */
+final class FuzzyVocabulary {
+
+	static final int MAX_DISTANCE = 2;
+	static final int MIN_WORD_LENGTH = 3;
+
+	private static final int PREFIX_LENGTH = 6;
+	private static final int MIN_LENGTH_FOR_MAX_DISTANCE = 6;
+
+	private String[] words = new String[64];
+	private int wordsCount = 0; // including free ids
+	private int[] freeIds = new int[16];
+	private int freeIdsCount = 0;
+
+	// (variant hash << 32 | word id + 1) entries, 0 is empty
+	private long[] entries = new long[1024];
+	private int entriesCount = 0;
+
+
+	/**
+	 * @return max edit distance of typos in term of such length
+	 */
+	static int getMaxDistance(int termLength) {
+		if (termLength < MIN_WORD_LENGTH) {
+			return 0;
+		}
+		return termLength < MIN_LENGTH_FOR_MAX_DISTANCE ? 1 : MAX_DISTANCE;
+	}
+
+	/**
+	 * @return id of added word or -1 if word is too short
+	 */
+	int add(String word) {
+		if (word.length() < MIN_WORD_LENGTH) {
+			return -1;
+		}
+		final int id;
+		if (freeIdsCount > 0) {
+			id = freeIds[--freeIdsCount];
+		} else {
+			if (wordsCount == words.length) {
+				words = Arrays.copyOf(words, wordsCount * 2);
+			}
+			id = wordsCount++;
+		}
+		words[id] = word;
+		for (String variant : getDeletes(word, MAX_DISTANCE)) {
+			if (2 * (entriesCount + 1) > entries.length) { // load factor 0.5
+				rehash();
+			}
+			insert(entries, entry(variant, id));
+			entriesCount++;
+		}
+		return id;
+	}
+
+	void remove(int id) {
+		if (id < 0) {
+			return;
+		}
+		for (String variant : getDeletes(words[id], MAX_DISTANCE)) {
+			if (delete(entry(variant, id))) {
+				entriesCount--;
+			}
+		}
+		words[id] = null;
+		if (freeIdsCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIdsCount * 2);
+		}
+		freeIds[freeIdsCount++] = id;
+	}
+
+	void clear() {
+		words = new String[64];
+		wordsCount = 0;
+		freeIds = new int[16];
+		freeIdsCount = 0;
+		entries = new long[1024];
+		entriesCount = 0;
+	}
+
+	long getRetainedBytes() {
+		return 8L * entries.length + 4L * (words.length + freeIds.length);
+	}
+
+	/**
+	 * @param maxDistance max edit distance (see {@link #getMaxDistance(int)})
+	 * @return words within edit distance (adjacent transposition is one edit) with their distances,
+	 * including term itself if it is a word
+	 */
+	Map<String, Integer> findSimilarWords(String term, int maxDistance) {
+		final Map<String, Integer> result = new HashMap<String, Integer>();
+		if (maxDistance <= 0) {
+			return result;
+		}
+		final Set<Integer> checkedIds = new HashSet<Integer>();
+		final int mask = entries.length - 1;
+		for (String variant : getDeletes(term, maxDistance)) {
+			final int hash = variant.hashCode();
+			for (int slot = slot(hash, mask); entries[slot] != 0; slot = (slot + 1) & mask) {
+				if ((int) (entries[slot] >>> 32) != hash) {
+					continue;
+				}
+				final int id = (int) entries[slot] - 1;
+				if (checkedIds.add(id)) {
+					final String word = words[id];
+					final int distance = distance(term, word, maxDistance);
+					if (distance <= maxDistance) {
+						result.put(word, distance);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Variants of word prefix with up to maxDistance deleted characters (including prefix itself)
+	 */
+	private static Set<String> getDeletes(String word, int maxDistance) {
+		final Set<String> result = new HashSet<String>();
+		result.add(word.length() > PREFIX_LENGTH ? word.substring(0, PREFIX_LENGTH) : word);
+		Set<String> previous = result;
+		for (int distance = 1; distance <= maxDistance; distance++) {
+			final Set<String> current = new HashSet<String>();
+			for (String variant : previous) {
+				for (int i = 0; i < variant.length(); i++) {
+					current.add(variant.substring(0, i) + variant.substring(i + 1));
+				}
+			}
+			result.addAll(current);
+			previous = current;
+		}
+		return result;
+	}
+
+	/**
+	 * Optimal string alignment distance
+	 * @return distance or maxDistance + 1 if distance is greater than maxDistance
+	 */
+	static int distance(String a, String b, int maxDistance) {
+		if (Math.abs(a.length() - b.length()) > maxDistance) {
+			return maxDistance + 1;
+		}
+		int[] beforePrevious = new int[b.length() + 1];
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= b.length(); j++) {
+				final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					value = Math.min(value, beforePrevious[j - 2] + 1); // transposition
+				}
+				current[j] = value;
+				rowMin = Math.min(rowMin, value);
+			}
+			if (rowMin > maxDistance) {
+				return maxDistance + 1;
+			}
+			final int[] free = beforePrevious;
+			beforePrevious = previous;
+			previous = current;
+			current = free;
+		}
+		return Math.min(previous[b.length()], maxDistance + 1);
+	}
+
+
+	// Hash table
+
+	private static long entry(String variant, int id) {
+		return ((long) variant.hashCode() << 32) | (id + 1);
+	}
+
+	private static int slot(int hash, int mask) {
+		final int mixed = hash * 0x9E3779B9;
+		return (mixed ^ (mixed >>> 16)) & mask;
+	}
+
+	private static void insert(long[] table, long entry) {
+		final int mask = table.length - 1;
+		int slot = slot((int) (entry >>> 32), mask);
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = entry;
+	}
+
+	// linear probing deletion with backward shift of following entries
+	private boolean delete(long entry) {
+		final int mask = entries.length - 1;
+		int slot = slot((int) (entry >>> 32), mask);
+		while (entries[slot] != entry) {
+			if (entries[slot] == 0) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int hole = slot;
+		for (int next = (hole + 1) & mask; entries[next] != 0; next = (next + 1) & mask) {
+			final int home = slot((int) (entries[next] >>> 32), mask);
+			// entry can fill the hole if its home slot is not in (hole, next]
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				entries[hole] = entries[next];
+				hole = next;
+			}
+		}
+		entries[hole] = 0;
+		return true;
+	}
+
+	private void rehash() {
+		final long[] oldEntries = entries;
+		entries = new long[oldEntries.length * 2];
+		for (long entry : oldEntries) {
+			if (entry != 0) {
+				insert(entries, entry);
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.NotesApplication;
+import com.iliakplv.notes.notes.AbstractNote;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Search tasks of storage with live results (see {@link SearchTask}).
+ * Storage reports each written note here, cancelled tasks are dropped.
+ * Listener of cancelled task should start search again to see changes.
+ *
+ * Written notes are tested against queries in background in order of writes,
+ * so storage writes do not wait for matching (e.g. regular expressions).
+ */
+public final class LiveSearchTasks {
+
+	private static final int MAX_TASKS = 4; // oldest tasks are cancelled
+
+	private final List<SearchTask> tasks = new ArrayList<SearchTask>();
+
+	private final Object changesLock = new Object();
+	private final List<Change> pendingChanges = new ArrayList<Change>(); // by changesLock
+	private boolean applyingChanges = false; // by changesLock
+
+
+	public synchronized void add(SearchTask task) {
+		removeCancelled();
+		tasks.add(task);
+		while (tasks.size() > MAX_TASKS) {
+			tasks.remove(0).cancel();
+		}
+	}
+
+	/**
+	 * Updates results of all live tasks for inserted or updated note
+	 * @param note note with id
+	 */
+	public void onNoteChanged(AbstractNote note) {
+		addChange(new Change(note.getId(), note));
+	}
+
+	public void onNoteDeleted(Serializable id) {
+		addChange(new Change(id, null));
+	}
+
+	/**
+	 * Cancels all tasks, e.g. when all data deleted
+	 */
+	public synchronized void clear() {
+		synchronized (changesLock) {
+			pendingChanges.clear();
+		}
+		for (SearchTask task : tasks) {
+			task.cancel();
+		}
+		tasks.clear();
+	}
+
+	private void addChange(Change change) {
+		synchronized (this) {
+			removeCancelled();
+			if (tasks.isEmpty()) {
+				return; // tasks added later find note in storage
+			}
+		}
+		synchronized (changesLock) {
+			pendingChanges.add(change);
+			if (applyingChanges) {
+				return; // applied by running drain
+			}
+			applyingChanges = true;
+		}
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				applyChanges();
+			}
+		});
+	}
+
+	private void applyChanges() {
+		while (true) {
+			final List<Change> changes;
+			synchronized (changesLock) {
+				if (pendingChanges.isEmpty()) {
+					applyingChanges = false;
+					return;
+				}
+				changes = new ArrayList<Change>(pendingChanges);
+				pendingChanges.clear();
+			}
+			final List<SearchTask> liveTasks;
+			synchronized (this) {
+				removeCancelled();
+				liveTasks = new ArrayList<SearchTask>(tasks);
+			}
+			for (Change change : changes) {
+				for (SearchTask task : liveTasks) {
+					if (change.note != null) {
+						task.onNoteChanged(change.note);
+					} else {
+						task.onNoteDeleted(change.id);
+					}
+				}
+			}
+		}
+	}
+
+	private void removeCancelled() {
+		final Iterator<SearchTask> iterator = tasks.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isCancelled()) {
+				iterator.remove();
+			}
+		}
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class Change {
+
+		final Serializable id;
+		final AbstractNote note; // null for deleted note
+
+		Change(Serializable id, AbstractNote note) {
+			this.id = id;
+			this.note = note;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.iliakplv.notes.notes.search;
+
+import android.app.SearchManager;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import com.iliakplv.notes.notes.storage.Storage;
+
+import java.util.List;
+
+/**
+ * Suggestions for search view (see res/xml/searchable.xml): recent queries and note titles
+ * for typed prefix from {@link SearchSuggestions} of current storage, notes are not read.
+ * Chosen suggestion is searched as query.
+ */
+public class NotesSuggestionsProvider extends ContentProvider {
+
+	private static final int DEFAULT_LIMIT = 10;
+	private static final String[] COLUMNS = {
+			BaseColumns._ID,
+			SearchManager.SUGGEST_COLUMN_TEXT_1,
+			SearchManager.SUGGEST_COLUMN_QUERY};
+
+	@Override
+	public boolean onCreate() {
+		return true; // storage is initialized by application
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		final String lastSegment = uri.getLastPathSegment();
+		final String prefix = SearchManager.SUGGEST_URI_PATH_QUERY.equals(lastSegment) ? "" : lastSegment;
+		final List<String> suggestions = Storage.getStorage().getSearchSuggestions(prefix, getLimit(uri));
+
+		final MatrixCursor cursor = new MatrixCursor(COLUMNS, suggestions.size());
+		for (int i = 0; i < suggestions.size(); i++) {
+			cursor.addRow(new Object[] {i, suggestions.get(i), suggestions.get(i)});
+		}
+		return cursor;
+	}
+
+	private static int getLimit(Uri uri) {
+		final String limit = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+		try {
+			return limit != null ? Math.max(1, Integer.parseInt(limit)) : DEFAULT_LIMIT;
+		} catch (NumberFormatException e) {
+			return DEFAULT_LIMIT;
+		}
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return SearchManager.SUGGEST_MIME_TYPE;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		return null; // suggestions are read only
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		return 0;
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		return 0;
+	}
+}
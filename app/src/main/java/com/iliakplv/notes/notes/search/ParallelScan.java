@@ -0,0 +1,133 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.NotesApplication;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Filters positions [0, count) with all processors of application thread pool.
+ * Positions are split to partitions, each worker claims next not processed partition
+ * until all are claimed, so fast workers help slow ones. Calling thread works too,
+ * so scan finishes even if all pool threads are busy.
+ */
+public final class ParallelScan {
+
+	private static final String TAG = ParallelScan.class.getSimpleName();
+
+	private static final int MIN_PARTITION_SIZE = 256;
+	private static final int PARTITIONS_PER_WORKER = 4;
+
+	private ParallelScan() {
+		throw new AssertionError("Instance creation not allowed!");
+	}
+
+
+	/**
+	 * @param filter called concurrently from different threads
+	 * @return accepted positions in ascending order
+	 */
+	public static int[] filter(int count, Filter filter) {
+		final int workers = Runtime.getRuntime().availableProcessors();
+		final int partitionsCount =
+				Math.max(1, Math.min(workers * PARTITIONS_PER_WORKER, count / MIN_PARTITION_SIZE));
+		final Scan scan = new Scan(count, partitionsCount, filter);
+		if (partitionsCount > 1) {
+			for (int i = 1; i < Math.min(workers, partitionsCount); i++) {
+				NotesApplication.executeInBackground(scan);
+			}
+		}
+		scan.run();
+		return scan.awaitResult();
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	public static interface Filter {
+		public boolean accept(int position);
+	}
+
+	private static final class Scan implements Runnable {
+
+		private final int count;
+		private final int partitionsCount;
+		private final Filter filter;
+
+		private final AtomicInteger nextPartition = new AtomicInteger();
+		private final CountDownLatch partitionsLeft;
+		private final int[][] partitionsResults;
+		private final int[] partitionsResultsSizes;
+		private volatile RuntimeException error;
+
+		Scan(int count, int partitionsCount, Filter filter) {
+			this.count = count;
+			this.partitionsCount = partitionsCount;
+			this.filter = filter;
+			partitionsLeft = new CountDownLatch(partitionsCount);
+			partitionsResults = new int[partitionsCount][];
+			partitionsResultsSizes = new int[partitionsCount];
+		}
+
+		@Override
+		public void run() {
+			int partition;
+			while ((partition = nextPartition.getAndIncrement()) < partitionsCount) {
+				try {
+					scanPartition(partition);
+				} catch (RuntimeException e) {
+					error = e;
+				} finally {
+					partitionsLeft.countDown();
+				}
+			}
+		}
+
+		private void scanPartition(int partition) {
+			final int from = (int) ((long) count * partition / partitionsCount);
+			final int to = (int) ((long) count * (partition + 1) / partitionsCount);
+			final int[] accepted = new int[to - from];
+			int acceptedCount = 0;
+			for (int position = from; position < to; position++) {
+				if (filter.accept(position)) {
+					accepted[acceptedCount++] = position;
+				}
+			}
+			partitionsResults[partition] = accepted;
+			partitionsResultsSizes[partition] = acceptedCount;
+		}
+
+		// partitions results concatenated in partitions order
+		int[] awaitResult() {
+			try {
+				partitionsLeft.await();
+			} catch (InterruptedException e) {
+				AppLog.e(TAG, "awaitResult()", e);
+				throw new RuntimeException();
+			}
+			if (error != null) {
+				throw error;
+			}
+
+			int size = 0;
+			for (int partition = 0; partition < partitionsCount; partition++) {
+				size += partitionsResultsSizes[partition];
+			}
+			final int[] result = new int[size];
+			int position = 0;
+			for (int partition = 0; partition < partitionsCount; partition++) {
+				System.arraycopy(partitionsResults[partition], 0, result, position,
+						partitionsResultsSizes[partition]);
+				position += partitionsResultsSizes[partition];
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,608 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Regular expression search query: "/pattern/", matched case insensitively against
+ * original title and body of notes.
+ *
+ * Compiled queries are cached. Literal substrings required by pattern (e.g. "id-" for "/id-\d+/")
+ * are used to find candidates with text index, pattern is checked only on candidates.
+ *
+ * Pathological patterns (catastrophic backtracking) can't stall search: patterns with nested
+ * unbounded quantifiers (like "(a+)+", "(.*){1,9999}") or repeated ambiguous alternatives
+ * (like "(a|aa)*") are rejected. Other patterns could still be slow, so matching of each note
+ * is limited: by {@link #MAX_MATCH_STEPS} chars read by matcher if it reads text through
+ * {@link CharSequence} (java.util.regex), otherwise (Android matcher copies text to native code
+ * and can't be interrupted) note is matched on worker thread and abandoned after
+ * {@link #MATCH_TIMEOUT_MILLIS}, worker ends by itself. Only note which is not matched in limit
+ * is skipped, query is removed from cache and search with it is reported incomplete
+ * (see {@link RegexSearchSource}). Callers match in background only.
+ */
+public final class RegexQuery {
+
+	private static final String TAG = RegexQuery.class.getSimpleName();
+
+	private static final char DELIMITER = '/';
+	private static final int MAX_CACHED_PATTERNS = 16;
+	private static final int MAX_MATCH_STEPS = 1000000; // chars read by matcher per note
+	private static final long MATCH_TIMEOUT_MILLIS = 500; // per note, if steps are not counted
+	private static final int MAX_BOUNDED_REPETITIONS = 16; // more is treated as unbounded
+	private static final int MIN_LITERAL_LENGTH = 3; // shorter literals don't narrow index search
+
+	private static final Map<String, RegexQuery> cache =
+			new LinkedHashMap<String, RegexQuery>(16, 0.75f, true) { // access order
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, RegexQuery> eldest) {
+					return size() > MAX_CACHED_PATTERNS;
+				}
+			};
+
+	// java.util.regex reads text by charAt(), Android matcher copies it once
+	private static final boolean STEPS_COUNTED = isTextReadByMatcher();
+
+	// abandoned workers keep running, so threads are not reused from pool of limited size
+	private static final ExecutorService matchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "regex-match");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private final String query;
+	private final Pattern pattern;
+	private final List<String> requiredLiterals;
+
+
+	private RegexQuery(String query, Pattern pattern, List<String> requiredLiterals) {
+		this.query = query;
+		this.pattern = pattern;
+		this.requiredLiterals = requiredLiterals;
+	}
+
+
+	/**
+	 * @return true if query is a regular expression between slashes
+	 */
+	public static boolean isRegex(String query) {
+		return query != null && query.length() > 2 &&
+				query.charAt(0) == DELIMITER && query.charAt(query.length() - 1) == DELIMITER;
+	}
+
+	/**
+	 * @param query query for which {@link #isRegex(String)} is true
+	 * @return compiled query or null if pattern is invalid
+	 */
+	public static RegexQuery compile(String query) {
+		synchronized (cache) {
+			final RegexQuery cached = cache.get(query);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		final String regex = query.substring(1, query.length() - 1);
+		if (hasNestedUnboundedQuantifiers(regex)) {
+			AppLog.d(TAG, "Pattern with nested or ambiguous repetitions rejected: " + regex);
+			return null;
+		}
+		final RegexQuery compiled;
+		try {
+			compiled = new RegexQuery(query, Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE),
+					getRequiredLiterals(regex));
+		} catch (PatternSyntaxException e) {
+			AppLog.d(TAG, "Invalid pattern: " + regex);
+			return null;
+		}
+		synchronized (cache) {
+			cache.put(query, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * @return normalized literals each matching text should contain (see {@link SearchNormalizer}),
+	 * could be empty
+	 */
+	public List<String> getRequiredLiterals() {
+		return requiredLiterals;
+	}
+
+	/**
+	 * @return true if pattern is found in title or body, false if not found or matching timed out
+	 */
+	public boolean matches(AbstractNote note) {
+		final int[][] matches = findMatches(note.getTitle(), note.getBody());
+		return matches != null && (matches[0] != null || matches[1] != null);
+	}
+
+	/**
+	 * @return start and end of first match or null if not found or matching timed out
+	 */
+	public int[] findMatch(String text) {
+		final int[][] matches = findMatches(text, null);
+		return matches != null ? matches[0] : null;
+	}
+
+	/**
+	 * Matches texts of one note within one limit (see {@link RegexQuery}),
+	 * blocks up to {@link #MATCH_TIMEOUT_MILLIS}, should not be called from UI thread
+	 * @param title text or null
+	 * @param body text or null
+	 * @return start and end of first match in title and in body (null if not found)
+	 * or null if matching timed out
+	 */
+	public int[][] findMatches(final String title, final String body) {
+		if (STEPS_COUNTED) {
+			try {
+				return findMatches(title, body, new StepsCounter(MAX_MATCH_STEPS));
+			} catch (StepsLimitException e) {
+				onTimedOut();
+				return null;
+			}
+		}
+		final Future<int[][]> match = matchExecutor.submit(new Callable<int[][]>() {
+			@Override
+			public int[][] call() {
+				return findMatches(title, body, null);
+			}
+		});
+		try {
+			return match.get(MATCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			match.cancel(true);
+			onTimedOut();
+			return null;
+		} catch (InterruptedException e) {
+			match.cancel(true);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			AppLog.e(TAG, "Matching failed: " + pattern.pattern(), e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * @param counter counter of chars read by matcher or null
+	 */
+	private int[][] findMatches(String title, String body, StepsCounter counter) {
+		return new int[][] {find(title, counter), find(body, counter)};
+	}
+
+	private int[] find(String text, StepsCounter counter) {
+		if (text == null) {
+			return null;
+		}
+		final Matcher matcher = pattern.matcher(counter != null ? new CountedText(text, counter) : text);
+		return matcher.find() ? new int[] {matcher.start(), matcher.end()} : null;
+	}
+
+	// note is skipped, query is compiled again on next search, so search with it is not disabled
+	private void onTimedOut() {
+		synchronized (cache) {
+			if (cache.get(query) == this) {
+				cache.remove(query);
+			}
+		}
+		AppLog.w(TAG, "Matching of note timed out: " + pattern.pattern());
+	}
+
+	private static boolean isTextReadByMatcher() {
+		final StepsCounter counter = new StepsCounter(Integer.MAX_VALUE);
+		Pattern.compile("a").matcher(new CountedText("a", counter)).find();
+		return counter.stepsLeft < Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Conservative extraction of literal runs from top-level sequence of pattern:
+	 * groups, classes, escapes of classes and optional atoms break runs.
+	 * Pattern with top-level alternation or unsupported syntax gives fewer (or no) literals.
+	 */
+	static List<String> getRequiredLiterals(String regex) {
+		final List<String> literals = new ArrayList<String>();
+		if (hasTopLevelAlternation(regex)) {
+			return literals;
+		}
+		final StringBuilder run = new StringBuilder();
+		int i = 0;
+		parsing:
+		while (i < regex.length()) {
+			final char c = regex.charAt(i);
+			int literal = -1; // char of atom if it is literal
+			switch (c) {
+				case '\\':
+					if (i + 1 >= regex.length()) {
+						break parsing;
+					}
+					final char escaped = regex.charAt(i + 1);
+					if (Character.isLetterOrDigit(escaped)) {
+						if ("dDwWsSbB".indexOf(escaped) < 0) {
+							break parsing; // quoting, char codes, properties, back references
+						}
+					} else {
+						literal = escaped;
+					}
+					i += 2;
+					break;
+				case '(':
+					if (regex.startsWith("(?", i) && hasCommentsFlag(regex, i + 2)) {
+						literals.clear(); // whitespace in pattern is not literal
+						return literals;
+					}
+					i = skipGroup(regex, i);
+					break;
+				case '[':
+					i = skipClass(regex, i);
+					break;
+				case '.':
+				case '^':
+				case '$':
+					i++;
+					break;
+				case '?':
+				case '*':
+				case '+':
+				case '{':
+				case ')':
+					break parsing; // unexpected, pattern compiled anyway
+				default:
+					literal = c;
+					i++;
+			}
+			if (i < 0) {
+				break;
+			}
+
+			// quantifier of atom
+			final char quantifier = i < regex.length() ? regex.charAt(i) : 0;
+			if (quantifier == '?' || quantifier == '*' || quantifier == '+' || quantifier == '{') {
+				boolean required = quantifier == '+';
+				if (quantifier == '{') {
+					final int end = regex.indexOf('}', i);
+					if (end < 0) {
+						break;
+					}
+					int minCount = 0;
+					for (int j = i + 1; j < end && Character.isDigit(regex.charAt(j)); j++) {
+						minCount = Math.min(10 * minCount + (regex.charAt(j) - '0'), 1000);
+					}
+					required = minCount > 0;
+					i = end;
+				}
+				i++;
+				if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+					i++; // lazy or possessive
+				}
+				if (required && literal >= 0) {
+					run.append((char) literal); // at least once, but repetitions break run
+				}
+				addLiteral(literals, run);
+			} else if (literal >= 0) {
+				run.append((char) literal);
+			} else {
+				addLiteral(literals, run);
+			}
+		}
+		addLiteral(literals, run);
+		return Collections.unmodifiableList(literals);
+	}
+
+	private static void addLiteral(List<String> literals, StringBuilder run) {
+		final String literal = SearchNormalizer.normalize(run.toString());
+		if (literal.length() >= MIN_LITERAL_LENGTH && !literals.contains(literal)) {
+			literals.add(literal);
+		}
+		run.setLength(0);
+	}
+
+	/**
+	 * @return true if group repeated unbounded (or large bounded) number of times contains
+	 * unbounded repetition or alternatives which could start with same char
+	 */
+	static boolean hasNestedUnboundedQuantifiers(String regex) {
+		final List<Boolean> groupsWithUnbounded = new ArrayList<Boolean>(); // stack of open groups
+		final List<Integer> groupsStarts = new ArrayList<Integer>();
+		groupsWithUnbounded.add(false); // top level
+		groupsStarts.add(-1);
+		for (int i = 0; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				i = skipClass(regex, i) - 1;
+				if (i < 0) {
+					return false; // invalid, will not compile
+				}
+			} else if (c == '(') {
+				groupsWithUnbounded.add(false);
+				groupsStarts.add(i);
+			} else if (c == ')' && groupsWithUnbounded.size() > 1) {
+				final boolean innerUnbounded = groupsWithUnbounded.remove(groupsWithUnbounded.size() - 1);
+				final int groupStart = groupsStarts.remove(groupsStarts.size() - 1);
+				final boolean repeated = isUnboundedQuantifier(regex, i + 1);
+				final boolean ambiguous = hasAmbiguousAlternatives(regex, groupStart, i); // like repetition
+				if (repeated && (innerUnbounded || ambiguous)) {
+					return true;
+				}
+				if (innerUnbounded || repeated || ambiguous) {
+					groupsWithUnbounded.set(groupsWithUnbounded.size() - 1, true);
+				}
+			} else if (isUnboundedQuantifier(regex, i)) {
+				groupsWithUnbounded.set(groupsWithUnbounded.size() - 1, true);
+			}
+		}
+		return false;
+	}
+
+	// "*", "+", "{n,}" or "{n,m}" with large m at position
+	private static boolean isUnboundedQuantifier(String regex, int position) {
+		if (position >= regex.length()) {
+			return false;
+		}
+		final char c = regex.charAt(position);
+		if (c == '*' || c == '+') {
+			return position == 0 || regex.charAt(position - 1) != '?' && regex.charAt(position - 1) != '*' &&
+					regex.charAt(position - 1) != '+' && regex.charAt(position - 1) != '}'; // not lazy or possessive
+		}
+		if (c == '{') {
+			final int end = regex.indexOf('}', position);
+			if (end < 0) {
+				return false;
+			}
+			if (regex.charAt(end - 1) == ',') {
+				return true;
+			}
+			final int comma = regex.lastIndexOf(',', end);
+			int maxCount = 0;
+			for (int i = Math.max(comma, position) + 1; i < end && Character.isDigit(regex.charAt(i)); i++) {
+				maxCount = Math.min(10 * maxCount + (regex.charAt(i) - '0'), 1000);
+			}
+			return maxCount > MAX_BOUNDED_REPETITIONS;
+		}
+		return false;
+	}
+
+	/**
+	 * Conservative check of group alternatives: each one should start with its own literal char,
+	 * otherwise repeated group could match same text in many ways (like "(a|aa)*")
+	 * @param groupStart position of "("
+	 * @param groupEnd position of ")"
+	 * @return true if group has alternation and two alternatives could start with same char
+	 */
+	private static boolean hasAmbiguousAlternatives(String regex, int groupStart, int groupEnd) {
+		int bodyStart = groupStart + 1;
+		if (regex.startsWith("?:", bodyStart)) {
+			bodyStart += 2;
+		} else if (regex.startsWith("?<", bodyStart) && bodyStart + 2 < groupEnd &&
+				Character.isLetter(regex.charAt(bodyStart + 2))) {
+			bodyStart = regex.indexOf('>', bodyStart) + 1; // named group
+		}
+		final String body = regex.substring(bodyStart, groupEnd);
+		if (!hasTopLevelAlternation(body)) {
+			return false;
+		}
+		if (bodyStart == groupStart + 1 && body.startsWith("?")) {
+			return true; // lookaround or flags, unknown
+		}
+
+		final List<Character> firstChars = new ArrayList<Character>();
+		int alternativeStart = 0;
+		int depth = 0;
+		for (int i = 0; i <= body.length(); i++) {
+			final char c = i < body.length() ? body.charAt(i) : '|';
+			if (c == '\\' && i < body.length()) {
+				i++;
+			} else if (c == '[') {
+				i = skipClass(body, i) - 1;
+				if (i < 0) {
+					return true;
+				}
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				final Character first = getFirstLiteral(body, alternativeStart, i);
+				if (first == null || firstChars.contains(first)) {
+					return true;
+				}
+				firstChars.add(first);
+				alternativeStart = i + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return lower case char alternative body[start, end) always starts with or null if unknown
+	 */
+	private static Character getFirstLiteral(String body, int start, int end) {
+		if (start >= end) {
+			return null; // empty alternative
+		}
+		char c = body.charAt(start);
+		int next = start + 1;
+		if (c == '\\') {
+			if (next >= end || Character.isLetterOrDigit(body.charAt(next))) {
+				return null; // class, back reference or char code
+			}
+			c = body.charAt(next);
+			next++;
+		} else if ("[(.^$|?*+{)".indexOf(c) >= 0) {
+			return null;
+		}
+		if (next < end && "?*{".indexOf(body.charAt(next)) >= 0) {
+			return null; // optional first char
+		}
+		return Character.toLowerCase(c);
+	}
+
+	private static boolean hasTopLevelAlternation(String regex) {
+		int depth = 0;
+		for (int i = 0; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				i = skipClass(regex, i) - 1;
+				if (i < 0) {
+					return true; // unexpected, treat as unknown
+				}
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// inline flags like "(?ix)" or "(?x:...)"
+	private static boolean hasCommentsFlag(String regex, int flagsStart) {
+		for (int i = flagsStart; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == 'x') {
+				return true;
+			}
+			if (!Character.isLetter(c) && c != '-') {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return position after group or -1 if group is not closed
+	 */
+	private static int skipGroup(String regex, int start) {
+		int depth = 0;
+		for (int i = start; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				i = skipClass(regex, i) - 1;
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return position after char class or -1 if class is not closed
+	 */
+	private static int skipClass(String regex, int start) {
+		int depth = 0;
+		int i = start;
+		while (i < regex.length()) {
+			final char c = regex.charAt(i);
+			if (c == '\\') {
+				i += 2;
+				continue;
+			}
+			if (c == '[') {
+				depth++;
+				i++;
+				if (i < regex.length() && regex.charAt(i) == '^') {
+					i++;
+				}
+				if (i < regex.length() && regex.charAt(i) == ']') {
+					i++; // first "]" is literal
+				}
+				continue;
+			}
+			if (c == ']' && --depth == 0) {
+				return i + 1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class StepsCounter {
+
+		int stepsLeft;
+
+		StepsCounter(int steps) {
+			stepsLeft = steps;
+		}
+	}
+
+	// thrown out of matcher when steps are over
+	private static final class StepsLimitException extends RuntimeException {}
+
+	/**
+	 * Text counting chars read by matcher, shared counter limits matching of all texts of note
+	 */
+	private static final class CountedText implements CharSequence {
+
+		private final String text;
+		private final StepsCounter counter;
+
+		CountedText(String text, StepsCounter counter) {
+			this.text = text;
+			this.counter = counter;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (--counter.stepsLeft < 0) {
+				throw new StepsLimitException();
+			}
+			return text.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return text.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+}
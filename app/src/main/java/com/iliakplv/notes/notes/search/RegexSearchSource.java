@@ -0,0 +1,75 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.notes.storage.NotesStorage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Search source for regular expression queries (see {@link RegexQuery}): candidates are found
+ * by required literals in trigram index, loaded by storage source and checked by pattern.
+ * Results are not cached: changed notes could not be checked against cached pattern results
+ * by normalized text. Live results of task (see {@link SearchTask}) are checked by pattern too.
+ * Notes not matched within limit of pattern are skipped and search is reported incomplete.
+ */
+public final class RegexSearchSource implements SearchTask.Source {
+
+	private final RegexQuery regex;
+	private final TrigramIndex index;
+	private final NotesStorage storage;
+	private final SearchTask.Source notesSource;
+	private volatile boolean notesSkipped = false;
+
+
+	/**
+	 * @param query query for which {@link RegexQuery#isRegex(String)} is true
+	 * @param notesSource storage source used to load notes
+	 */
+	public RegexSearchSource(String query, TrigramIndex index, NotesStorage storage, SearchTask.Source notesSource) {
+		this.regex = RegexQuery.compile(query);
+		this.index = index;
+		this.storage = storage;
+		this.notesSource = notesSource;
+	}
+
+
+	@Override
+	public List<AbstractNote> getCachedResults(String query) {
+		return null;
+	}
+
+	@Override
+	public void findNotesIds(String query, SearchTask.Hits hits) {
+		if (regex != null) { // otherwise invalid pattern, nothing is found
+			index.findRegexCandidates(regex, storage, hits);
+		}
+	}
+
+	/**
+	 * @return notes matching pattern
+	 */
+	@Override
+	public List<AbstractNote> loadNotes(List<Serializable> ids) {
+		final List<AbstractNote> notes = notesSource.loadNotes(ids);
+		final List<AbstractNote> matched = new ArrayList<AbstractNote>(notes.size());
+		for (AbstractNote note : notes) {
+			final int[][] matches = regex.findMatches(note.getTitle(), note.getBody());
+			if (matches == null) {
+				notesSkipped = true; // timed out
+			} else if (matches[0] != null || matches[1] != null) {
+				matched.add(note);
+			}
+		}
+		return matched;
+	}
+
+	@Override
+	public boolean isComplete() {
+		return !notesSkipped;
+	}
+
+	@Override
+	public void onSearchCompleted(String query, List<AbstractNote> notes) {}
+}
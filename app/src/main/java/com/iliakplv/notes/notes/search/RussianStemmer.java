@@ -0,0 +1,153 @@
+package com.iliakplv.notes.notes.search;
+
+/**
+ * Snowball Russian stemmer, see snowballstem.org/algorithms/russian/stemmer.html
+ * Works with normalized words: "ё" is already folded to "е".
+ */
+final class RussianStemmer implements Stemmer {
+
+	private static final int VERSION = 1;
+
+	private static final String VOWELS = "аеиоуыэюя";
+
+	// endings of group 1 are removed only after "а" or "я", longest endings first
+	private static final String[] PERFECTIVE_GERUND_1 = {"вшись", "вши", "в"};
+	private static final String[] PERFECTIVE_GERUND_2 = {"ившись", "ывшись", "ивши", "ывши", "ив", "ыв"};
+	private static final String[] REFLEXIVE = {"ся", "сь"};
+	private static final String[] ADJECTIVE = {
+			"ими", "ыми", "его", "ого", "ему", "ому",
+			"ее", "ие", "ые", "ое", "ей", "ий", "ый", "ой", "ем", "им", "ым", "ом",
+			"их", "ых", "ую", "юю", "ая", "яя", "ою", "ею"};
+	private static final String[] PARTICIPLE_1 = {"ем", "нн", "вш", "ющ", "щ"};
+	private static final String[] PARTICIPLE_2 = {"ивш", "ывш", "ующ"};
+	private static final String[] VERB_1 = {
+			"ете", "йте", "ешь", "нно", "ла", "на", "ли", "ем", "ло", "но", "ет", "ют", "ны", "ть", "й", "л", "н"};
+	private static final String[] VERB_2 = {
+			"ейте", "уйте", "ила", "ыла", "ена", "ите", "или", "ыли", "ило", "ыло", "ено", "ует", "уют",
+			"ены", "ить", "ыть", "ишь", "ей", "уй", "ил", "ыл", "им", "ым", "ен", "ят", "ит", "ыт", "ую", "ю"};
+	private static final String[] NOUN = {
+			"иями", "ями", "ами", "ией", "иям", "ием", "иях",
+			"ев", "ов", "ие", "ье", "еи", "ии", "ей", "ой", "ий", "ям", "ем", "ам", "ом", "ах", "ях", "ию", "ью", "ия", "ья",
+			"а", "е", "и", "й", "о", "у", "ы", "ь", "ю", "я"};
+	private static final String[] DERIVATIONAL = {"ость", "ост"};
+	private static final String[] SUPERLATIVE = {"ейше", "ейш"};
+
+
+	@Override
+	public boolean canStem(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			final char c = word.charAt(i);
+			if (c < 'а' || c > 'я') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public String stem(String word) {
+		final StringBuilder w = new StringBuilder(word);
+		final int rv = getRv(w);
+		final int r1 = getRegionStart(w, 0);
+		final int r2 = getRegionStart(w, r1);
+
+		// step 1
+		if (!removeEnding(w, rv, PERFECTIVE_GERUND_1, true) && !removeEnding(w, rv, PERFECTIVE_GERUND_2, false)) {
+			removeEnding(w, rv, REFLEXIVE, false);
+			if (removeEnding(w, rv, ADJECTIVE, false)) {
+				if (!removeEnding(w, rv, PARTICIPLE_1, true)) {
+					removeEnding(w, rv, PARTICIPLE_2, false);
+				}
+			} else if (!removeEnding(w, rv, VERB_1, true) && !removeEnding(w, rv, VERB_2, false)) {
+				removeEnding(w, rv, NOUN, false);
+			}
+		}
+
+		// step 2
+		if (w.length() > rv && w.charAt(w.length() - 1) == 'и') {
+			w.setLength(w.length() - 1);
+		}
+
+		// step 3
+		removeEnding(w, r2, DERIVATIONAL, false);
+
+		// step 4
+		if (endsWith(w, rv, "нн")) {
+			w.setLength(w.length() - 1);
+		} else if (removeEnding(w, rv, SUPERLATIVE, false)) {
+			if (endsWith(w, rv, "нн")) {
+				w.setLength(w.length() - 1);
+			}
+		} else if (endsWith(w, rv, "ь")) {
+			w.setLength(w.length() - 1);
+		}
+		return w.toString();
+	}
+
+	/**
+	 * Removes longest of endings inside of region
+	 * @param afterAOrYa ending should follow "а" or "я" (which are kept)
+	 * @return true if ending removed
+	 */
+	private static boolean removeEnding(StringBuilder w, int regionStart, String[] endings, boolean afterAOrYa) {
+		String longest = null;
+		for (String ending : endings) {
+			if ((longest == null || ending.length() > longest.length()) && endsWith(w, regionStart, ending)) {
+				if (afterAOrYa) {
+					final int previous = w.length() - ending.length() - 1;
+					if (previous < regionStart || (w.charAt(previous) != 'а' && w.charAt(previous) != 'я')) {
+						continue;
+					}
+				}
+				longest = ending;
+			}
+		}
+		if (longest == null) {
+			return false;
+		}
+		w.setLength(w.length() - longest.length());
+		return true;
+	}
+
+	private static boolean endsWith(StringBuilder w, int regionStart, String ending) {
+		final int start = w.length() - ending.length();
+		if (start < regionStart) {
+			return false;
+		}
+		for (int i = 0; i < ending.length(); i++) {
+			if (w.charAt(start + i) != ending.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// position after first vowel
+	private static int getRv(StringBuilder w) {
+		for (int i = 0; i < w.length(); i++) {
+			if (isVowel(w.charAt(i))) {
+				return i + 1;
+			}
+		}
+		return w.length();
+	}
+
+	// position after first non-vowel following a vowel
+	private static int getRegionStart(StringBuilder w, int from) {
+		for (int i = from + 1; i < w.length(); i++) {
+			if (!isVowel(w.charAt(i)) && isVowel(w.charAt(i - 1))) {
+				return i + 1;
+			}
+		}
+		return w.length();
+	}
+
+	private static boolean isVowel(char c) {
+		return VOWELS.indexOf(c) >= 0;
+	}
+}
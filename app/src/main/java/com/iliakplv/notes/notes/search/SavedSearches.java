@@ -0,0 +1,362 @@
+package com.iliakplv.notes.notes.search;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.iliakplv.notes.NotesApplication;
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.notes.SavedSearch;
+import com.iliakplv.notes.notes.storage.NotesStorage;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saved searches of storage (smart labels) with materialized sets of matching notes ids.
+ * Sets are filled by one scan of notes in background, after that each written note is tested against
+ * each saved query only (like {@link SearchResultsCache}), so notes of smart label
+ * are selected by ids as cheap as notes of label.
+ *
+ * Saved query matches notes found by search of it (see {@link SearchPredicate}).
+ * Written notes are tested in background in order of writes (like {@link LiveSearchTasks}),
+ * listener is called when sets are filled or changed.
+ * Saved searches are persisted in preferences, sets are filled again on next launch.
+ */
+public final class SavedSearches {
+
+	private static final String TAG = SavedSearches.class.getSimpleName();
+
+	private static final String ID_PREFIX = "saved_search_";
+	private static final String PREFS_KEY_IDS = "ids"; // comma separated
+	private static final String PREFS_KEY_NAME = "name_";
+	private static final String PREFS_KEY_QUERY = "query_";
+	private static final String PREFS_KEY_NEXT_ID = "next_id";
+
+	private final String prefsName;
+	private final Listener listener;
+	private final Map<Serializable, Entry> entries = new LinkedHashMap<Serializable, Entry>(); // creation order
+	private final Object fillLock = new Object(); // one scan at a time
+	private int nextId = 1;
+
+	private final Object changesLock = new Object();
+	private final List<Change> pendingChanges = new ArrayList<Change>(); // by changesLock
+	private boolean applyingChanges = false; // by changesLock
+
+
+	/**
+	 * @param prefsName name of preferences file with saved searches of storage
+	 */
+	public SavedSearches(String prefsName, Listener listener) {
+		this.prefsName = prefsName;
+		this.listener = listener;
+		load();
+	}
+
+
+	/**
+	 * @return true if id is id of saved search, not of label
+	 */
+	public static boolean isSavedSearchId(Serializable id) {
+		return id instanceof String && ((String) id).startsWith(ID_PREFIX);
+	}
+
+	public synchronized List<SavedSearch> getAll() {
+		final List<SavedSearch> searches = new ArrayList<SavedSearch>(entries.size());
+		for (Entry entry : entries.values()) {
+			searches.add(entry.search);
+		}
+		return searches;
+	}
+
+	/**
+	 * @return saved search or null
+	 */
+	public synchronized SavedSearch get(Serializable id) {
+		final Entry entry = entries.get(id);
+		return entry != null ? entry.search : null;
+	}
+
+	/**
+	 * @return id of saved search, notes set is filled later (see {@link #fillInBackground(NotesStorage)})
+	 */
+	public synchronized Serializable add(SavedSearch search) {
+		final String id = ID_PREFIX + nextId++;
+		entries.put(id, new Entry(new SavedSearch(id, search.getName(), search.getQuery())));
+		save();
+		return id;
+	}
+
+	public synchronized boolean remove(Serializable id) {
+		final boolean removed = entries.remove(id) != null;
+		if (removed) {
+			save();
+		}
+		return removed;
+	}
+
+	public synchronized void clear() {
+		synchronized (changesLock) {
+			pendingChanges.clear();
+		}
+		entries.clear();
+		save();
+	}
+
+	/**
+	 * @return copy of ids of notes matching saved search or null if notes set is not filled yet
+	 * (it is filled in background, see {@link #fillInBackground(NotesStorage)}, and reported to listener)
+	 */
+	public synchronized Set<Serializable> getNotesIds(Serializable id) {
+		final Entry entry = entries.get(id);
+		if (entry == null) {
+			return Collections.emptySet();
+		}
+		return entry.notesIds != null ? new HashSet<Serializable>(entry.notesIds) : null;
+	}
+
+	/**
+	 * Fills not filled notes sets of saved searches with one scan of storage
+	 */
+	public void fillInBackground(final NotesStorage storage) {
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				fill(storage);
+			}
+		});
+	}
+
+	private void fill(NotesStorage storage) {
+		synchronized (fillLock) {
+			final List<Entry> filling = new ArrayList<Entry>();
+			synchronized (this) {
+				for (Entry entry : entries.values()) {
+					if (entry.notesIds == null) {
+						entry.changesWhileFilling = new HashMap<Serializable, Boolean>();
+						filling.add(entry);
+					}
+				}
+			}
+			if (filling.isEmpty()) {
+				return;
+			}
+
+			// notes are written during scan, their changes are applied after it
+			final List<Set<Serializable>> found = new ArrayList<Set<Serializable>>(filling.size());
+			for (int i = 0; i < filling.size(); i++) {
+				found.add(new HashSet<Serializable>());
+			}
+			storage.visitNotes(NotesStorage.FIELD_TITLE | NotesStorage.FIELD_BODY, new NotesVisitor() {
+				@Override
+				public boolean visitNote(AbstractNote note) {
+					final String text = TrigramIndex.normalizedText(note.getTitle(), note.getBody());
+					for (int i = 0; i < filling.size(); i++) {
+						if (filling.get(i).predicate.matches(note, text)) {
+							found.get(i).add(note.getId());
+						}
+					}
+					return true;
+				}
+			});
+
+			synchronized (this) {
+				for (int i = 0; i < filling.size(); i++) {
+					final Entry entry = filling.get(i);
+					final Set<Serializable> notesIds = found.get(i);
+					for (Map.Entry<Serializable, Boolean> change : entry.changesWhileFilling.entrySet()) {
+						if (change.getValue()) {
+							notesIds.add(change.getKey());
+						} else {
+							notesIds.remove(change.getKey());
+						}
+					}
+					entry.changesWhileFilling = null;
+					entry.notesIds = notesIds;
+				}
+			}
+			AppLog.d(TAG, "Filled " + filling.size() + " saved searches");
+		}
+		listener.onNotesIdsChanged();
+	}
+
+	/**
+	 * Updates notes sets of all saved searches for inserted or updated note
+	 * @param note note with id
+	 */
+	public void onNoteChanged(AbstractNote note) {
+		addChange(new Change(note.getId(), note));
+	}
+
+	public void onNoteDeleted(Serializable id) {
+		addChange(new Change(id, null));
+	}
+
+	private void addChange(Change change) {
+		synchronized (this) {
+			if (entries.isEmpty()) {
+				return;
+			}
+		}
+		synchronized (changesLock) {
+			pendingChanges.add(change);
+			if (applyingChanges) {
+				return; // applied by running drain
+			}
+			applyingChanges = true;
+		}
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				applyChanges();
+			}
+		});
+	}
+
+	private void applyChanges() {
+		while (true) {
+			final List<Change> changes;
+			synchronized (changesLock) {
+				if (pendingChanges.isEmpty()) {
+					applyingChanges = false;
+					return;
+				}
+				changes = new ArrayList<Change>(pendingChanges);
+				pendingChanges.clear();
+			}
+			final List<Entry> changedEntries;
+			synchronized (this) {
+				changedEntries = new ArrayList<Entry>(entries.values());
+			}
+
+			// notes are matched without lock, sets are changed in order of changes
+			boolean changed = false;
+			for (Change change : changes) {
+				final boolean[] matches = new boolean[changedEntries.size()];
+				if (change.note != null) {
+					final String text = TrigramIndex.normalizedText(change.note.getTitle(), change.note.getBody());
+					for (int i = 0; i < matches.length; i++) {
+						matches[i] = changedEntries.get(i).predicate.matches(change.note, text);
+					}
+				}
+				synchronized (this) {
+					for (int i = 0; i < matches.length; i++) {
+						changed |= changedEntries.get(i).onNoteChanged(change.id, matches[i]);
+					}
+				}
+			}
+			if (changed) {
+				listener.onNotesIdsChanged();
+			}
+		}
+	}
+
+
+	// Persistence
+
+	private SharedPreferences getPreferences() {
+		final Context context = NotesApplication.getContext();
+		return context != null ? context.getSharedPreferences(prefsName, Context.MODE_PRIVATE) : null;
+	}
+
+	private void load() {
+		final SharedPreferences prefs = getPreferences();
+		if (prefs == null) {
+			return;
+		}
+		nextId = prefs.getInt(PREFS_KEY_NEXT_ID, 1);
+		for (String id : prefs.getString(PREFS_KEY_IDS, "").split(",")) {
+			if (id.length() > 0) {
+				final SavedSearch search = new SavedSearch(id,
+						prefs.getString(PREFS_KEY_NAME + id, ""),
+						prefs.getString(PREFS_KEY_QUERY + id, ""));
+				entries.put(id, new Entry(search));
+			}
+		}
+		AppLog.d(TAG, "Loaded " + entries.size() + " saved searches");
+	}
+
+	private void save() {
+		final SharedPreferences prefs = getPreferences();
+		if (prefs == null) {
+			return;
+		}
+		final SharedPreferences.Editor editor = prefs.edit().clear();
+		final StringBuilder ids = new StringBuilder();
+		for (Map.Entry<Serializable, Entry> entry : entries.entrySet()) {
+			final String id = (String) entry.getKey();
+			ids.append(ids.length() > 0 ? "," : "").append(id);
+			editor.putString(PREFS_KEY_NAME + id, entry.getValue().search.getName());
+			editor.putString(PREFS_KEY_QUERY + id, entry.getValue().search.getQuery());
+		}
+		editor.putString(PREFS_KEY_IDS, ids.toString());
+		editor.putInt(PREFS_KEY_NEXT_ID, nextId);
+		editor.apply();
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	/**
+	 * Called from background thread
+	 */
+	public static interface Listener {
+
+		/**
+		 * Notes sets are filled or changed, notes of saved searches should be selected again
+		 */
+		public void onNotesIdsChanged();
+	}
+
+	private static final class Entry {
+
+		final SavedSearch search;
+		final SearchPredicate predicate;
+
+		Set<Serializable> notesIds; // null until filled
+		Map<Serializable, Boolean> changesWhileFilling; // notes matching or not, not null while filling
+
+		Entry(SavedSearch search) {
+			this.search = search;
+			predicate = new SearchPredicate(SearchNormalizer.normalizeQuery(search.getQuery()));
+		}
+
+		/**
+		 * @return true if notes set is changed
+		 */
+		boolean onNoteChanged(Serializable id, boolean matches) {
+			if (changesWhileFilling != null) {
+				changesWhileFilling.put(id, matches);
+				return false; // reported when filled
+			} else if (notesIds != null) {
+				return matches ? notesIds.add(id) : notesIds.remove(id);
+			}
+			return false;
+		}
+	}
+
+	private static final class Change {
+
+		final Serializable id;
+		final AbstractNote note; // null for deleted note
+
+		Change(Serializable id, AbstractNote note) {
+			this.id = id;
+			this.note = note;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.AbstractNote;
+
+/**
+ * Positions of search query in original (not normalized) note texts for highlighting.
+ * Matches of found notes are computed with search in background (see {@link SearchTask#getMatch}).
+ */
+public final class SearchMatches {
+
+	private SearchMatches() {
+		throw new AssertionError("Instance creation not allowed!");
+	}
+
+	/**
+	 * @param query normalized query
+	 * @return first matches in trimmed title and trimmed body of note
+	 */
+	public static NoteMatch findMatch(AbstractNote note, String query) {
+		final String title = note.getTitle().trim();
+		final String body = note.getBody().trim();
+		if (RegexQuery.isRegex(query)) { // texts of note are matched at once
+			final RegexQuery regex = RegexQuery.compile(query);
+			final int[][] matches = regex != null ? regex.findMatches(title, body) : null;
+			return matches != null ? new NoteMatch(matches[0], matches[1]) : new NoteMatch(null, null);
+		}
+		return new NoteMatch(findMatch(title, query), findMatch(body, query));
+	}
+
+	/**
+	 * @param text original text
+	 * @param query normalized query (see {@link SearchNormalizer#normalizeQuery(String)})
+	 * @return start and end of first occurrence of query in normalized text mapped to original text
+	 * (or first match of regular expression query) or null if not found
+	 */
+	public static int[] findMatch(String text, String query) {
+		if (text == null || query == null || query.length() == 0) {
+			return null;
+		}
+		if (RegexQuery.isRegex(query)) {
+			final RegexQuery regex = RegexQuery.compile(query);
+			return regex != null ? regex.findMatch(text) : null;
+		}
+		final StringBuilder normalized = new StringBuilder(text.length());
+		final int[] sources = SearchNormalizer.normalize(text, normalized);
+		final int start = normalized.indexOf(query);
+		if (start < 0) {
+			return null;
+		}
+		final int last = sources[start + query.length() - 1];
+		return new int[] {sources[start], last + Character.charCount(text.codePointAt(last))};
+	}
+
+	/**
+	 * @return start of text fragment with about contextLength chars before match, at word start if possible
+	 */
+	public static int getSnippetStart(String text, int matchStart, int contextLength) {
+		if (matchStart <= contextLength) {
+			return 0;
+		}
+		int start = matchStart - contextLength;
+		final int wordSearchEnd = Math.min(matchStart, start + contextLength / 2);
+		for (int i = start; i < wordSearchEnd; i++) {
+			if (Character.isWhitespace(text.charAt(i))) {
+				return i + 1;
+			}
+		}
+		return start;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	public static final class NoteMatch {
+
+		private final int[] title;
+		private final int[] body;
+
+		NoteMatch(int[] title, int[] body) {
+			this.title = title;
+			this.body = body;
+		}
+
+		/**
+		 * @return start and end of match in trimmed title or null
+		 */
+		public int[] getTitleMatch() {
+			return title;
+		}
+
+		/**
+		 * @return start and end of match in trimmed body or null
+		 */
+		public int[] getBodyMatch() {
+			return body;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.iliakplv.notes.notes.search;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Normalization of note texts and queries for search: compatibility decomposition (NFKD),
+ * removal of diacritic marks and locale independent case folding.
+ * So "Résumé" matches "resume", "ёлка" matches "елка", "İstanbul" and "ıstanbul" match "istanbul".
+ * Cyrillic "й" is kept, it is a separate letter (and is transliterated differently, see {@link Transliterator}).
+ *
+ * Notes texts are normalized once when added to index, queries are normalized the same way.
+ */
+public final class SearchNormalizer {
+
+	private SearchNormalizer() {
+		throw new AssertionError("Instance creation not allowed!");
+	}
+
+
+	/**
+	 * @return normalized string, empty string for null
+	 */
+	public static String normalize(String s) {
+		if (s == null) {
+			return "";
+		}
+		if (isAsciiLowerCase(s)) {
+			return s; // most common case, no allocations
+		}
+
+		final String decomposed = isAscii(s) ? s : Normalizer.normalize(s, Normalizer.Form.NFKD);
+		final StringBuilder result = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			appendFolded(result, decomposed.charAt(i));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return normalized query without leading and trailing spaces,
+	 * regular expression query is only trimmed (see {@link RegexQuery})
+	 */
+	public static String normalizeQuery(String query) {
+		if (query != null && RegexQuery.isRegex(query.trim())) {
+			return query.trim(); // pattern is matched against original text
+		}
+		return normalize(query).trim();
+	}
+
+	/**
+	 * Normalizes text char by char remembering origin of each normalized char
+	 * @param result normalized text is appended here
+	 * @return index in text for each char of result
+	 */
+	static int[] normalize(String text, StringBuilder result) {
+		int[] sources = new int[text.length() + 16];
+		int i = 0;
+		while (i < text.length()) {
+			final int codePoint = text.codePointAt(i);
+			final int lengthBefore = result.length();
+			if (codePoint < 0x80) {
+				appendFolded(result, (char) codePoint);
+			} else {
+				final String decomposed =
+						Normalizer.normalize(new String(Character.toChars(codePoint)), Normalizer.Form.NFKD);
+				for (int j = 0; j < decomposed.length(); j++) {
+					appendFolded(result, decomposed.charAt(j));
+				}
+			}
+			if (result.length() > sources.length) {
+				sources = Arrays.copyOf(sources, Math.max(result.length(), sources.length * 2));
+			}
+			for (int j = lengthBefore; j < result.length(); j++) {
+				sources[j] = i;
+			}
+			i += Character.charCount(codePoint);
+		}
+		return sources;
+	}
+
+	private static void appendFolded(StringBuilder result, char c) {
+		if (c < 0x80) {
+			result.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+			return;
+		}
+		if (Character.getType(c) == Character.NON_SPACING_MARK) {
+			final int last = result.length() - 1;
+			if (c == '\u0306' && last >= 0 && result.charAt(last) == 'и') { // breve
+				result.setCharAt(last, 'й');
+			}
+			return; // diacritic
+		}
+		switch (c) {
+			case 'ı': // dotless i
+				result.append('i');
+				break;
+			case 'ß': // sharp s
+				result.append("ss");
+				break;
+			case 'ς': // final sigma
+				result.append('σ');
+				break;
+			default:
+				result.append(Character.toLowerCase(c));
+		}
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAsciiLowerCase(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c >= 0x80 || (c >= 'A' && c <= 'Z')) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.AbstractNote;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Search query as a condition on one note: note matches if search of query finds it
+ * (see {@link TrigramIndex}). Used where written notes are tested against queries instead of
+ * searching again, so such results stay the same as results of new search.
+ *
+ * Note matches if it contains query (or romanized query) or each query term: contains term
+ * or has a whole word with same stem as term or similar to it (see {@link FuzzyVocabulary}).
+ * Regular expression query matches if pattern is found in note (see {@link RegexQuery}).
+ */
+public final class SearchPredicate {
+
+	private static final StemIndex STEMS = new StemIndex(new EnglishStemmer(), new RussianStemmer()); // stem() only
+
+	private final String query;
+	private final String romanizedQuery; // null if query has no Cyrillic
+	private final String[] terms;
+	private final String[] termsStems; // null for terms too short for other forms and typos
+	private final boolean hasLongTerms;
+	private final RegexQuery regex;    // null for not regex or invalid pattern
+
+
+	/**
+	 * @param query normalized query (see {@link SearchNormalizer#normalizeQuery(String)})
+	 */
+	public SearchPredicate(String query) {
+		this.query = query;
+		if (RegexQuery.isRegex(query)) {
+			regex = RegexQuery.compile(query);
+			romanizedQuery = null;
+			terms = new String[0];
+			termsStems = new String[0];
+			hasLongTerms = false;
+			return;
+		}
+		regex = null;
+		romanizedQuery = Transliterator.hasCyrillic(query) ? Transliterator.romanize(query) : null;
+		terms = TermStatistics.getTerms(query);
+		termsStems = new String[terms.length];
+		boolean longTerms = false;
+		for (int i = 0; i < terms.length; i++) {
+			if (terms[i].length() >= FuzzyVocabulary.MIN_WORD_LENGTH) {
+				termsStems[i] = STEMS.stem(terms[i]);
+				longTerms = true;
+			}
+		}
+		hasLongTerms = longTerms;
+	}
+
+
+	public String getQuery() {
+		return query;
+	}
+
+	public boolean isRegex() {
+		return RegexQuery.isRegex(query);
+	}
+
+	public boolean matches(AbstractNote note) {
+		return isRegex() ?
+				regex != null && regex.matches(note) :
+				matches(note, TrigramIndex.normalizedText(note.getTitle(), note.getBody()));
+	}
+
+	/**
+	 * @param normalizedText text of note as indexed (see {@link TrigramIndex#normalizedText(String, String)})
+	 */
+	public boolean matches(AbstractNote note, String normalizedText) {
+		return isRegex() ?
+				regex != null && regex.matches(note) :
+				matchesText(normalizedText);
+	}
+
+	// not regex query
+	boolean matchesText(String normalizedText) {
+		if (query.length() == 0) {
+			return false;
+		}
+		if (normalizedText.contains(query) || (romanizedQuery != null && normalizedText.contains(romanizedQuery))) {
+			return true;
+		}
+		if (!hasLongTerms) {
+			return false;
+		}
+		Set<String> words = null; // of title and body, not of romanized shadow
+		for (int i = 0; i < terms.length; i++) {
+			if (normalizedText.contains(terms[i])) {
+				continue;
+			}
+			if (termsStems[i] == null) {
+				return false;
+			}
+			if (words == null) {
+				words = new HashSet<String>();
+				TermStatistics.collectWords(normalizedText, 0, TrigramIndex.getFieldsEnd(normalizedText), words);
+			}
+			if (!hasSimilarWord(words, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// as words found for term in vocabulary and stems of index
+	private boolean hasSimilarWord(Set<String> words, int termIndex) {
+		final String term = terms[termIndex];
+		final int maxDistance = FuzzyVocabulary.getMaxDistance(term.length());
+		for (String word : words) {
+			if (word.length() >= FuzzyVocabulary.MIN_WORD_LENGTH &&
+					FuzzyVocabulary.distance(term, word, maxDistance) <= maxDistance) {
+				return true;
+			}
+			// stemmers keep first letter, so only such words are stemmed
+			if (word.charAt(0) == term.charAt(0) && STEMS.stem(word).equals(termsStems[termIndex])) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,165 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.notes.storage.MemoryBudget;
+import com.iliakplv.notes.notes.storage.TrimmableCache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * LRU cache of search results for recent queries. Results stay valid after notes changes:
+ * only changed note is tested against each cached query (as search of query would match it,
+ * see {@link SearchPredicate}) and added to, replaced in or removed from results.
+ * Size is limited by {@link MemoryBudget}.
+ *
+ * Cached lists are never modified, changed results are copied.
+ */
+public final class SearchResultsCache implements TrimmableCache {
+
+	private static final int MAX_QUERIES = 8;
+
+	private final LinkedHashMap<String, Entry> results =
+			new LinkedHashMap<String, Entry>(16, 0.75f, true); // access order
+	private long retainedBytes = 0;
+
+
+	public SearchResultsCache(String name) {
+		MemoryBudget.register(name, MemoryBudget.PRIORITY_SEARCH, this);
+	}
+
+
+	/**
+	 * @param query normalized query
+	 * @return cached results or null
+	 */
+	public synchronized List<AbstractNote> get(String query) {
+		final Entry entry = results.get(query);
+		return entry != null ? entry.notes : null;
+	}
+
+	/**
+	 * @param query normalized query
+	 * @return unmodifiable cached results
+	 */
+	public List<AbstractNote> put(String query, List<AbstractNote> notes) {
+		final Entry entry = new Entry(Collections.unmodifiableList(notes), new SearchPredicate(query));
+		synchronized (this) {
+			release(results.put(query, entry));
+			retainedBytes += entry.bytes;
+			final Iterator<Entry> iterator = results.values().iterator();
+			while (results.size() > MAX_QUERIES && iterator.hasNext()) {
+				release(iterator.next());
+				iterator.remove();
+			}
+		}
+		MemoryBudget.onCacheGrown();
+		return entry.notes;
+	}
+
+	/**
+	 * Updates results of all cached queries for inserted or updated note
+	 * @param note note with id
+	 */
+	public synchronized void onNoteChanged(AbstractNote note) {
+		if (results.isEmpty()) {
+			return;
+		}
+		final String text = TrigramIndex.normalizedText(note.getTitle(), note.getBody());
+		for (Entry entry : results.values()) {
+			final boolean matches = entry.predicate.matches(note, text);
+			final int position = indexOf(entry.notes, note.getId());
+			if (position < 0 && !matches) {
+				continue;
+			}
+
+			final List<AbstractNote> notes = new ArrayList<AbstractNote>(entry.notes);
+			if (position >= 0 && matches) {
+				notes.set(position, note);
+			} else if (position >= 0) {
+				notes.remove(position);
+			} else {
+				notes.add(note); // relevance is unknown, new match goes last
+			}
+			replaceNotes(entry, notes);
+		}
+	}
+
+	public synchronized void onNoteDeleted(Serializable id) {
+		for (Entry entry : results.values()) {
+			final int position = indexOf(entry.notes, id);
+			if (position >= 0) {
+				final List<AbstractNote> notes = new ArrayList<AbstractNote>(entry.notes);
+				notes.remove(position);
+				replaceNotes(entry, notes);
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		results.clear();
+		retainedBytes = 0;
+	}
+
+	@Override
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	@Override
+	public synchronized void trimToSize(long maxBytes) {
+		final Iterator<Entry> iterator = results.values().iterator();
+		while (retainedBytes > maxBytes && iterator.hasNext()) {
+			release(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	private void replaceNotes(Entry entry, List<AbstractNote> notes) {
+		retainedBytes -= entry.bytes;
+		entry.notes = Collections.unmodifiableList(notes);
+		entry.bytes = MemoryBudget.estimateBytes(notes);
+		retainedBytes += entry.bytes;
+	}
+
+	private void release(Entry entry) {
+		if (entry != null) {
+			retainedBytes -= entry.bytes;
+		}
+	}
+
+	private static int indexOf(List<AbstractNote> notes, Serializable id) {
+		for (int i = 0; i < notes.size(); i++) {
+			if (notes.get(i).getId().equals(id)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class Entry {
+
+		List<AbstractNote> notes;
+		long bytes;
+		final SearchPredicate predicate;
+
+		Entry(List<AbstractNote> notes, SearchPredicate predicate) {
+			this.notes = notes;
+			this.predicate = predicate;
+			bytes = MemoryBudget.estimateBytes(notes);
+		}
+	}
+}
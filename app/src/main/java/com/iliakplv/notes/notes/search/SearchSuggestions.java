@@ -0,0 +1,416 @@
+package com.iliakplv.notes.notes.search;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.iliakplv.notes.NotesApplication;
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.notes.storage.NotesStorage;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
+import com.iliakplv.notes.utils.AppLog;
+import com.iliakplv.notes.utils.StringUtils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Search suggestions of storage: recent queries and note titles starting with typed prefix
+ * or having a word starting with it.
+ *
+ * Titles are kept up to date by storage (like {@link SavedSearches}), suggestions are looked up
+ * in immutable {@link PrefixIndex}: sorted arrays of normalized titles and of their suffixes starting
+ * at other words, prefix range is found by binary search. Index is rebuilt in background after titles change,
+ * until then previous index is used (with previous change times of notes). So lookup takes no locks
+ * and never reads notes.
+ *
+ * Titles with prefix are ranked: titles with whole word typed first, then titles of recently changed notes.
+ *
+ * Recent queries are persisted in preferences.
+ */
+public final class SearchSuggestions {
+
+	private static final String TAG = SearchSuggestions.class.getSimpleName();
+
+	private static final int MAX_RECENT_QUERIES = 20;
+	private static final int MAX_KEY_LENGTH = 64; // longer prefixes are matched by first chars
+	private static final int MAX_RANKED_KEYS = 256; // first keys with prefix, keys of whole word are among them
+	private static final String PREFS_KEY_RECENT_QUERIES = "recent_queries"; // newline separated
+
+	private final String prefsName;
+	private final Map<Serializable, Title> titles = new HashMap<Serializable, Title>();
+	private final List<String> recentQueries = new ArrayList<String>(); // most recent first
+	private Set<Serializable> changedWhileFilling; // not null while filling
+	private int clearsCount = 0; // titles found before clear are dropped
+	private boolean rebuildScheduled = false;
+	private int snapshotsCount = 0; // index of older snapshot is not published
+	private volatile PrefixIndex index;
+
+
+	/**
+	 * @param prefsName name of preferences file with recent queries of storage
+	 */
+	public SearchSuggestions(String prefsName) {
+		this.prefsName = prefsName;
+		load();
+		index = new PrefixIndex(Collections.<Title>emptyList(), recentQueries);
+	}
+
+
+	/**
+	 * @param prefix typed query
+	 * @return recent queries and then note titles for prefix, at most limit
+	 */
+	public List<String> getSuggestions(String prefix, int limit) {
+		return index.lookup(SearchNormalizer.normalize(prefix).trim(), limit);
+	}
+
+	public void addRecentQuery(String query) {
+		if (StringUtils.isBlank(query)) {
+			return;
+		}
+		synchronized (this) {
+			final String trimmed = query.trim();
+			recentQueries.remove(trimmed);
+			recentQueries.add(0, trimmed);
+			while (recentQueries.size() > MAX_RECENT_QUERIES) {
+				recentQueries.remove(recentQueries.size() - 1);
+			}
+			save();
+			scheduleRebuild();
+		}
+	}
+
+	/**
+	 * Fills titles with one scan of storage
+	 */
+	public void fillInBackground(final NotesStorage storage) {
+		final int clearsBeforeFill;
+		synchronized (this) {
+			changedWhileFilling = new HashSet<Serializable>();
+			clearsBeforeFill = clearsCount;
+		}
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				final Map<Serializable, Title> found = new HashMap<Serializable, Title>();
+				storage.visitNotes(NotesStorage.FIELD_TITLE | NotesStorage.FIELD_TIMES, new NotesVisitor() {
+					@Override
+					public boolean visitNote(AbstractNote note) {
+						if (!StringUtils.isBlank(note.getTitle())) {
+							found.put(note.getId(), new Title(note));
+						}
+						return true;
+					}
+				});
+				synchronized (SearchSuggestions.this) {
+					// notes written during scan are already up to date
+					for (Map.Entry<Serializable, Title> title : found.entrySet()) {
+						if (!changedWhileFilling.contains(title.getKey()) && clearsCount == clearsBeforeFill) {
+							titles.put(title.getKey(), title.getValue());
+						}
+					}
+					changedWhileFilling = null;
+					scheduleRebuild();
+				}
+				AppLog.d(TAG, "Filled with " + found.size() + " titles");
+			}
+		});
+	}
+
+	/**
+	 * @param note inserted or updated note with id
+	 */
+	public void onNoteChanged(AbstractNote note) {
+		final Title title = StringUtils.isBlank(note.getTitle()) ? null : new Title(note);
+		synchronized (this) {
+			onTitleChanged(note.getId(), title != null ? titles.put(note.getId(), title) : titles.remove(note.getId()),
+					title);
+		}
+	}
+
+	public synchronized void onNoteDeleted(Serializable id) {
+		onTitleChanged(id, titles.remove(id), null);
+	}
+
+	/**
+	 * Removes titles and recent queries (e.g. when all data deleted)
+	 */
+	public synchronized void clear() {
+		titles.clear();
+		recentQueries.clear();
+		clearsCount++;
+		save();
+		scheduleRebuild();
+	}
+
+	// change time of note with same title is updated in index with next rebuild
+	private void onTitleChanged(Serializable id, Title oldTitle, Title newTitle) {
+		if (changedWhileFilling != null) {
+			changedWhileFilling.add(id);
+		}
+		if (oldTitle == null ? newTitle != null : newTitle == null || !oldTitle.text.equals(newTitle.text)) {
+			scheduleRebuild();
+		}
+	}
+
+	private void scheduleRebuild() {
+		if (rebuildScheduled) {
+			return;
+		}
+		rebuildScheduled = true;
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				final List<Title> currentTitles;
+				final List<String> currentQueries;
+				final int snapshot;
+				synchronized (SearchSuggestions.this) {
+					rebuildScheduled = false; // later changes schedule next rebuild
+					currentTitles = new ArrayList<Title>(titles.values());
+					currentQueries = new ArrayList<String>(recentQueries);
+					snapshot = ++snapshotsCount;
+				}
+				final PrefixIndex rebuilt = new PrefixIndex(currentTitles, currentQueries);
+				synchronized (SearchSuggestions.this) {
+					// concurrent rebuild of later snapshot could finish first
+					if (snapshot == snapshotsCount) {
+						index = rebuilt;
+					}
+				}
+			}
+		});
+	}
+
+
+	// Persistence
+
+	private SharedPreferences getPreferences() {
+		final Context context = NotesApplication.getContext();
+		return context != null ? context.getSharedPreferences(prefsName, Context.MODE_PRIVATE) : null;
+	}
+
+	private void load() {
+		final SharedPreferences prefs = getPreferences();
+		if (prefs == null) {
+			return;
+		}
+		for (String query : prefs.getString(PREFS_KEY_RECENT_QUERIES, "").split("\n")) {
+			if (query.length() > 0) {
+				recentQueries.add(query);
+			}
+		}
+	}
+
+	private void save() {
+		final SharedPreferences prefs = getPreferences();
+		if (prefs == null) {
+			return;
+		}
+		final StringBuilder queries = new StringBuilder();
+		for (String query : recentQueries) {
+			queries.append(queries.length() > 0 ? "\n" : "").append(query.replace('\n', ' '));
+		}
+		prefs.edit().putString(PREFS_KEY_RECENT_QUERIES, queries.toString()).apply();
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	/**
+	 * Immutable prefix index of titles and recent queries
+	 */
+	static final class PrefixIndex {
+
+		private final String[] titles;      // distinct, original case
+		private final long[] changeTimes;   // of most recently changed note with title
+		private final Keys titlesStarts;    // normalized titles
+		private final Keys wordsStarts;     // normalized suffixes of titles starting at second and next words
+		private final String[] queries;     // recent, most recent first
+		private final String[] queriesKeys; // normalized queries
+
+		PrefixIndex(List<Title> titlesList, List<String> queriesList) {
+			final Map<String, Title> distinctTitles = new HashMap<String, Title>(); // by normalized
+			for (Title title : titlesList) {
+				final Title same = distinctTitles.get(title.normalized);
+				if (same == null || same.changeTime < title.changeTime) {
+					distinctTitles.put(title.normalized, title);
+				}
+			}
+			titles = new String[distinctTitles.size()];
+			changeTimes = new long[titles.length];
+			final List<Key> startKeys = new ArrayList<Key>(titles.length);
+			final List<Key> wordKeys = new ArrayList<Key>();
+			int title = 0;
+			for (Map.Entry<String, Title> entry : distinctTitles.entrySet()) {
+				titles[title] = entry.getValue().text;
+				changeTimes[title] = entry.getValue().changeTime;
+				final String normalized = entry.getKey();
+				startKeys.add(new Key(normalized, title));
+				for (int i = 1; i < normalized.length(); i++) {
+					if (Character.isLetterOrDigit(normalized.charAt(i)) &&
+							!Character.isLetterOrDigit(normalized.charAt(i - 1))) {
+						wordKeys.add(new Key(normalized.substring(i), title));
+					}
+				}
+				title++;
+			}
+			titlesStarts = new Keys(startKeys);
+			wordsStarts = new Keys(wordKeys);
+
+			queries = queriesList.toArray(new String[queriesList.size()]);
+			queriesKeys = new String[queries.length];
+			for (int i = 0; i < queries.length; i++) {
+				queriesKeys[i] = SearchNormalizer.normalize(queries[i]);
+			}
+		}
+
+		/**
+		 * @param prefix normalized prefix
+		 * @return recent queries, titles starting with prefix, then titles with other word starting with it
+		 * (titles are ranked, see {@link Keys#collect(String, String[], long[], Set, int)})
+		 */
+		List<String> lookup(String prefix, int limit) {
+			final Set<String> suggestions = new LinkedHashSet<String>();
+			for (int i = 0; i < queries.length && suggestions.size() < limit; i++) {
+				if (queriesKeys[i].startsWith(prefix)) {
+					suggestions.add(queries[i]);
+				}
+			}
+			if (prefix.length() > 0) { // titles are suggested for typed prefix only
+				final String keyPrefix = prefix.length() > MAX_KEY_LENGTH ? prefix.substring(0, MAX_KEY_LENGTH) : prefix;
+				titlesStarts.collect(keyPrefix, titles, changeTimes, suggestions, limit);
+				wordsStarts.collect(keyPrefix, titles, changeTimes, suggestions, limit);
+			}
+			return new ArrayList<String>(suggestions);
+		}
+	}
+
+	/**
+	 * Sorted keys (cut to {@link #MAX_KEY_LENGTH}) with titles of them
+	 */
+	static final class Keys {
+
+		private final String[] keys;
+		private final int[] titles;
+
+		Keys(List<Key> keysList) {
+			Collections.sort(keysList, Key.COMPARATOR);
+			keys = new String[keysList.size()];
+			titles = new int[keysList.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = keysList.get(i).key;
+				titles[i] = keysList.get(i).title;
+			}
+		}
+
+		/**
+		 * Adds titles of keys starting with prefix until there are limit suggestions:
+		 * keys with prefix as a whole word first, then keys of recently changed titles.
+		 * Only first {@link #MAX_RANKED_KEYS} keys with prefix are ranked, keys of whole word
+		 * usually are among them, as word separators are ordered before letters.
+		 * @param changeTimes change times of titles
+		 */
+		void collect(final String prefix, String[] allTitles, final long[] changeTimes,
+					 Set<String> suggestions, int limit) {
+			final int from = lowerBound(prefix);
+			int to = from;
+			while (to < keys.length && to - from < MAX_RANKED_KEYS && keys[to].startsWith(prefix)) {
+				to++;
+			}
+			final Integer[] ranked = new Integer[to - from];
+			for (int i = 0; i < ranked.length; i++) {
+				ranked[i] = from + i;
+			}
+			Arrays.sort(ranked, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					final boolean aWord = isWholeWord(keys[a], prefix);
+					if (aWord != isWholeWord(keys[b], prefix)) {
+						return aWord ? -1 : 1;
+					}
+					final long aTime = changeTimes[titles[a]];
+					final long bTime = changeTimes[titles[b]];
+					if (aTime != bTime) {
+						return aTime > bTime ? -1 : 1;
+					}
+					return a - b; // keys order
+				}
+			});
+			for (int i = 0; i < ranked.length && suggestions.size() < limit; i++) {
+				suggestions.add(allTitles[titles[ranked[i]]]);
+			}
+		}
+
+		private static boolean isWholeWord(String key, String prefix) {
+			return key.length() == prefix.length() || !Character.isLetterOrDigit(key.charAt(prefix.length()));
+		}
+
+		// first key not less than prefix
+		int lowerBound(String prefix) {
+			int low = 0;
+			int high = keys.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (keys[middle].compareTo(prefix) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Trimmed title of note, normalized once on change
+	 */
+	static final class Title {
+
+		final String text;
+		final String normalized;
+		final long changeTime;
+
+		Title(String text, long changeTime) {
+			this.text = text.trim();
+			this.normalized = SearchNormalizer.normalize(this.text);
+			this.changeTime = changeTime;
+		}
+
+		Title(AbstractNote note) {
+			this(note.getTitle(), note.getChangeTime() != null ? note.getChangeTime().getMillis() : 0);
+		}
+	}
+
+	static final class Key {
+
+		static final Comparator<Key> COMPARATOR = new Comparator<Key>() {
+			@Override
+			public int compare(Key a, Key b) {
+				return a.key.compareTo(b.key);
+			}
+		};
+
+		final String key;
+		final int title;
+
+		Key(String key, int title) {
+			this.key = key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key;
+			this.title = title;
+		}
+	}
+}
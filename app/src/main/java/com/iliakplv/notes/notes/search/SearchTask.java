@@ -0,0 +1,392 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progressive search: source reports ids while it searches (see {@link Hits}), first hits are
+ * loaded and reported as soon as they are found, then hits are reported in batches.
+ * Search can be cancelled (e.g. when query changes) and stops with partial results when
+ * time budget is over.
+ *
+ * Finished results stay live until task is cancelled: storage reports each written note
+ * (see {@link LiveSearchTasks}), only that note is tested against query as search would match it
+ * (see {@link SearchPredicate}) and inserted to, replaced in or removed from results.
+ * Notes written during search are applied to results when search finishes.
+ *
+ * Matches of query in found notes for highlighting (see {@link SearchMatches}) are computed
+ * in background with results, so they are not searched again while results are shown.
+ */
+public final class SearchTask implements Runnable {
+
+	private static final String TAG = SearchTask.class.getSimpleName();
+
+	public static final long NO_TIME_BUDGET = 0;
+
+	private static final int FIRST_HITS_COUNT = 20;
+	private static final int HITS_BATCH_SIZE = 100;
+
+	private final String query;
+	private final long timeBudgetMillis;
+	private final Source source;
+	private final Listener listener;
+
+	private volatile boolean cancelled = false;
+	private long deadline;
+	private List<AbstractNote> results; // null until search finished
+	private SearchPredicate predicate; // created for first change
+	private final Map<Serializable, AbstractNote> changesWhileSearching =
+			new LinkedHashMap<Serializable, AbstractNote>(); // null for deleted note
+	private final Map<Serializable, SearchMatches.NoteMatch> notesMatches =
+			new ConcurrentHashMap<Serializable, SearchMatches.NoteMatch>(); // kept after cancellation
+
+
+	/**
+	 * @param query normalized query (see {@link SearchNormalizer#normalizeQuery(String)})
+	 * @param timeBudgetMillis time after which search stops with partial results or {@link #NO_TIME_BUDGET}
+	 */
+	public SearchTask(String query, long timeBudgetMillis, Source source, Listener listener) {
+		this.query = query;
+		this.timeBudgetMillis = timeBudgetMillis;
+		this.source = source;
+		this.listener = listener;
+	}
+
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return current results or null if search is not finished or task is cancelled
+	 */
+	public synchronized List<AbstractNote> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return matches of query in found note (computed before note is reported to listener)
+	 * or null if note was not found
+	 */
+	public SearchMatches.NoteMatch getMatch(Serializable noteId) {
+		return notesMatches.get(noteId);
+	}
+
+	/**
+	 * Stops search and live results, listener is not called after cancellation
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		results = null;
+		changesWhileSearching.clear();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return true if search should stop (cancelled or time budget is over)
+	 */
+	public boolean shouldStop() {
+		return cancelled || isTimeOver();
+	}
+
+	private boolean isTimeOver() {
+		return timeBudgetMillis != NO_TIME_BUDGET && System.currentTimeMillis() > deadline;
+	}
+
+	@Override
+	public void run() {
+		if (cancelled) { // cancelled before start
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		deadline = start + timeBudgetMillis;
+
+		final List<AbstractNote> cached = source.getCachedResults(query);
+		if (cached != null) {
+			addMatches(cached);
+			finish(cached, true, false);
+			return;
+		}
+
+		final LoadingHits hits = new LoadingHits();
+		source.findNotesIds(query, hits);
+		if (cancelled) {
+			return;
+		}
+		// otherwise ids could be found not in all notes or some notes were not checked
+		final boolean complete = hits.loadPending() && source.isComplete();
+		AppLog.d(TAG, "Found " + hits.found.size() + " notes in " + (System.currentTimeMillis() - start) +
+				" ms" + (complete ? "" : " (partial)"));
+		finish(hits.found, complete, complete);
+	}
+
+	/**
+	 * Finds all ids without task, e.g. for synchronous search
+	 */
+	public static List<Serializable> findAllNotesIds(Source source, String query) {
+		final CollectedHits hits = new CollectedHits();
+		source.findNotesIds(query, hits);
+		return hits.getIds();
+	}
+
+	private void addMatches(List<AbstractNote> notes) {
+		for (AbstractNote note : notes) {
+			if (cancelled) {
+				return;
+			}
+			notesMatches.put(note.getId(), SearchMatches.findMatch(note, query));
+		}
+	}
+
+	private synchronized void finish(List<AbstractNote> found, boolean complete, boolean cache) {
+		if (cancelled) {
+			return;
+		}
+		List<AbstractNote> notes = found;
+		for (Map.Entry<Serializable, AbstractNote> change : changesWhileSearching.entrySet()) {
+			final List<AbstractNote> changed = applyChange(notes, change.getKey(), change.getValue());
+			notes = changed != null ? changed : notes;
+		}
+		changesWhileSearching.clear();
+		results = Collections.unmodifiableList(notes);
+
+		if (cache) {
+			source.onSearchCompleted(query, results);
+		}
+		listener.onSearchFinished(this, results, complete);
+	}
+
+
+	// Live results
+
+	/**
+	 * Updates results for inserted or updated note
+	 * @param note note with id
+	 */
+	public void onNoteChanged(AbstractNote note) {
+		onChange(note.getId(), note);
+	}
+
+	public void onNoteDeleted(Serializable id) {
+		onChange(id, null);
+	}
+
+	// listener is called under lock, so changed results are reported in order of changes
+	private synchronized void onChange(Serializable id, AbstractNote note) {
+		if (cancelled) {
+			return;
+		}
+		if (results == null) {
+			changesWhileSearching.remove(id); // keep order of changes
+			changesWhileSearching.put(id, note);
+			return;
+		}
+		final List<AbstractNote> changed = applyChange(results, id, note);
+		if (changed != null) {
+			results = Collections.unmodifiableList(changed);
+			listener.onResultsChanged(this, results);
+		}
+	}
+
+	/**
+	 * @param note changed note or null if note deleted
+	 * @return changed copy of notes or null if notes not changed
+	 */
+	private List<AbstractNote> applyChange(List<AbstractNote> notes, Serializable id, AbstractNote note) {
+		if (note != null && predicate == null) {
+			predicate = new SearchPredicate(query);
+		}
+		final boolean matches = note != null && predicate.matches(note);
+		int position = -1;
+		for (int i = 0; i < notes.size() && position < 0; i++) {
+			if (notes.get(i).getId().equals(id)) {
+				position = i;
+			}
+		}
+		if (position < 0 && !matches) {
+			return null;
+		}
+
+		final List<AbstractNote> changed = new ArrayList<AbstractNote>(notes);
+		if (position >= 0 && matches) {
+			changed.set(position, note); // relevance of other notes is unchanged, note keeps its place
+		} else if (position >= 0) {
+			changed.remove(position);
+		} else {
+			changed.add(note); // as in results cache, new match goes last
+		}
+		if (matches) {
+			notesMatches.put(id, SearchMatches.findMatch(note, query));
+		}
+		return changed;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	/**
+	 * Receiver of ids found by source
+	 */
+	public static interface Hits {
+
+		/**
+		 * @return true if source should stop search, ids found so far are used
+		 */
+		public boolean shouldStop();
+
+		/**
+		 * @param ids next found ids in results order, ids reported before are skipped
+		 */
+		public void add(List<Serializable> ids);
+	}
+
+	/**
+	 * Hits collected in order of reports without repetitions, never stop
+	 */
+	public static final class CollectedHits implements Hits {
+
+		private final Set<Serializable> ids = new LinkedHashSet<Serializable>();
+
+		@Override
+		public boolean shouldStop() {
+			return false;
+		}
+
+		@Override
+		public void add(List<Serializable> ids) {
+			this.ids.addAll(ids);
+		}
+
+		public List<Serializable> getIds() {
+			return new ArrayList<Serializable>(ids);
+		}
+	}
+
+	/**
+	 * Loads notes of reported ids by batches and reports them to listener while source searches
+	 */
+	private final class LoadingHits implements Hits {
+
+		final List<AbstractNote> found = new ArrayList<AbstractNote>();
+		private final Set<Serializable> reportedIds = new HashSet<Serializable>();
+		private final List<Serializable> pendingIds = new ArrayList<Serializable>();
+		private int batchSize = FIRST_HITS_COUNT;
+		private boolean timeOver = false;
+
+		@Override
+		public boolean shouldStop() {
+			return timeOver || SearchTask.this.shouldStop();
+		}
+
+		@Override
+		public void add(List<Serializable> ids) {
+			for (Serializable id : ids) {
+				if (reportedIds.add(id)) {
+					pendingIds.add(id);
+				}
+			}
+			// first hits are loaded as soon as any are found
+			while (!shouldStop() && !pendingIds.isEmpty() &&
+					(found.isEmpty() || pendingIds.size() >= batchSize)) {
+				loadBatch();
+				if (!cancelled) {
+					listener.onNotesFound(SearchTask.this,
+							Collections.unmodifiableList(new ArrayList<AbstractNote>(found)));
+				}
+			}
+		}
+
+		/**
+		 * Loads ids left after search, at least first hits if time budget is over
+		 * @return false if time budget is over and found notes are partial
+		 */
+		boolean loadPending() {
+			timeOver |= isTimeOver();
+			while (!pendingIds.isEmpty() && !cancelled && (found.isEmpty() || !timeOver)) {
+				loadBatch();
+			}
+			return !timeOver;
+		}
+
+		private void loadBatch() {
+			final List<Serializable> batch = pendingIds.subList(0, Math.min(batchSize, pendingIds.size()));
+			final List<AbstractNote> loaded = source.loadNotes(new ArrayList<Serializable>(batch));
+			batch.clear();
+			batchSize = HITS_BATCH_SIZE;
+			addMatches(loaded);
+			found.addAll(loaded);
+			timeOver |= isTimeOver();
+		}
+	}
+
+	/**
+	 * Storage side of search
+	 */
+	public static interface Source {
+
+		/**
+		 * @return cached results or null
+		 */
+		public List<AbstractNote> getCachedResults(String query);
+
+		/**
+		 * Reports ids of matched notes in results order, could stop early (see {@link Hits#shouldStop()})
+		 */
+		public void findNotesIds(String query, Hits hits);
+
+		/**
+		 * @return notes for ids in same order, notes not matching query could be skipped
+		 */
+		public List<AbstractNote> loadNotes(List<Serializable> ids);
+
+		/**
+		 * @return false if some notes could not be checked by source and were skipped (results are partial)
+		 */
+		public boolean isComplete();
+
+		public void onSearchCompleted(String query, List<AbstractNote> notes);
+	}
+
+	/**
+	 * Called from background thread, not called after task cancellation
+	 */
+	public static interface Listener {
+
+		/**
+		 * @param notes all notes found so far
+		 */
+		public void onNotesFound(SearchTask task, List<AbstractNote> notes);
+
+		/**
+		 * @param complete false if search stopped by time budget or source skipped some notes
+		 * and results are partial
+		 */
+		public void onSearchFinished(SearchTask task, List<AbstractNote> notes, boolean complete);
+
+		/**
+		 * Called after search finished for each note change which changed results
+		 * @param notes all current results
+		 */
+		public void onResultsChanged(SearchTask task, List<AbstractNote> notes);
+	}
+}
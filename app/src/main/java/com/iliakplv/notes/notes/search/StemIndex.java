@@ -0,0 +1,224 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.storage.MemoryBudget;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stems of indexed words: words with same stem as query term match it ("meeting" - "meetings",
+ * "книга" - "книги"). Same stemmers are applied to note words and query terms.
+ *
+ * Stems of words are persisted to file and loaded on next launch, so words are not stemmed
+ * again when index is filled. File has stems of current words only.
+ */
+final class StemIndex {
+
+	private static final String TAG = StemIndex.class.getSimpleName();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int FILE_MAGIC = 0x4e53544d; // "NSTM"
+	private static final int FILE_VERSION = 2; // length-prefixed UTF-8 words, any length
+	private static final long WORD_OVERHEAD_BYTES = 96; // entries of both maps and words list
+
+	private final Stemmer[] stemmers;
+	private final Map<String, String> stemsByWords = new HashMap<String, String>();
+	private final Map<String, List<String>> wordsByStems = new HashMap<String, List<String>>();
+	private Map<String, String> persistedStems = Collections.emptyMap(); // loaded, not used yet
+	private boolean changed = false;
+	private long retainedBytes = 0;
+
+
+	StemIndex(Stemmer... stemmers) {
+		this.stemmers = stemmers;
+	}
+
+
+	/**
+	 * @param word normalized word
+	 * @return stem by first stemmer for word language or word itself
+	 */
+	String stem(String word) {
+		for (Stemmer stemmer : stemmers) {
+			if (stemmer.canStem(word)) {
+				return stemmer.stem(word);
+			}
+		}
+		return word;
+	}
+
+	void add(String word) {
+		String stem = persistedStems.remove(word);
+		if (stem == null) {
+			stem = stem(word);
+			changed = true;
+		}
+		stemsByWords.put(word, stem);
+		List<String> words = wordsByStems.get(stem);
+		if (words == null) {
+			words = new ArrayList<String>(2);
+			wordsByStems.put(stem, words);
+		}
+		words.add(word);
+		retainedBytes += WORD_OVERHEAD_BYTES + MemoryBudget.estimateBytes(word) + MemoryBudget.estimateBytes(stem);
+	}
+
+	void remove(String word) {
+		final String stem = stemsByWords.remove(word);
+		if (stem == null) {
+			return;
+		}
+		final List<String> words = wordsByStems.get(stem);
+		words.remove(word);
+		if (words.isEmpty()) {
+			wordsByStems.remove(stem);
+		}
+		changed = true;
+		retainedBytes -= WORD_OVERHEAD_BYTES + MemoryBudget.estimateBytes(word) + MemoryBudget.estimateBytes(stem);
+	}
+
+	void clear() {
+		stemsByWords.clear();
+		wordsByStems.clear();
+		persistedStems = Collections.emptyMap();
+		changed = true;
+		retainedBytes = 0;
+	}
+
+	long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * @return indexed words with same stem as term (could include term itself)
+	 */
+	List<String> getWordsWithSameStem(String term) {
+		final List<String> words = wordsByStems.get(stem(term));
+		return words != null ? words : Collections.<String>emptyList();
+	}
+
+
+	// Persistence
+
+	/**
+	 * Loads stems to use them instead of stemming for words added later
+	 */
+	void load(File file) {
+		if (!file.exists()) {
+			return;
+		}
+		final Map<String, String> stems = new HashMap<String, String>();
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION ||
+					input.readInt() != getStemmersVersion()) {
+				AppLog.d(TAG, "Stems file of other version dropped");
+				return;
+			}
+			final int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				stems.put(readString(input, file.length()), readString(input, file.length()));
+			}
+			persistedStems = stems;
+			changed = false;
+			AppLog.d(TAG, "Loaded " + count + " stems");
+		} catch (IOException e) {
+			AppLog.e(TAG, "Error loading stems", e); // words will be stemmed again
+		} finally {
+			close(input);
+		}
+	}
+
+	/**
+	 * @return copy of stems of current words to write (see {@link #write(File, Map)})
+	 * or null if words did not change since load or last copy
+	 */
+	Map<String, String> getStemsToSave() {
+		final boolean removedWords = !persistedStems.isEmpty(); // loaded, but not added
+		persistedStems = Collections.emptyMap();
+		if (!changed && !removedWords) {
+			return null;
+		}
+		changed = false; // words changed later are written by next save
+		return new HashMap<String, String>(stemsByWords);
+	}
+
+	/**
+	 * Writes stems to temporary file, which then replaces file.
+	 * Uses no words of index, so it is called without lock of index.
+	 */
+	void write(File file, Map<String, String> stems) {
+		final File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			output.writeInt(FILE_MAGIC);
+			output.writeInt(FILE_VERSION);
+			output.writeInt(getStemmersVersion());
+			output.writeInt(stems.size());
+			for (Map.Entry<String, String> entry : stems.entrySet()) {
+				writeString(output, entry.getKey());
+				writeString(output, entry.getValue());
+			}
+			output.close();
+			output = null;
+			if (!temp.renameTo(file)) {
+				throw new IOException("Can't rename " + temp);
+			}
+		} catch (IOException e) {
+			AppLog.e(TAG, "Error saving stems", e);
+		} finally {
+			close(output);
+		}
+	}
+
+	// writeUTF() is limited by 65535 bytes
+	private static void writeString(DataOutputStream output, String text) throws IOException {
+		final byte[] chars = text.getBytes(UTF_8);
+		output.writeInt(chars.length);
+		output.write(chars);
+	}
+
+	private static String readString(DataInputStream input, long maxLength) throws IOException {
+		final int length = input.readInt();
+		if (length < 0 || length > maxLength) {
+			throw new IOException("Wrong string length " + length); // array is not allocated for wrong length
+		}
+		final byte[] chars = new byte[length];
+		input.readFully(chars);
+		return new String(chars, UTF_8);
+	}
+
+	private int getStemmersVersion() {
+		int version = stemmers.length;
+		for (Stemmer stemmer : stemmers) {
+			version = 31 * version + stemmer.getVersion();
+		}
+		return version;
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				AppLog.e(TAG, "Error closing file", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.iliakplv.notes.notes.search;
+
+/**
+ * Reduces inflected words to a common stem ("meetings" and "meeting" to "meet"),
+ * words with same stem match each other in search (see {@link StemIndex}).
+ * Each stemmer handles words of one language, stemmer is chosen by {@link #canStem(String)}.
+ */
+public interface Stemmer {
+
+	/**
+	 * @param word normalized word (see {@link SearchNormalizer})
+	 * @return true if word is in stemmer language
+	 */
+	public boolean canStem(String word);
+
+	public String stem(String word);
+
+	/**
+	 * @return version of algorithm, stems persisted by other version are dropped
+	 */
+	public int getVersion();
+}
@@ -0,0 +1,290 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.notes.storage.MemoryBudget;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Statistics of words in indexed notes for BM25 ranking:
+ * title and body lengths (in words) of each document and number of documents with each word.
+ * Updated incrementally on each document add and remove.
+ *
+ * Title and body are scored as separate fields (BM25F), title occurrences weigh more.
+ * Words are also kept in {@link FuzzyVocabulary} to find words similar to misspelled terms
+ * and in {@link StemIndex} to find other forms of terms. Both are built on first lookup,
+ * so index loaded with persisted statistics (see {@link TrigramIndexFile}) does not split words of notes.
+ */
+final class TermStatistics {
+
+	private static final String TAG = TermStatistics.class.getSimpleName();
+
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+	private static final double TITLE_WEIGHT = 3.0;
+	private static final double BODY_WEIGHT = 1.0;
+
+	private static final long WORD_OVERHEAD_BYTES = 64; // map entry and counter
+
+	private int[] titleLengths = new int[64];
+	private int[] bodyLengths = new int[64];
+	private long titleLengthsSum = 0;
+	private long bodyLengthsSum = 0;
+	private int docsCount = 0;
+	private final Map<String, int[]> docsCountsByWords = new HashMap<String, int[]>(); // count and vocabulary id
+	private final FuzzyVocabulary vocabulary = new FuzzyVocabulary();
+	private final StemIndex stems = new StemIndex(new EnglishStemmer(), new RussianStemmer());
+	private boolean wordsIndexed = false; // words are in vocabulary and stems
+	private final File stemsFile; // null if stems are not persisted
+	private long retainedBytes = 0;
+
+
+	/**
+	 * @param stemsFile file stems are loaded from on first lookup, null if stems are not persisted
+	 */
+	TermStatistics(File stemsFile) {
+		this.stemsFile = stemsFile;
+	}
+
+
+	/**
+	 * @param separator position of fields separator in normalized text
+	 * @param end end of fields in text (words after it are not counted)
+	 */
+	void add(int doc, String text, int separator, int end) {
+		final Set<String> words = new HashSet<String>();
+		final int titleLength = collectWords(text, 0, separator, words);
+		addLengths(doc, titleLength, collectWords(text, separator + 1, end, words));
+
+		for (String word : words) {
+			final int[] count = docsCountsByWords.get(word);
+			if (count != null) {
+				count[0]++;
+			} else {
+				addWord(word, 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds document with persisted lengths, its words are added by {@link #addWord(String, int)}
+	 */
+	void addLengths(int doc, int titleLength, int bodyLength) {
+		if (doc >= titleLengths.length) {
+			final int length = Math.max(doc + 1, titleLengths.length * 2);
+			retainedBytes += 8L * (length - titleLengths.length);
+			titleLengths = Arrays.copyOf(titleLengths, length);
+			bodyLengths = Arrays.copyOf(bodyLengths, length);
+		}
+		titleLengths[doc] = titleLength;
+		bodyLengths[doc] = bodyLength;
+		titleLengthsSum += titleLength;
+		bodyLengthsSum += bodyLength;
+		docsCount++;
+	}
+
+	/**
+	 * @param docsCount number of documents with new word
+	 */
+	void addWord(String word, int docsCount) {
+		docsCountsByWords.put(word, new int[] {docsCount, wordsIndexed ? vocabulary.add(word) : -1});
+		if (wordsIndexed) {
+			stems.add(word);
+		}
+		retainedBytes += WORD_OVERHEAD_BYTES + MemoryBudget.estimateBytes(word);
+	}
+
+	/**
+	 * @param text normalized text document was added with
+	 * @param end end of fields document was added with
+	 */
+	void remove(int doc, String text, int end) {
+		titleLengthsSum -= titleLengths[doc];
+		bodyLengthsSum -= bodyLengths[doc];
+		docsCount--;
+
+		final Set<String> words = new HashSet<String>();
+		collectWords(text, 0, end, words);
+		for (String word : words) {
+			final int[] count = docsCountsByWords.get(word);
+			if (count != null && --count[0] == 0) {
+				docsCountsByWords.remove(word);
+				if (wordsIndexed) {
+					vocabulary.remove(count[1]);
+					stems.remove(word);
+				}
+				retainedBytes -= WORD_OVERHEAD_BYTES + MemoryBudget.estimateBytes(word);
+			}
+		}
+	}
+
+	void clear() {
+		titleLengths = new int[64];
+		bodyLengths = new int[64];
+		titleLengthsSum = 0;
+		bodyLengthsSum = 0;
+		docsCount = 0;
+		docsCountsByWords.clear();
+		vocabulary.clear();
+		stems.clear();
+		wordsIndexed = false;
+		retainedBytes = 0;
+	}
+
+	long getRetainedBytes() {
+		return retainedBytes + vocabulary.getRetainedBytes() + stems.getRetainedBytes();
+	}
+
+	int getTitleLength(int doc) {
+		return titleLengths[doc];
+	}
+
+	int getBodyLength(int doc) {
+		return bodyLengths[doc];
+	}
+
+	int getWordsCount() {
+		return docsCountsByWords.size();
+	}
+
+	/**
+	 * Copies words and numbers of documents with them to arrays of {@link #getWordsCount()} length
+	 */
+	void getWords(String[] words, int[] docsCounts) {
+		int i = 0;
+		for (Map.Entry<String, int[]> entry : docsCountsByWords.entrySet()) {
+			words[i] = entry.getKey();
+			docsCounts[i++] = entry.getValue()[0];
+		}
+	}
+
+	/**
+	 * @return stems of current words to write with {@link #writeStems(Map)}
+	 * or null if words are not indexed in stems or did not change
+	 */
+	Map<String, String> getStemsToSave() {
+		return stemsFile != null && wordsIndexed ? stems.getStemsToSave() : null;
+	}
+
+	/**
+	 * Writes stems got from {@link #getStemsToSave()}, could be called without lock of index
+	 */
+	void writeStems(Map<String, String> stemsToSave) {
+		stems.write(stemsFile, stemsToSave);
+	}
+
+	/**
+	 * @return indexed words within edit distance allowed for term length with their distances
+	 */
+	Map<String, Integer> findSimilarWords(String term) {
+		indexWords();
+		return vocabulary.findSimilarWords(term, FuzzyVocabulary.getMaxDistance(term.length()));
+	}
+
+	/**
+	 * @return indexed words with same stem as term
+	 */
+	List<String> getWordsWithSameStem(String term) {
+		indexWords();
+		return stems.getWordsWithSameStem(term);
+	}
+
+	private void indexWords() {
+		if (wordsIndexed) {
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		if (stemsFile != null) {
+			stems.load(stemsFile);
+		}
+		for (Map.Entry<String, int[]> entry : docsCountsByWords.entrySet()) {
+			entry.getValue()[1] = vocabulary.add(entry.getKey());
+			stems.add(entry.getKey());
+		}
+		wordsIndexed = true;
+		AppLog.d(TAG, "Indexed " + docsCountsByWords.size() + " words in " +
+				(System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Inverse document frequencies of query terms.
+	 * Query term could be a part of word, so number of documents with word is only a lower bound
+	 * of number of documents with term. Number of matched documents is the other lower bound.
+	 */
+	double[] getWeights(String[] terms, int matchedDocsCount) {
+		final double[] weights = new double[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			final int[] count = docsCountsByWords.get(terms[i]);
+			final int termDocsCount = Math.max(matchedDocsCount, count != null ? count[0] : 0);
+			weights[i] = Math.log(1.0 + (docsCount - termDocsCount + 0.5) / (termDocsCount + 0.5));
+		}
+		return weights;
+	}
+
+	/**
+	 * @param text normalized text of document
+	 * @param weights weights of terms from {@link #getWeights(String[], int)}
+	 */
+	double score(int doc, String text, int separator, String[] terms, double[] weights) {
+		final double titleNorm = 1.0 - B + B * titleLengths[doc] / averageLength(titleLengthsSum);
+		final double bodyNorm = 1.0 - B + B * bodyLengths[doc] / averageLength(bodyLengthsSum);
+
+		double score = 0;
+		for (int i = 0; i < terms.length; i++) {
+			int titleOccurrences = 0;
+			int bodyOccurrences = 0;
+			for (int position = text.indexOf(terms[i]); position >= 0;
+				 position = text.indexOf(terms[i], position + terms[i].length())) {
+				if (position < separator) {
+					titleOccurrences++;
+				} else {
+					bodyOccurrences++;
+				}
+			}
+			final double frequency = TITLE_WEIGHT * titleOccurrences / titleNorm +
+					BODY_WEIGHT * bodyOccurrences / bodyNorm;
+			score += weights[i] * frequency * (K1 + 1) / (frequency + K1);
+		}
+		return score;
+	}
+
+	private double averageLength(long lengthsSum) {
+		return docsCount > 0 && lengthsSum > 0 ? (double) lengthsSum / docsCount : 1.0;
+	}
+
+	/**
+	 * Query terms: distinct words of query or whole query if it has no words
+	 */
+	static String[] getTerms(String query) {
+		final Set<String> words = new HashSet<String>();
+		collectWords(query, 0, query.length(), words);
+		return words.isEmpty() ?
+				new String[] {query} :
+				words.toArray(new String[words.size()]);
+	}
+
+	/**
+	 * @return number of words in text[from, to)
+	 */
+	static int collectWords(String text, int from, int to, Set<String> words) {
+		int count = 0;
+		int wordStart = -1;
+		for (int i = from; i <= to; i++) {
+			final boolean wordChar = i < to && Character.isLetterOrDigit(text.charAt(i));
+			if (wordChar && wordStart < 0) {
+				wordStart = i;
+			} else if (!wordChar && wordStart >= 0) {
+				words.add(text.substring(wordStart, i));
+				wordStart = -1;
+				count++;
+			}
+		}
+		return count;
+	}
+}
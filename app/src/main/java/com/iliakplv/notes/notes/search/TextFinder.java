@@ -0,0 +1,97 @@
+package com.iliakplv.notes.notes.search;
+
+/**
+ * Case insensitive search of a phrase in text (find in note).
+ * Boyer-Moore-Horspool: text chars under the last char of pattern give a shift
+ * of up to pattern length, so long texts are searched without reading every char.
+ *
+ * Chars are folded one by one, so positions of matches are positions in original text.
+ */
+public final class TextFinder {
+
+	private static final int SHIFT_TABLE_SIZE = 256; // chars are bucketed by low byte
+
+	private final char[] pattern;
+	private final int[] shifts = new int[SHIFT_TABLE_SIZE];
+
+
+	/**
+	 * @param pattern non empty phrase to find
+	 */
+	public TextFinder(String pattern) {
+		if (pattern == null || pattern.length() == 0) {
+			throw new IllegalArgumentException("Empty pattern");
+		}
+		this.pattern = new char[pattern.length()];
+		for (int i = 0; i < pattern.length(); i++) {
+			this.pattern[i] = fold(pattern.charAt(i));
+		}
+
+		final int last = this.pattern.length - 1;
+		for (int i = 0; i < SHIFT_TABLE_SIZE; i++) {
+			shifts[i] = this.pattern.length;
+		}
+		// chars with same low byte share entry, rightmost occurrence gives the smallest (safe) shift
+		for (int i = 0; i < last; i++) {
+			shifts[this.pattern[i] & 0xff] = last - i;
+		}
+	}
+
+
+	public int getLength() {
+		return pattern.length;
+	}
+
+	/**
+	 * @return position of first match starting in [from, end) or -1
+	 * (match could end after end, so text could be searched in consecutive ranges)
+	 */
+	public int indexOf(CharSequence text, int from, int end) {
+		final int last = pattern.length - 1;
+		final int limit = Math.min(end, text.length() - last);
+		int start = Math.max(from, 0);
+		while (start < limit) {
+			final char c = fold(text.charAt(start + last));
+			if (c == pattern[last]) {
+				int i = last - 1;
+				while (i >= 0 && fold(text.charAt(start + i)) == pattern[i]) {
+					i--;
+				}
+				if (i < 0) {
+					return start;
+				}
+			}
+			start += shifts[c & 0xff];
+		}
+		return -1;
+	}
+
+	public int indexOf(CharSequence text, int from) {
+		return indexOf(text, from, text.length());
+	}
+
+	/**
+	 * @return positions of not overlapping matches in [from, end), at most maxCount
+	 */
+	public int[] findAll(CharSequence text, int from, int end, int maxCount) {
+		int[] matches = new int[16];
+		int count = 0;
+		int position = indexOf(text, from, end);
+		while (position >= 0 && count < maxCount) {
+			if (count == matches.length) {
+				final int[] grown = new int[matches.length * 2];
+				System.arraycopy(matches, 0, grown, 0, count);
+				matches = grown;
+			}
+			matches[count++] = position;
+			position = indexOf(text, position + pattern.length, end);
+		}
+		final int[] result = new int[count];
+		System.arraycopy(matches, 0, result, 0, count);
+		return result;
+	}
+
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
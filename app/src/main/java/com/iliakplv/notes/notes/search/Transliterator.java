@@ -0,0 +1,91 @@
+package com.iliakplv.notes.notes.search;
+
+/**
+ * Romanization of Cyrillic text (common keyboard transliteration, e.g. "щука" - "schuka")
+ * for search across scripts: index keeps romanized shadow of Cyrillic words of each note,
+ * so Latin query matches Cyrillic text, and Cyrillic query is also searched romanized.
+ *
+ * Works with normalized text (see {@link SearchNormalizer}): lower case, "ё" folded to "е".
+ */
+final class Transliterator {
+
+	private static final char FIRST = 'а';
+	private static final String[] LATIN = {
+			"a", "b", "v", "g", "d", "e", "zh", "z", "i", "y", "k", "l", "m", "n", "o", "p", // а - п
+			"r", "s", "t", "u", "f", "h", "ts", "ch", "sh", "sch", "", "y", "", "e", "yu", "ya"}; // р - я
+
+	private Transliterator() {
+		throw new AssertionError("Instance creation not allowed!");
+	}
+
+
+	static boolean hasCyrillic(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (getLatin(text.charAt(i)) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return text with Cyrillic letters replaced by Latin ones, other chars are kept
+	 */
+	static String romanize(String text) {
+		final StringBuilder result = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			final String latin = getLatin(c);
+			if (latin != null) {
+				result.append(latin);
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return romanized words with Cyrillic letters separated by spaces or empty string if there are no such words
+	 */
+	static String getShadow(String text) {
+		final StringBuilder result = new StringBuilder();
+		int wordStart = -1;
+		boolean cyrillicWord = false;
+		for (int i = 0; i <= text.length(); i++) {
+			final boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (wordChar) {
+				if (wordStart < 0) {
+					wordStart = i;
+					cyrillicWord = false;
+				}
+				cyrillicWord |= getLatin(text.charAt(i)) != null;
+			} else if (wordStart >= 0) {
+				if (cyrillicWord) {
+					if (result.length() > 0) {
+						result.append(' ');
+					}
+					result.append(romanize(text.substring(wordStart, i)));
+				}
+				wordStart = -1;
+			}
+		}
+		return result.toString();
+	}
+
+	private static String getLatin(char c) {
+		if (c >= FIRST && c < FIRST + LATIN.length) {
+			return LATIN[c - FIRST];
+		}
+		switch (c) {
+			case 'і': // Ukrainian and Belarusian
+				return "i";
+			case 'є':
+				return "ye";
+			case 'ґ':
+				return "g";
+			default:
+				return null;
+		}
+	}
+}
@@ -0,0 +1,1218 @@
+package com.iliakplv.notes.notes.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.iliakplv.notes.NotesApplication;
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.notes.storage.MemoryBudget;
+import com.iliakplv.notes.notes.storage.NotesStorage;
+import com.iliakplv.notes.notes.storage.NotesVisitor;
+import com.iliakplv.notes.notes.storage.TrimmableCache;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory inverted index of character trigrams of normalized note title and body.
+ * Substring query is answered by intersection of posting lists of query trigrams
+ * and verification of remaining candidates. If query extends previous query
+ * (e.g. "meet" and then "meeting"), only results of previous query are verified.
+ * Results are ranked by BM25 relevance (see {@link TermStatistics}).
+ * Notes with other forms (see {@link StemIndex}) or misspelled query words (see {@link FuzzyVocabulary})
+ * follow exact matches.
+ * Cyrillic words are also indexed romanized (see {@link Transliterator}), so query in either script
+ * matches notes in both.
+ *
+ * Index is filled from storage in background on first use and then updated by storage
+ * on each note change. Until index is filled, notes are scanned in parallel (see {@link ParallelScan}).
+ * Size is limited by {@link MemoryBudget}, trimmed index is filled again on next search.
+ *
+ * Index is persisted (see {@link TrigramIndexFile}) after fill and {@link #SAVE_DELAY_MILLIS} after last change
+ * (at most {@link #MAX_SAVE_DELAY_MILLIS} after first unsaved change). On next fill it is loaded from file
+ * and caught up with storage: change time of each note is compared with change time it was indexed with,
+ * so only changed notes are loaded again. Storage and file are read without lock of index,
+ * read notes are applied under it.
+ */
+public final class TrigramIndex implements TrimmableCache {
+
+	private static final String TAG = TrigramIndex.class.getSimpleName();
+
+	private static final int GRAM = 3;
+	private static final char FIELDS_SEPARATOR = '\u0000'; // never appears in query, also separates shadow
+	private static final int MIN_DELETED_DOCS_TO_COMPACT = 1024;
+	private static final long SAVE_DELAY_MILLIS = 10 * 1000;
+	private static final long MAX_SAVE_DELAY_MILLIS = 60 * 1000;
+	private static final int MIN_CHANGED_NOTES_TO_FILL = 32;
+	private static final int MAX_CHANGED_SHARE_TO_CATCH_UP = 4; // 1/4 of notes, otherwise filled from storage
+	private static final int SCAN_BATCH_SIZE = 1024; // notes filtered and reported at once if index is not filled
+
+	// documents (doc number is never reused until compaction, so posting lists stay sorted)
+	private final Map<Serializable, Integer> docsByIds = new HashMap<Serializable, Integer>();
+	private Serializable[] ids = new Serializable[64];
+	private long[] changeTimes = new long[64];
+	private String[] texts = new String[64];
+	private int docsCount = 0;
+	private int deletedDocsCount = 0;
+
+	// posting lists by trigram, open addressing without boxing (key 0 is never a trigram of text)
+	private long[] trigrams = new long[1024];
+	private Postings[] postings = new Postings[1024];
+	private int trigramsCount = 0;
+	private final TermStatistics statistics;
+	private volatile boolean filled = false;
+	private final AtomicBoolean filling = new AtomicBoolean(false);
+	private int dropsCount = 0; // of content (clear or invalidate), fill started before drop is not applied
+	private final Object changesLock = new Object();
+	private volatile Map<Serializable, Document> changesWhileFilling; // by changesLock, null value for removed note
+	private long retainedBytes = 0;
+	private final File stemsFile; // null if there is no app context (tests)
+	private final File indexFile; // null if there is no app context (tests)
+	private final Object indexFileLock = new Object();
+	private int changesSinceSave = 0;
+	private long firstUnsavedChangeTime = 0;
+	private final Handler saveHandler; // null if index is not persisted
+	private final Runnable saveTask = new Runnable() {
+		@Override
+		public void run() {
+			saveInBackground();
+		}
+	};
+
+	// last search results, reset on any change of index
+	private String lastQuery = null;
+	private int[] lastResultDocs;
+	private int lastResultCount;
+
+
+	public TrigramIndex(String name) {
+		MemoryBudget.register(name, MemoryBudget.PRIORITY_INDEX, this);
+		stemsFile = NotesApplication.getContext() != null ?
+				new File(NotesApplication.getContext().getFilesDir(), name + "_stems") :
+				null;
+		indexFile = NotesApplication.getContext() != null ?
+				new File(NotesApplication.getContext().getFilesDir(), name) :
+				null;
+		saveHandler = indexFile != null ? new Handler(Looper.getMainLooper()) : null;
+		statistics = new TermStatistics(stemsFile);
+	}
+
+
+	/**
+	 * @param query normalized query (see {@link SearchNormalizer#normalizeQuery(String)})
+	 * @param storage source of notes if index is not filled yet
+	 * @return ids of notes with query substring in title or body, most relevant first
+	 * (in storage order if index is not filled yet)
+	 */
+	public List<Serializable> search(String query, NotesStorage storage) {
+		final SearchTask.CollectedHits hits = new SearchTask.CollectedHits();
+		search(query, storage, hits);
+		return hits.getIds();
+	}
+
+	/**
+	 * Reports ids as soon as they are found: exact matches ranked, then other matches ranked
+	 * (see {@link #fuzzySearch(String[], Set)}). If index is not filled yet, notes are scanned
+	 * and reported in storage order by parts, scan stops when hits should stop.
+	 * Same id could be reported twice if index is changed during search.
+	 */
+	public void search(String query, NotesStorage storage, SearchTask.Hits hits) {
+		List<Serializable> exact = null;
+		if (filled) {
+			synchronized (this) {
+				if (filled) { // could be trimmed
+					exact = search(query);
+				}
+			}
+		}
+		List<Serializable> fuzzy = null;
+		if (exact != null) {
+			hits.add(exact);
+			if (hits.shouldStop()) {
+				return;
+			}
+			// lock is released, so notes are loaded while fuzzy search waits for index changes
+			synchronized (this) {
+				if (filled) {
+					fuzzy = fuzzySearch(TermStatistics.getTerms(query), new HashSet<Serializable>(exact));
+				}
+			}
+		}
+		if (fuzzy != null) {
+			hits.add(fuzzy);
+		} else {
+			final SearchPredicate predicate = new SearchPredicate(query);
+			scan(new TextFilter() {
+				@Override
+				public boolean accept(AbstractNote note, String normalizedText) {
+					return predicate.matches(note, normalizedText);
+				}
+			}, storage, hits);
+			fillInBackground(storage);
+		}
+		MemoryBudget.onCacheGrown();
+	}
+
+	/**
+	 * Ids of notes containing all literals required by regular expression
+	 * (see {@link #findRegexCandidates(RegexQuery, NotesStorage, SearchTask.Hits)})
+	 */
+	public List<Serializable> findRegexCandidates(RegexQuery regex, NotesStorage storage) {
+		final SearchTask.CollectedHits hits = new SearchTask.CollectedHits();
+		findRegexCandidates(regex, storage, hits);
+		return hits.getIds();
+	}
+
+	/**
+	 * Reports ids of notes containing all literals required by regular expression
+	 * (pattern itself is not checked) in index or storage order
+	 * @param storage source of notes if index is not filled yet
+	 */
+	public void findRegexCandidates(RegexQuery regex, NotesStorage storage, SearchTask.Hits hits) {
+		final List<String> literals = regex.getRequiredLiterals();
+		List<Serializable> result = null;
+		if (filled) {
+			synchronized (this) {
+				if (filled) {
+					result = findDocsWithAll(literals);
+				}
+			}
+		}
+		if (result != null) {
+			hits.add(result);
+		} else {
+			scan(new TextFilter() {
+				@Override
+				public boolean accept(AbstractNote note, String normalizedText) {
+					return containsAll(normalizedText, literals);
+				}
+			}, storage, hits);
+			fillInBackground(storage);
+		}
+		MemoryBudget.onCacheGrown();
+	}
+
+	/**
+	 * Reports ids of notes accepted by filter in storage order (not ranked),
+	 * each {@link #SCAN_BATCH_SIZE} visited notes are filtered and reported
+	 */
+	private static void scan(final TextFilter filter, NotesStorage storage, final SearchTask.Hits hits) {
+		final long start = System.currentTimeMillis();
+		final List<AbstractNote> notes = new ArrayList<AbstractNote>(SCAN_BATCH_SIZE);
+		final int[] scannedCount = new int[1];
+		storage.visitNotes(NotesStorage.FIELD_TITLE | NotesStorage.FIELD_BODY, new NotesVisitor() {
+			@Override
+			public boolean visitNote(AbstractNote note) {
+				notes.add(note);
+				if (notes.size() == SCAN_BATCH_SIZE) {
+					scannedCount[0] += notes.size();
+					scanBatch(filter, notes, hits);
+				}
+				return !hits.shouldStop();
+			}
+		});
+		scannedCount[0] += notes.size();
+		scanBatch(filter, notes, hits);
+		AppLog.d(TAG, "Scanned " + scannedCount[0] + " notes in " +
+				(System.currentTimeMillis() - start) + " ms");
+	}
+
+	// clears batch after filtering, texts are normalized by filtering threads
+	private static void scanBatch(final TextFilter filter, final List<AbstractNote> notes,
+								  SearchTask.Hits hits) {
+		final int[] matched = ParallelScan.filter(notes.size(), new ParallelScan.Filter() {
+			@Override
+			public boolean accept(int position) {
+				final AbstractNote note = notes.get(position);
+				return filter.accept(note, normalizedText(note.getTitle(), note.getBody()));
+			}
+		});
+		final List<Serializable> result = new ArrayList<Serializable>(matched.length);
+		for (int position : matched) {
+			result.add(notes.get(position).getId());
+		}
+		notes.clear();
+		if (!result.isEmpty()) {
+			hits.add(result);
+		}
+	}
+
+	private void fillInBackground(final NotesStorage storage) {
+		if (!filling.compareAndSet(false, true)) {
+			return;
+		}
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!filled) {
+						fill(storage);
+					}
+					MemoryBudget.onCacheGrown();
+				} finally {
+					filling.set(false);
+				}
+			}
+		});
+	}
+
+	private void fill(NotesStorage storage) {
+		final long start = System.currentTimeMillis();
+		final int fillDropsCount;
+		synchronized (this) {
+			fillDropsCount = dropsCount;
+		}
+		synchronized (changesLock) {
+			changesWhileFilling = new LinkedHashMap<Serializable, Document>(); // before storage is read
+		}
+		TrigramIndexFile.Content content = indexFile != null ? TrigramIndexFile.read(indexFile) : null;
+		final Map<Serializable, Document> notes = new LinkedHashMap<Serializable, Document>(); // null for removed
+		if (content != null && !catchUp(content, storage, notes)) {
+			content = null;
+			notes.clear();
+		}
+		if (content == null) {
+			storage.visitNotes(NotesStorage.ALL_FIELDS, new NotesVisitor() {
+				@Override
+				public boolean visitNote(AbstractNote note) {
+					notes.put(note.getId(), new Document(normalizedText(note.getTitle(), note.getBody()),
+							note.getChangeTime().getMillis()));
+					return true;
+				}
+			});
+		}
+
+		final int changesCount;
+		final int notesCount;
+		synchronized (this) {
+			if (dropsCount != fillDropsCount) { // cleared or trimmed while storage was read
+				synchronized (changesLock) {
+					changesWhileFilling = null;
+				}
+				AppLog.d(TAG, "Index dropped while filling");
+				return;
+			}
+			if (content != null) {
+				load(content);
+			}
+			applyChanges(notes);
+			changesSinceSave = content != null ? notes.size() : docsByIds.size(); // none of notes is saved
+			changesCount = applyChangesWhileFilling();
+			notesCount = docsByIds.size();
+		}
+		AppLog.d(TAG, (content != null ? "Loaded with " : "Filled with ") + notesCount + " notes in " +
+				(System.currentTimeMillis() - start) + " ms, " + changesCount + " notes changed while filling");
+
+		if (content != null && !content.hasValidChecksum()) { // index is used meanwhile
+			AppLog.e(TAG, "Checksum mismatch of " + indexFile);
+			synchronized (indexFileLock) { // file written since load has same content
+				invalidate();
+				TrigramIndexFile.delete(indexFile);
+			}
+			return;
+		}
+		saveInBackground();
+	}
+
+	/**
+	 * @param changes documents by ids, null for removed note
+	 */
+	private void applyChanges(Map<Serializable, Document> changes) {
+		for (Map.Entry<Serializable, Document> change : changes.entrySet()) {
+			removeDoc(change.getKey());
+			if (change.getValue() != null) {
+				add(change.getKey(), change.getValue().text, change.getValue().changeTime);
+			}
+		}
+		compactIfNeeded();
+	}
+
+	// notes written while storage was read override read ones
+	private int applyChangesWhileFilling() {
+		synchronized (changesLock) {
+			final int count = changesWhileFilling.size();
+			applyChanges(changesWhileFilling);
+			changesSinceSave += count;
+			changesWhileFilling = null;
+			filled = true; // with queue removal, so each change is either queued or applied
+			return count;
+		}
+	}
+
+	/**
+	 * @param document document or null for removed note
+	 * @return true if change is queued to be applied when fill finishes
+	 */
+	private boolean queueWhileFilling(Serializable id, Document document) {
+		synchronized (changesLock) {
+			if (changesWhileFilling == null) {
+				return false;
+			}
+			changesWhileFilling.remove(id); // keep order of changes
+			changesWhileFilling.put(id, document);
+			return true;
+		}
+	}
+
+	// posting lists stay in file until used
+	private void load(TrigramIndexFile.Content content) {
+		final int count = content.ids.length;
+		ids = Arrays.copyOf(content.ids, Math.max(count, 64));
+		changeTimes = Arrays.copyOf(content.changeTimes, ids.length);
+		texts = Arrays.copyOf(content.texts, ids.length);
+		docsCount = count;
+		for (int doc = 0; doc < count; doc++) {
+			docsByIds.put(ids[doc], doc);
+			retainedBytes += MemoryBudget.estimateBytes(texts[doc]) + 16;
+			statistics.addLengths(doc, content.titleLengths[doc], content.bodyLengths[doc]);
+		}
+		for (int i = 0; i < content.words.length; i++) {
+			statistics.addWord(content.words[i], content.wordsDocsCounts[i]);
+		}
+		for (int i = 0; i < content.trigrams.length; i++) {
+			putPostings(content.trigrams[i], new Postings(content.postings, content.postingsOffsets[i],
+					content.postingsSizes[i], count));
+		}
+	}
+
+	/**
+	 * Reads notes changed after index file was saved
+	 * @param changes filled with changed notes by ids, null for removed note
+	 * @return false if too many notes changed and index should be filled from storage
+	 */
+	private static boolean catchUp(TrigramIndexFile.Content content, final NotesStorage storage,
+								   Map<Serializable, Document> changes) {
+		final Map<Serializable, Integer> docs = new HashMap<Serializable, Integer>(2 * content.ids.length);
+		for (int doc = 0; doc < content.ids.length; doc++) {
+			docs.put(content.ids[doc], doc);
+		}
+		final long[] changeTimes = content.changeTimes;
+		final List<Serializable> changedIds = new ArrayList<Serializable>();
+		final Set<Serializable> deletedIds = new HashSet<Serializable>(docs.keySet());
+		storage.visitNotes(NotesStorage.FIELD_TIMES, new NotesVisitor() {
+			@Override
+			public boolean visitNote(AbstractNote note) {
+				deletedIds.remove(note.getId());
+				final Integer doc = docs.get(note.getId());
+				if (doc == null || changeTimes[doc] != note.getChangeTime().getMillis()) {
+					changedIds.add(note.getId());
+				}
+				return true;
+			}
+		});
+		if (changedIds.size() > MIN_CHANGED_NOTES_TO_FILL &&
+				changedIds.size() > (docs.size() - deletedIds.size()) / MAX_CHANGED_SHARE_TO_CATCH_UP) {
+			AppLog.d(TAG, "Index file is outdated: " + changedIds.size() + " notes changed");
+			return false;
+		}
+
+		for (Serializable id : deletedIds) {
+			changes.put(id, null);
+		}
+		for (Serializable id : changedIds) {
+			final AbstractNote note = storage.getNote(id);
+			changes.put(id, note != null ?
+					new Document(normalizedText(note.getTitle(), note.getBody()), note.getChangeTime().getMillis()) :
+					null);
+		}
+		AppLog.d(TAG, "Caught up " + changedIds.size() + " changed and " + deletedIds.size() + " deleted notes");
+		return true;
+	}
+
+	/**
+	 * Writes index file in background if index changed since last save
+	 */
+	private void saveInBackground() {
+		if (indexFile == null) {
+			return;
+		}
+		NotesApplication.executeInBackground(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (indexFileLock) { // one write at a time
+					final ContentSnapshot snapshot;
+					final Map<String, String> stems;
+					synchronized (TrigramIndex.this) {
+						if (!filled || changesSinceSave == 0) {
+							return;
+						}
+						snapshot = getContentSnapshot();
+						stems = statistics.getStemsToSave();
+						changesSinceSave = 0;
+						firstUnsavedChangeTime = 0;
+					}
+					// postings are encoded and files are written without lock of index,
+					// so notes writes and searches do not wait for them
+					TrigramIndexFile.write(indexFile, snapshot.encode());
+					if (stems != null) {
+						statistics.writeStems(stems);
+					}
+				}
+			}
+		});
+	}
+
+	// documents without deleted ones and views of posting lists to encode
+	private ContentSnapshot getContentSnapshot() {
+		final int[] newDocs = new int[docsCount];
+		int count = 0;
+		for (int doc = 0; doc < docsCount; doc++) {
+			newDocs[doc] = texts[doc] != null ? count++ : -1;
+		}
+		final TrigramIndexFile.Content content =
+				new TrigramIndexFile.Content(count, statistics.getWordsCount(), trigramsCount);
+		for (int doc = 0; doc < docsCount; doc++) {
+			final int newDoc = newDocs[doc];
+			if (newDoc >= 0) {
+				content.ids[newDoc] = ids[doc];
+				content.changeTimes[newDoc] = changeTimes[doc];
+				content.titleLengths[newDoc] = statistics.getTitleLength(doc);
+				content.bodyLengths[newDoc] = statistics.getBodyLength(doc);
+				content.texts[newDoc] = texts[doc];
+			}
+		}
+		statistics.getWords(content.words, content.wordsDocsCounts);
+
+		final Postings[] lists = new Postings[trigramsCount];
+		int trigram = 0;
+		for (int slot = 0; slot < trigrams.length; slot++) {
+			final Postings list = postings[slot];
+			if (list != null) {
+				content.trigrams[trigram] = trigrams[slot];
+				lists[trigram++] = list.view();
+			}
+		}
+		return new ContentSnapshot(content, newDocs, lists);
+	}
+
+	// save is postponed by each change until it is delayed too long
+	private void onChanged() {
+		changesSinceSave++;
+		if (saveHandler == null) {
+			return;
+		}
+		final long now = SystemClock.elapsedRealtime();
+		if (firstUnsavedChangeTime == 0) {
+			firstUnsavedChangeTime = now;
+		} else if (now - firstUnsavedChangeTime >= MAX_SAVE_DELAY_MILLIS) {
+			return; // save is posted
+		}
+		saveHandler.removeCallbacks(saveTask);
+		saveHandler.postDelayed(saveTask, SAVE_DELAY_MILLIS);
+	}
+
+	/**
+	 * Adds or replaces note. Ignored if index is not filled (storage is read on fill),
+	 * applied after fill if index is filling.
+	 * @param changeTime change time of note as stored, used to catch up persisted index
+	 */
+	public void put(Serializable id, String title, String body, long changeTime) {
+		if (changesWhileFilling == null && !filled) { // queue is checked first, it is removed when index is filled
+			return;
+		}
+		final String text = normalizedText(title, body);
+		if (queueWhileFilling(id, new Document(text, changeTime))) {
+			return;
+		}
+		synchronized (this) {
+			if (!filled) {
+				return;
+			}
+			removeDoc(id);
+			add(id, text, changeTime);
+			compactIfNeeded();
+			onChanged();
+		}
+		MemoryBudget.onCacheGrown();
+	}
+
+	public void remove(Serializable id) {
+		if (queueWhileFilling(id, null)) {
+			return;
+		}
+		synchronized (this) {
+			if (filled) {
+				removeDoc(id);
+				compactIfNeeded();
+				onChanged();
+			}
+		}
+	}
+
+	/**
+	 * Removes all notes, index stays filled (e.g. after all data removed from storage)
+	 */
+	public synchronized void clear() {
+		reset();
+		dropsCount++;
+		if (stemsFile != null && stemsFile.exists() && !stemsFile.delete()) {
+			AppLog.e(TAG, "Can't delete " + stemsFile);
+		}
+		if (indexFile != null) {
+			TrigramIndexFile.delete(indexFile); // file written concurrently would be caught up on load
+			changesSinceSave = 0;
+			firstUnsavedChangeTime = 0;
+		}
+	}
+
+	/**
+	 * Drops index content, index will be filled (loaded from file) on next use
+	 */
+	public synchronized void invalidate() {
+		reset();
+		dropsCount++;
+		filled = false;
+	}
+
+	/**
+	 * @return ids of notes with query (or romanized query), ranked
+	 */
+	private List<Serializable> search(String query) {
+		final int[] candidates;
+		final int candidatesCount;
+		if (lastQuery != null && query.contains(lastQuery)) {
+			// text containing query contains last query too
+			candidates = Arrays.copyOf(lastResultDocs, lastResultCount);
+			candidatesCount = lastResultCount;
+		} else {
+			candidates = getCandidates(query);
+			candidatesCount = candidates.length;
+		}
+		final int matchedCount = verify(query, candidates, candidatesCount);
+
+		lastQuery = query;
+		lastResultDocs = candidates;
+		lastResultCount = matchedCount;
+
+		final String[] terms = TermStatistics.getTerms(query);
+		int[] docs = candidates;
+		int docsCount = matchedCount;
+		String[] rankTerms = terms;
+		if (Transliterator.hasCyrillic(query)) {
+			// notes in Latin and romanized shadows of Cyrillic notes
+			final String romanizedQuery = Transliterator.romanize(query);
+			final int[] romanizedDocs = getCandidates(romanizedQuery);
+			docs = union(Arrays.copyOf(candidates, matchedCount), romanizedDocs,
+					verify(romanizedQuery, romanizedDocs, romanizedDocs.length));
+			docsCount = docs.length;
+			rankTerms = concat(terms, TermStatistics.getTerms(romanizedQuery));
+		}
+
+		return rank(rankTerms, statistics.getWeights(rankTerms, docsCount), docs, docsCount);
+	}
+
+	private List<Serializable> findDocsWithAll(List<String> literals) {
+		int[] docs = null;
+		for (String literal : literals) {
+			final int[] candidates = getCandidates(literal);
+			final int[] literalDocs = Arrays.copyOf(candidates, verify(literal, candidates, candidates.length));
+			docs = docs == null ? literalDocs : intersection(docs, literalDocs);
+		}
+		if (docs == null) {
+			docs = getCandidates(""); // all documents
+		}
+		final List<Serializable> result = new ArrayList<Serializable>(docs.length);
+		for (int doc : docs) {
+			if (ids[doc] != null) {
+				result.add(ids[doc]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return sorted docs which could contain query (with all query trigrams)
+	 */
+	private int[] getCandidates(String query) {
+		if (query.length() < GRAM) {
+			final int[] candidates = new int[docsCount];
+			for (int doc = 0; doc < docsCount; doc++) {
+				candidates[doc] = doc;
+			}
+			return candidates;
+		}
+
+		// posting lists of all query trigrams, shortest first
+		final List<Postings> lists = new ArrayList<Postings>();
+		for (int i = 0; i + GRAM <= query.length(); i++) {
+			final Postings list = getPostings(trigram(query, i));
+			if (list == null) {
+				return new int[0];
+			}
+			if (!lists.contains(list)) {
+				lists.add(list);
+			}
+		}
+		Postings.sortBySize(lists);
+		final int[] candidates = Arrays.copyOf(lists.get(0).docs, lists.get(0).size);
+		int candidatesCount = candidates.length;
+		for (int i = 1; i < lists.size() && candidatesCount > 0; i++) {
+			candidatesCount = lists.get(i).intersect(candidates, candidatesCount);
+		}
+		return Arrays.copyOf(candidates, candidatesCount);
+	}
+
+	/**
+	 * Verification of candidates (trigrams could be in different places of text)
+	 * @return matched docs count, matched docs are left in candidates in same order
+	 */
+	private int verify(String query, int[] candidates, int candidatesCount) {
+		int matchedCount = 0;
+		for (int i = 0; i < candidatesCount; i++) {
+			final int doc = candidates[i];
+			if (texts[doc] != null && texts[doc].contains(query)) {
+				candidates[matchedCount++] = doc;
+			}
+		}
+		return matchedCount;
+	}
+
+	/**
+	 * Like {@link #verify(String, int[], int)}, but text should contain word as a whole word
+	 */
+	private int verifyWord(String word, int[] candidates, int candidatesCount) {
+		int matchedCount = 0;
+		for (int i = 0; i < candidatesCount; i++) {
+			final int doc = candidates[i];
+			if (texts[doc] != null && containsWord(texts[doc], getFieldsEnd(texts[doc]), word)) {
+				candidates[matchedCount++] = doc;
+			}
+		}
+		return matchedCount;
+	}
+
+	/**
+	 * @return true if text[0, to) has word not being a part of longer word
+	 */
+	static boolean containsWord(String text, int to, String word) {
+		for (int position = text.indexOf(word); position >= 0 && position + word.length() <= to;
+			 position = text.indexOf(word, position + 1)) {
+			final int end = position + word.length();
+			if ((position == 0 || !Character.isLetterOrDigit(text.charAt(position - 1))) &&
+					(end == to || !Character.isLetterOrDigit(text.charAt(end)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Notes not matched exactly, but with each query term, other form of it or a word similar to it.
+	 * Such words are looked up in stems and vocabulary, their docs are found by trigrams like other queries,
+	 * but other forms and similar words should be whole words of title or body ("hell" for "hello" does not
+	 * match "shell", "meet" for "meeting" does not match "meetup"), as vocabulary has their words only.
+	 * Same notes are matched by {@link SearchPredicate} without index.
+	 * @param exactIds ids of notes matched exactly
+	 * @return ids of notes ranked by found words (closer words weigh more, other forms weigh as terms)
+	 */
+	private List<Serializable> fuzzySearch(String[] terms, Set<Serializable> exactIds) {
+		final List<String> fuzzyTerms = new ArrayList<String>();
+		final List<Integer> distances = new ArrayList<Integer>();
+		final List<String> shortTerms = new ArrayList<String>();
+		int[] matched = null; // sorted docs matched by all previous terms
+
+		for (String term : terms) {
+			if (term.length() < FuzzyVocabulary.MIN_WORD_LENGTH) {
+				shortTerms.add(term); // too short for typos, checked on fuzzy matched docs only
+				continue;
+			}
+			final Map<String, Integer> similarWords = statistics.findSimilarWords(term);
+			for (String word : statistics.getWordsWithSameStem(term)) {
+				similarWords.put(word, 0);
+			}
+			similarWords.put(term, 0);
+			int[] termDocs = new int[0];
+			for (Map.Entry<String, Integer> word : similarWords.entrySet()) {
+				final boolean otherWord = !word.getKey().equals(term);
+				if (otherWord && word.getKey().contains(term)) {
+					continue; // such notes are found by term itself
+				}
+				fuzzyTerms.add(word.getKey());
+				distances.add(word.getValue());
+
+				final int[] docs = getCandidates(word.getKey());
+				termDocs = union(termDocs, docs, otherWord ?
+						verifyWord(word.getKey(), docs, docs.length) :
+						verify(word.getKey(), docs, docs.length));
+			}
+			matched = matched == null ? termDocs : intersection(matched, termDocs);
+		}
+		if (matched == null) {
+			return Collections.emptyList(); // only short terms, query is matched exactly
+		}
+
+		final int[] fuzzyDocs = new int[matched.length];
+		int fuzzyCount = 0;
+		for (int doc : matched) {
+			if (ids[doc] != null && !exactIds.contains(ids[doc]) &&
+					containsAll(texts[doc], shortTerms)) {
+				fuzzyDocs[fuzzyCount++] = doc;
+			}
+		}
+
+		final String[] rankTerms = fuzzyTerms.toArray(new String[fuzzyTerms.size()]);
+		final double[] weights = statistics.getWeights(rankTerms, fuzzyCount);
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] /= 1 + distances.get(i);
+		}
+		return rank(rankTerms, weights, fuzzyDocs, fuzzyCount);
+	}
+
+	// sorted a and first bCount of sorted b
+	private static int[] union(int[] a, int[] b, int bCount) {
+		final int[] result = new int[a.length + bCount];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < a.length || j < bCount) {
+			if (j == bCount || (i < a.length && a[i] < b[j])) {
+				result[count++] = a[i++];
+			} else if (i == a.length || b[j] < a[i]) {
+				result[count++] = b[j++];
+			} else {
+				result[count++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private static int[] intersection(int[] a, int[] b) {
+		final int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (b[j] < a[i]) {
+				j++;
+			} else {
+				result[count++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private static String[] concat(String[] a, String[] b) {
+		final String[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	private static boolean containsAll(String text, List<String> terms) {
+		for (String term : terms) {
+			if (!text.contains(term)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private List<Serializable> rank(String[] terms, double[] weights, int[] docs, int docsCount) {
+		final List<ScoredDoc> scoredDocs = new ArrayList<ScoredDoc>(docsCount);
+		for (int i = 0; i < docsCount; i++) {
+			final int doc = docs[i];
+			final String text = texts[doc];
+			scoredDocs.add(new ScoredDoc(doc,
+					statistics.score(doc, text, text.indexOf(FIELDS_SEPARATOR), terms, weights)));
+		}
+		Collections.sort(scoredDocs);
+
+		final List<Serializable> result = new ArrayList<Serializable>(docsCount);
+		for (ScoredDoc scoredDoc : scoredDocs) {
+			result.add(ids[scoredDoc.doc]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return normalized title and body, then romanized shadows of them if they have Cyrillic words
+	 */
+	static String normalizedText(String title, String body) {
+		final String normalizedTitle = SearchNormalizer.normalize(title);
+		final String normalizedBody = SearchNormalizer.normalize(body);
+		final String text = normalizedTitle + FIELDS_SEPARATOR + normalizedBody;
+		if (!Transliterator.hasCyrillic(text)) {
+			return text;
+		}
+		return text + FIELDS_SEPARATOR + Transliterator.getShadow(normalizedTitle) +
+				FIELDS_SEPARATOR + Transliterator.getShadow(normalizedBody);
+	}
+
+	// end of title and body in normalized text (start of shadow)
+	static int getFieldsEnd(String text) {
+		final int shadowStart = text.indexOf(FIELDS_SEPARATOR, text.indexOf(FIELDS_SEPARATOR) + 1);
+		return shadowStart >= 0 ? shadowStart : text.length();
+	}
+
+	@Override
+	public synchronized long getRetainedBytes() {
+		return retainedBytes + statistics.getRetainedBytes();
+	}
+
+	@Override
+	public synchronized void trimToSize(long maxBytes) {
+		if (getRetainedBytes() > maxBytes) {
+			invalidate();
+		}
+	}
+
+
+	// Index modification
+
+	private void add(Serializable id, String text, long changeTime) {
+		if (docsCount == ids.length) {
+			ids = Arrays.copyOf(ids, docsCount * 2);
+			changeTimes = Arrays.copyOf(changeTimes, docsCount * 2);
+			texts = Arrays.copyOf(texts, docsCount * 2);
+		}
+		final int doc = docsCount++;
+		lastQuery = null;
+		ids[doc] = id;
+		changeTimes[doc] = changeTime;
+		texts[doc] = text;
+		docsByIds.put(id, doc);
+		retainedBytes += MemoryBudget.estimateBytes(text) + 16;
+		statistics.add(doc, text, text.indexOf(FIELDS_SEPARATOR), getFieldsEnd(text));
+
+		for (int i = 0; i + GRAM <= text.length(); i++) {
+			retainedBytes += obtainPostings(trigram(text, i)).add(doc);
+		}
+	}
+
+	// posting lists entries of removed document are skipped on search until compaction
+	private void removeDoc(Serializable id) {
+		final Integer doc = docsByIds.remove(id);
+		if (doc != null) {
+			lastQuery = null;
+			retainedBytes -= MemoryBudget.estimateBytes(texts[doc]) + 16;
+			statistics.remove(doc, texts[doc], getFieldsEnd(texts[doc]));
+			texts[doc] = null;
+			ids[doc] = null;
+			deletedDocsCount++;
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (deletedDocsCount < MIN_DELETED_DOCS_TO_COMPACT || deletedDocsCount < docsByIds.size()) {
+			return;
+		}
+		final Serializable[] oldIds = ids;
+		final long[] oldChangeTimes = changeTimes;
+		final String[] oldTexts = texts;
+		final int oldDocsCount = docsCount;
+		reset();
+		for (int doc = 0; doc < oldDocsCount; doc++) {
+			if (oldTexts[doc] != null) {
+				add(oldIds[doc], oldTexts[doc], oldChangeTimes[doc]);
+			}
+		}
+	}
+
+	private void reset() {
+		lastQuery = null;
+		lastResultDocs = null;
+		docsByIds.clear();
+		ids = new Serializable[64];
+		changeTimes = new long[64];
+		texts = new String[64];
+		docsCount = 0;
+		deletedDocsCount = 0;
+		trigrams = new long[1024];
+		postings = new Postings[1024];
+		trigramsCount = 0;
+		retainedBytes = 0;
+		statistics.clear();
+	}
+
+	private static long trigram(String text, int start) {
+		return ((long) text.charAt(start) << 32) |
+				((long) text.charAt(start + 1) << 16) |
+				text.charAt(start + 2);
+	}
+
+	// decoded list or null
+	private Postings getPostings(long trigram) {
+		final Postings list = postings[slot(trigrams, trigram)];
+		if (list != null) {
+			retainedBytes += list.decode();
+		}
+		return list;
+	}
+
+	private Postings obtainPostings(long trigram) {
+		final Postings list = getPostings(trigram);
+		return list != null ? list : putPostings(trigram, new Postings());
+	}
+
+	// trigram should not have list
+	private Postings putPostings(long trigram, Postings list) {
+		if (2 * (trigramsCount + 1) > trigrams.length) { // load factor 0.5
+			rehash();
+		}
+		final int slot = slot(trigrams, trigram);
+		trigrams[slot] = trigram;
+		postings[slot] = list;
+		trigramsCount++;
+		retainedBytes += Postings.OVERHEAD_BYTES;
+		return list;
+	}
+
+	private void rehash() {
+		final long[] oldTrigrams = trigrams;
+		final Postings[] oldPostings = postings;
+		trigrams = new long[oldTrigrams.length * 2];
+		postings = new Postings[oldPostings.length * 2];
+		retainedBytes += 12L * oldTrigrams.length;
+		for (int i = 0; i < oldTrigrams.length; i++) {
+			if (oldPostings[i] != null) {
+				final int slot = slot(trigrams, oldTrigrams[i]);
+				trigrams[slot] = oldTrigrams[i];
+				postings[slot] = oldPostings[i];
+			}
+		}
+	}
+
+	// slot with trigram or empty slot for it (linear probing)
+	private static int slot(long[] table, long trigram) {
+		final int mask = table.length - 1;
+		long hash = trigram * 0x9E3779B97F4A7C15L;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (table[slot] != 0 && table[slot] != trigram) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static interface TextFilter {
+		public boolean accept(AbstractNote note, String normalizedText);
+	}
+
+	private static final class Postings {
+
+		static final long OVERHEAD_BYTES = 48; // list object and initial array
+
+		int[] docs; // null until list loaded from file is decoded
+		int size;
+
+		// list loaded from file (see TrigramIndexFile#readPostings())
+		private ByteBuffer encoded;
+		private int encodedOffset;
+		private int encodedDocsCount;
+
+		Postings() {
+			docs = new int[4];
+			size = 0;
+		}
+
+		// view of docs of other list
+		private Postings(int[] docs, int size) {
+			this.docs = docs;
+			this.size = size;
+		}
+
+		/**
+		 * List loaded from file, decoded on first use
+		 * @param docsCount number of loaded documents
+		 */
+		Postings(ByteBuffer encoded, int offset, int size, int docsCount) {
+			this.encoded = encoded;
+			this.encodedOffset = offset;
+			this.encodedDocsCount = docsCount;
+			this.size = size;
+		}
+
+		/**
+		 * Decodes list loaded from file
+		 * @return bytes added
+		 */
+		int decode() {
+			if (docs != null) {
+				return 0;
+			}
+			docs = getDocs();
+			size = docs.length; // shorter for corrupted file
+			encoded = null;
+			return 4 * size;
+		}
+
+		/**
+		 * @return list with same docs, which is not changed by later adds (docs are only appended)
+		 */
+		Postings view() {
+			return docs != null ?
+					new Postings(docs, size) :
+					new Postings(encoded, encodedOffset, size, encodedDocsCount);
+		}
+
+		/**
+		 * @return docs, first {@link #size} of them are used (without decoding list loaded from file)
+		 */
+		int[] getDocs() {
+			return docs != null ?
+					docs :
+					TrigramIndexFile.readPostings(encoded, encodedOffset, size, encodedDocsCount);
+		}
+
+		/**
+		 * @return bytes added
+		 */
+		int add(int doc) {
+			if (size > 0 && docs[size - 1] == doc) {
+				return 0; // trigram repeated in same document
+			}
+			int added = 0;
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size * 2);
+				added = 4 * size;
+			}
+			docs[size++] = doc;
+			return added;
+		}
+
+		/**
+		 * Leaves in candidates (sorted) only docs from this list
+		 * @return new candidates count
+		 */
+		int intersect(int[] candidates, int candidatesCount) {
+			int count = 0;
+			int position = 0;
+			for (int i = 0; i < candidatesCount && position < size; i++) {
+				final int candidate = candidates[i];
+				position = lowerBound(candidate, position);
+				if (position < size && docs[position] == candidate) {
+					candidates[count++] = candidate;
+				}
+			}
+			return count;
+		}
+
+		// first position >= from with docs[position] >= doc (galloping, then binary search)
+		private int lowerBound(int doc, int from) {
+			int step = 1;
+			int high = from;
+			while (high < size && docs[high] < doc) {
+				from = high + 1;
+				high += step;
+				step <<= 1;
+			}
+			high = Math.min(high, size);
+			while (from < high) {
+				final int middle = (from + high) >>> 1;
+				if (docs[middle] < doc) {
+					from = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return from;
+		}
+
+		static void sortBySize(List<Postings> lists) {
+			for (int i = 1; i < lists.size(); i++) {
+				final Postings list = lists.get(i);
+				int j = i - 1;
+				while (j >= 0 && lists.get(j).size > list.size) {
+					lists.set(j + 1, lists.get(j));
+					j--;
+				}
+				lists.set(j + 1, list);
+			}
+		}
+	}
+
+	/**
+	 * Content of index copied under lock, posting lists are encoded without it
+	 */
+	private static final class ContentSnapshot {
+
+		final TrigramIndexFile.Content content; // without postings
+		final int[] newDocs;                     // doc of content for each doc, -1 for deleted doc
+		final Postings[] lists;                  // in order of content trigrams
+
+		ContentSnapshot(TrigramIndexFile.Content content, int[] newDocs, Postings[] lists) {
+			this.content = content;
+			this.newDocs = newDocs;
+			this.lists = lists;
+		}
+
+		/**
+		 * @return content with posting lists without deleted docs
+		 */
+		TrigramIndexFile.Content encode() {
+			final TrigramIndexFile.PostingsWriter writer = new TrigramIndexFile.PostingsWriter();
+			for (int trigram = 0; trigram < lists.length; trigram++) {
+				content.postingsOffsets[trigram] = writer.startList();
+				final Postings list = lists[trigram];
+				final int[] docs = list.getDocs();
+				final int docsSize = Math.min(list.size, docs.length);
+				int size = 0;
+				for (int i = 0; i < docsSize; i++) {
+					if (newDocs[docs[i]] >= 0) {
+						writer.add(newDocs[docs[i]]);
+						size++;
+					}
+				}
+				content.postingsSizes[trigram] = size;
+			}
+			content.postings = writer.getPostings();
+			return content;
+		}
+	}
+
+	// note changed while index is filling
+	private static final class Document {
+
+		final String text; // normalized
+		final long changeTime;
+
+		Document(String text, long changeTime) {
+			this.text = text;
+			this.changeTime = changeTime;
+		}
+	}
+
+	private static final class ScoredDoc implements Comparable<ScoredDoc> {
+
+		final int doc;
+		final double score;
+
+		ScoredDoc(int doc, double score) {
+			this.doc = doc;
+			this.score = score;
+		}
+
+		// higher score first, then older document first
+		@Override
+		public int compareTo(ScoredDoc another) {
+			if (score != another.score) {
+				return score > another.score ? -1 : 1;
+			}
+			return doc < another.doc ? -1 : (doc == another.doc ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package com.iliakplv.notes.notes.search;
+
+import com.iliakplv.notes.utils.AppLog;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary file of {@link TrigramIndex}: documents (ids, change times of notes, lengths of fields in words
+ * and normalized texts in UTF-8), numbers of documents with each word (see {@link TermStatistics}),
+ * directory of trigrams and their posting lists, then CRC32 of all previous bytes.
+ * Posting lists are stored as varints of differences of sorted docs.
+ *
+ * File is memory-mapped on load. Documents and words are read, so notes are neither read from storage
+ * nor split into words again, posting lists stay in mapped file and are decoded on first use.
+ * Checksum is verified after load (see {@link Content#hasValidChecksum()}), posting lists of corrupted file
+ * are decoded up to first wrong doc.
+ *
+ * Version should be changed with format and with normalization of texts (see {@link SearchNormalizer},
+ * {@link Transliterator}), file of other version is dropped and index is filled from storage.
+ */
+final class TrigramIndexFile {
+
+	private static final String TAG = TrigramIndexFile.class.getSimpleName();
+
+	private static final int FILE_MAGIC = 0x4e545247; // "NTRG"
+	private static final int FILE_VERSION = 2;
+	private static final int HEADER_BYTES = 24;
+	private static final int CRC_BYTES = 8;
+	private static final int CRC_CHUNK_BYTES = 64 * 1024;
+	private static final int MIN_DOC_BYTES = 25;     // id type, integer id, change time, lengths, text length
+	private static final int MIN_WORD_BYTES = 8;     // word length, docs count
+	private static final int MIN_TRIGRAM_BYTES = 16; // trigram, docs count, offset
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte ID_INTEGER = 0; // database notes
+	private static final byte ID_STRING = 1;  // dropbox records
+
+	private TrigramIndexFile() {}
+
+
+	/**
+	 * @return content or null if file does not exist, has other version or is corrupted
+	 * (such file is deleted)
+	 */
+	static Content read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		RandomAccessFile input = null;
+		try {
+			input = new RandomAccessFile(file, "r");
+			final FileChannel channel = input.getChannel();
+			final long size = channel.size();
+			if (size < HEADER_BYTES + CRC_BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("Wrong size: " + size);
+			}
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+				AppLog.d(TAG, "Index file of other version dropped");
+				delete(file);
+				return null;
+			}
+			return readContent(buffer);
+		} catch (IOException e) {
+			AppLog.e(TAG, "Error reading " + file, e);
+		} catch (RuntimeException e) {
+			AppLog.e(TAG, "Corrupted " + file, e); // e.g. buffer underflow for wrong counts
+		} finally {
+			close(input); // mapping stays valid
+		}
+		delete(file);
+		return null;
+	}
+
+	private static Content readContent(MappedByteBuffer buffer) throws IOException {
+		final int docsCount = buffer.getInt();
+		final int wordsCount = buffer.getInt();
+		final int trigramsCount = buffer.getInt();
+		final int postingsBytes = buffer.getInt();
+		if (docsCount < 0 || wordsCount < 0 || trigramsCount < 0 || postingsBytes < 0 ||
+				(long) MIN_DOC_BYTES * docsCount + (long) MIN_WORD_BYTES * wordsCount +
+						(long) MIN_TRIGRAM_BYTES * trigramsCount + postingsBytes + CRC_BYTES > buffer.remaining()) {
+			throw new IOException("Wrong counts"); // arrays are not allocated for them
+		}
+		final Content content = new Content(docsCount, wordsCount, trigramsCount);
+		final byte[] chars = new byte[1024]; // reused for strings not longer than it
+		for (int doc = 0; doc < docsCount; doc++) {
+			final byte idType = buffer.get();
+			if (idType == ID_INTEGER) {
+				content.ids[doc] = buffer.getInt();
+			} else if (idType == ID_STRING) {
+				content.ids[doc] = readString(buffer, chars);
+			} else {
+				throw new IOException("Wrong id type: " + idType);
+			}
+			content.changeTimes[doc] = buffer.getLong();
+			content.titleLengths[doc] = buffer.getInt();
+			content.bodyLengths[doc] = buffer.getInt();
+			content.texts[doc] = readString(buffer, chars);
+		}
+		for (int i = 0; i < wordsCount; i++) {
+			content.words[i] = readString(buffer, chars);
+			content.wordsDocsCounts[i] = buffer.getInt();
+		}
+		for (int i = 0; i < trigramsCount; i++) {
+			content.trigrams[i] = buffer.getLong();
+			content.postingsSizes[i] = buffer.getInt();
+			content.postingsOffsets[i] = buffer.getInt();
+			if (content.postingsSizes[i] < 0 || content.postingsOffsets[i] < 0 ||
+					content.postingsOffsets[i] > postingsBytes) {
+				throw new IOException("Wrong posting list of " + content.trigrams[i]);
+			}
+		}
+		if (buffer.remaining() != postingsBytes + CRC_BYTES) {
+			throw new IOException("Wrong postings size: " + postingsBytes);
+		}
+		buffer.limit(buffer.position() + postingsBytes);
+		content.postings = buffer.slice();
+		buffer.clear();
+		content.file = buffer;
+		return content;
+	}
+
+	private static String readString(MappedByteBuffer buffer, byte[] chars) {
+		final int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException(); // array is not allocated for wrong length
+		}
+		if (length <= chars.length) {
+			buffer.get(chars, 0, length);
+			return new String(chars, 0, length, UTF_8);
+		}
+		final byte[] longChars = new byte[length];
+		buffer.get(longChars);
+		return new String(longChars, UTF_8);
+	}
+
+	/**
+	 * Decodes posting list of read content. Decoding stops at doc out of range (corrupted file).
+	 * Thread-safe: buffer position is not used.
+	 * @param docsCount number of documents of content
+	 * @return sorted docs
+	 */
+	static int[] readPostings(ByteBuffer postings, int offset, int size, int docsCount) {
+		final int[] docs = new int[size];
+		int position = offset;
+		int doc = -1;
+		for (int i = 0; i < size; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (position == postings.limit() || shift > 28) {
+					return Arrays.copyOf(docs, i);
+				}
+				b = postings.get(position++);
+				delta |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			if (delta < 0 || delta >= docsCount - doc - 1) {
+				return Arrays.copyOf(docs, i);
+			}
+			doc += delta + 1;
+			docs[i] = doc;
+		}
+		return docs;
+	}
+
+	/**
+	 * Writes content to temporary file, which then replaces file
+	 */
+	static void write(File file, Content content) {
+		final File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream output = null;
+		try {
+			final CheckedOutputStream checked = new CheckedOutputStream(new FileOutputStream(temp), new CRC32());
+			output = new DataOutputStream(new BufferedOutputStream(checked));
+			output.writeInt(FILE_MAGIC);
+			output.writeInt(FILE_VERSION);
+			output.writeInt(content.ids.length);
+			output.writeInt(content.words.length);
+			output.writeInt(content.trigrams.length);
+			output.writeInt(content.postings.remaining());
+			for (int doc = 0; doc < content.ids.length; doc++) {
+				final Serializable id = content.ids[doc];
+				if (id instanceof Integer) {
+					output.writeByte(ID_INTEGER);
+					output.writeInt((Integer) id);
+				} else {
+					output.writeByte(ID_STRING);
+					writeString(output, (String) id);
+				}
+				output.writeLong(content.changeTimes[doc]);
+				output.writeInt(content.titleLengths[doc]);
+				output.writeInt(content.bodyLengths[doc]);
+				writeString(output, content.texts[doc]);
+			}
+			for (int i = 0; i < content.words.length; i++) {
+				writeString(output, content.words[i]);
+				output.writeInt(content.wordsDocsCounts[i]);
+			}
+			for (int i = 0; i < content.trigrams.length; i++) {
+				output.writeLong(content.trigrams[i]);
+				output.writeInt(content.postingsSizes[i]);
+				output.writeInt(content.postingsOffsets[i]);
+			}
+			output.write(content.postings.array(), content.postings.arrayOffset() + content.postings.position(),
+					content.postings.remaining());
+			output.flush();
+			output.writeLong(checked.getChecksum().getValue()); // of bytes before it
+			output.close();
+			output = null;
+			if (!temp.renameTo(file)) {
+				throw new IOException("Can't rename " + temp);
+			}
+		} catch (IOException e) {
+			AppLog.e(TAG, "Error writing " + file, e); // index will be caught up from older file or filled
+		} finally {
+			close(output);
+		}
+	}
+
+	private static void writeString(DataOutputStream output, String text) throws IOException {
+		final byte[] chars = text.getBytes(UTF_8);
+		output.writeInt(chars.length);
+		output.write(chars);
+	}
+
+	static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			AppLog.e(TAG, "Can't delete " + file);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				AppLog.e(TAG, "Error closing file", e);
+			}
+		}
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	/**
+	 * Documents numbered without gaps, statistics and posting lists of them
+	 */
+	static final class Content {
+
+		final Serializable[] ids;
+		final long[] changeTimes;    // millis, as stored by storage
+		final int[] titleLengths;    // in words
+		final int[] bodyLengths;     // in words
+		final String[] texts;        // normalized
+		final String[] words;
+		final int[] wordsDocsCounts; // number of documents with each word
+		final long[] trigrams;
+		final int[] postingsSizes;   // docs count of each trigram
+		final int[] postingsOffsets; // of posting list of each trigram in postings
+		ByteBuffer postings;         // see {@link #readPostings(ByteBuffer, int, int, int)}
+		private ByteBuffer file;     // whole file of read content, null if checksum is verified
+
+		Content(int docsCount, int wordsCount, int trigramsCount) {
+			ids = new Serializable[docsCount];
+			changeTimes = new long[docsCount];
+			titleLengths = new int[docsCount];
+			bodyLengths = new int[docsCount];
+			texts = new String[docsCount];
+			words = new String[wordsCount];
+			wordsDocsCounts = new int[wordsCount];
+			trigrams = new long[trigramsCount];
+			postingsSizes = new int[trigramsCount];
+			postingsOffsets = new int[trigramsCount];
+		}
+
+		/**
+		 * Reads whole file of read content, so it is called in background after content is used
+		 * @return false if file is corrupted
+		 */
+		boolean hasValidChecksum() {
+			if (file == null) {
+				return true;
+			}
+			final ByteBuffer buffer = file.duplicate();
+			final int dataEnd = buffer.limit() - CRC_BYTES;
+			final CRC32 crc = new CRC32();
+			final byte[] chunk = new byte[CRC_CHUNK_BYTES];
+			while (buffer.position() < dataEnd) {
+				final int length = Math.min(chunk.length, dataEnd - buffer.position());
+				buffer.get(chunk, 0, length);
+				crc.update(chunk, 0, length);
+			}
+			final boolean valid = buffer.getLong() == crc.getValue();
+			file = null;
+			return valid;
+		}
+	}
+
+	/**
+	 * Encodes posting lists of written content one after another
+	 */
+	static final class PostingsWriter {
+
+		private byte[] bytes = new byte[1024];
+		private int size = 0;
+		private int lastDoc;
+
+		/**
+		 * @return offset of new list
+		 */
+		int startList() {
+			lastDoc = -1;
+			return size;
+		}
+
+		// docs of list should be added in ascending order
+		void add(int doc) {
+			if (size + 5 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			int delta = doc - lastDoc - 1;
+			lastDoc = doc;
+			while ((delta & ~0x7f) != 0) {
+				bytes[size++] = (byte) ((delta & 0x7f) | 0x80);
+				delta >>>= 7;
+			}
+			bytes[size++] = (byte) delta;
+		}
+
+		ByteBuffer getPostings() {
+			return ByteBuffer.wrap(bytes, 0, size);
+		}
+	}
+}
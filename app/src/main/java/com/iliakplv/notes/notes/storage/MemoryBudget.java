@@ -0,0 +1,241 @@
+package com.iliakplv.notes.notes.storage;
+
+import android.content.ComponentCallbacks2;
+import android.os.SystemClock;
+
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.utils.AppLog;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory budget shared by all storage caches.
+ * Caches are allowed to grow while total retained size fits the budget.
+ * On memory pressure (see {@link #onTrimMemory(int)}) budget is reduced and
+ * caches are trimmed in priority order (lower priority first).
+ */
+public final class MemoryBudget {
+
+	private static final String TAG = MemoryBudget.class.getSimpleName();
+
+	// Cache priorities (caches with lower priority evicted first)
+	public static final int PRIORITY_SEARCH = 0;
+	public static final int PRIORITY_INDEX = 1;
+	public static final int PRIORITY_NOTES_LIST = 2;
+	public static final int PRIORITY_NOTE = 3;
+
+	private static final int HEAP_FRACTION = 8;     // 1/8 of max heap for all caches
+	private static final int NO_BUDGET = 0;
+	private static final long PRESSURE_TIMEOUT_MILLIS = 60 * 1000;
+
+	// Rough memory usage estimation
+	private static final long OBJECT_OVERHEAD_BYTES = 16;
+	private static final long STRING_OVERHEAD_BYTES = 40;
+	private static final long NOTE_OVERHEAD_BYTES = 96;     // note fields, timestamps, id
+
+	private static final List<Entry> entries = new ArrayList<Entry>(); // sorted by priority
+
+	private static int budgetDivider = 1;
+	private static long pressureTime = 0;
+
+
+	private MemoryBudget() {
+		throw new AssertionError("Instance creation not allowed!");
+	}
+
+	/**
+	 * Register cache. Cache is referenced weakly, so it does not need to be unregistered.
+	 * @param name cache name for memory usage reports
+	 * @param priority one of PRIORITY_* constants
+	 */
+	public static synchronized void register(String name, int priority, TrimmableCache cache) {
+		if (cache == null) {
+			throw new NullPointerException();
+		}
+		int position = 0;
+		while (position < entries.size() && entries.get(position).priority <= priority) {
+			position++;
+		}
+		entries.add(position, new Entry(name, priority, cache));
+	}
+
+	public static synchronized void unregister(TrimmableCache cache) {
+		final Iterator<Entry> iterator = entries.iterator();
+		while (iterator.hasNext()) {
+			final TrimmableCache registered = iterator.next().cache.get();
+			if (registered == null || registered == cache) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return total size allowed for all caches at the moment
+	 */
+	public static long getBudgetBytes() {
+		final int divider;
+		synchronized (MemoryBudget.class) {
+			if (budgetDivider != 1 &&
+					SystemClock.elapsedRealtime() - pressureTime > PRESSURE_TIMEOUT_MILLIS) {
+				AppLog.d(TAG, "Memory pressure timeout. Full budget restored");
+				budgetDivider = 1;
+			}
+			divider = budgetDivider;
+		}
+		return divider == NO_BUDGET ?
+				0 :
+				Runtime.getRuntime().maxMemory() / HEAP_FRACTION / divider;
+	}
+
+	/**
+	 * Should be called by cache after adding entries.
+	 * Must not be called while holding cache's lock (other caches could be trimmed).
+	 */
+	public static void onCacheGrown() {
+		trimToBudget();
+	}
+
+	public static void onTrimMemory(int level) {
+		final int divider;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+			divider = NO_BUDGET;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			divider = 4;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			divider = 2;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			divider = 2;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			divider = 4;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			divider = 2;
+		} else {
+			divider = 1;
+		}
+		AppLog.d(TAG, "onTrimMemory() level: " + level + " budget divider: " + divider);
+		applyPressure(divider);
+	}
+
+	public static void onLowMemory() {
+		AppLog.d(TAG, "onLowMemory()");
+		applyPressure(NO_BUDGET);
+	}
+
+	private static void applyPressure(int divider) {
+		synchronized (MemoryBudget.class) {
+			pressureTime = SystemClock.elapsedRealtime();
+			final boolean stronger = divider == NO_BUDGET ||
+					(budgetDivider != NO_BUDGET && divider > budgetDivider);
+			if (stronger) {
+				budgetDivider = divider;
+			}
+		}
+		trimToBudget();
+		logRetainedBytes();
+	}
+
+	private static void trimToBudget() {
+		final long budget = getBudgetBytes();
+		final List<TrimmableCache> caches = getCachesInEvictionOrder();
+
+		long total = 0;
+		for (TrimmableCache cache : caches) {
+			total += cache.getRetainedBytes();
+		}
+
+		// caches trimmed without holding budget lock
+		for (TrimmableCache cache : caches) {
+			if (total <= budget) {
+				break;
+			}
+			final long retained = cache.getRetainedBytes();
+			final long excess = total - budget;
+			cache.trimToSize(Math.max(0, retained - excess));
+			total -= retained - cache.getRetainedBytes();
+		}
+	}
+
+	private static synchronized List<TrimmableCache> getCachesInEvictionOrder() {
+		final List<TrimmableCache> caches = new ArrayList<TrimmableCache>(entries.size());
+		final Iterator<Entry> iterator = entries.iterator();
+		while (iterator.hasNext()) {
+			final TrimmableCache cache = iterator.next().cache.get();
+			if (cache != null) {
+				caches.add(cache);
+			} else {
+				iterator.remove();
+			}
+		}
+		return caches;
+	}
+
+	/**
+	 * @return retained bytes for each registered cache (in eviction order)
+	 */
+	public static synchronized Map<String, Long> getRetainedBytes() {
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Entry entry : entries) {
+			final TrimmableCache cache = entry.cache.get();
+			if (cache != null) {
+				final Long previous = result.get(entry.name);
+				final long bytes = cache.getRetainedBytes() + (previous != null ? previous : 0);
+				result.put(entry.name, bytes);
+			}
+		}
+		return result;
+	}
+
+	private static void logRetainedBytes() {
+		AppLog.d(TAG, "Budget: " + getBudgetBytes() + " bytes. Retained: " + getRetainedBytes());
+	}
+
+
+	// Memory usage estimation
+
+	public static long estimateBytes(String s) {
+		return s == null ? 0 : STRING_OVERHEAD_BYTES + 2L * s.length();
+	}
+
+	public static long estimateBytes(AbstractNote note) {
+		return note == null ?
+				0 :
+				NOTE_OVERHEAD_BYTES + estimateBytes(note.getTitle()) + estimateBytes(note.getBody());
+	}
+
+	public static long estimateBytes(List<AbstractNote> notes) {
+		if (notes == null) {
+			return 0;
+		}
+		long bytes = OBJECT_OVERHEAD_BYTES + 4L * notes.size();
+		for (AbstractNote note : notes) {
+			bytes += estimateBytes(note);
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class Entry {
+		private final String name;
+		private final int priority;
+		private final WeakReference<TrimmableCache> cache;
+
+		private Entry(String name, int priority, TrimmableCache cache) {
+			this.name = name;
+			this.priority = priority;
+			this.cache = new WeakReference<TrimmableCache>(cache);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.iliakplv.notes.notes.storage;
+
+import com.iliakplv.notes.notes.AbstractNote;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Multi-entry LRU cache of notes. Size is limited by {@link MemoryBudget}.
+ * If {@link OffHeapBodyStore} is set, long bodies are kept off heap and
+ * only note without body is retained in heap.
+ */
+public class NoteCache implements TrimmableCache {
+
+	private static final int OFF_HEAP_BODY_MIN_LENGTH = 2048;
+
+	private final LinkedHashMap<Serializable, Entry> notes =
+			new LinkedHashMap<Serializable, Entry>(16, 0.75f, true); // access order
+	private final OffHeapBodyStore bodyStore;
+	private long retainedBytes = 0;
+
+
+	public NoteCache(String name) {
+		this(name, null);
+	}
+
+	public NoteCache(String name, OffHeapBodyStore bodyStore) {
+		this.bodyStore = bodyStore;
+		MemoryBudget.register(name, MemoryBudget.PRIORITY_NOTE, this);
+	}
+
+
+	public synchronized AbstractNote get(Serializable id) {
+		final Entry entry = notes.get(id);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.bodyHandle == OffHeapBodyStore.NO_HANDLE) {
+			return entry.note;
+		}
+		return entry.note.buildUpon().setBody(bodyStore.load(entry.bodyHandle)).build();
+	}
+
+	public void put(AbstractNote note) {
+		if (note == null) {
+			return;
+		}
+		final Entry entry = createEntry(note);
+		synchronized (this) {
+			retainedBytes += entry.bytes;
+			release(notes.put(note.getId(), entry));
+		}
+		MemoryBudget.onCacheGrown();
+	}
+
+	public synchronized void remove(Serializable id) {
+		release(notes.remove(id));
+	}
+
+	public synchronized void clear() {
+		notes.clear();
+		if (bodyStore != null) {
+			bodyStore.clear();
+		}
+		retainedBytes = 0;
+	}
+
+	/**
+	 * @return heap bytes of entries and direct memory of off-heap bodies
+	 */
+	@Override
+	public synchronized long getRetainedBytes() {
+		return retainedBytes + (bodyStore != null ? bodyStore.getAllocatedBytes() : 0);
+	}
+
+	/**
+	 * Evicts least recently used entries, then releases memory of off-heap bodies not in use
+	 */
+	@Override
+	public synchronized void trimToSize(long maxBytes) {
+		final Iterator<Map.Entry<Serializable, Entry>> iterator = notes.entrySet().iterator();
+		while (retainedBytes + getUsedDirectBytes() > maxBytes && iterator.hasNext()) {
+			release(iterator.next().getValue());
+			iterator.remove();
+		}
+		if (bodyStore != null) {
+			bodyStore.releaseFreeSlabs();
+		}
+	}
+
+	private long getUsedDirectBytes() {
+		return bodyStore != null ? bodyStore.getUsedBytes() : 0;
+	}
+
+	private Entry createEntry(AbstractNote note) {
+		final String body = note.getBody();
+		if (bodyStore != null && body != null && body.length() >= OFF_HEAP_BODY_MIN_LENGTH) {
+			final long handle = bodyStore.store(body);
+			if (handle != OffHeapBodyStore.NO_HANDLE) {
+				final AbstractNote withoutBody = note.buildUpon().setBody("").build();
+				return new Entry(withoutBody, handle, MemoryBudget.estimateBytes(withoutBody));
+			}
+		}
+		return new Entry(note, OffHeapBodyStore.NO_HANDLE, MemoryBudget.estimateBytes(note));
+	}
+
+	private void release(Entry entry) {
+		if (entry == null) {
+			return;
+		}
+		retainedBytes -= entry.bytes;
+		if (entry.bodyHandle != OffHeapBodyStore.NO_HANDLE) {
+			bodyStore.free(entry.bodyHandle);
+		}
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class Entry {
+		final AbstractNote note;
+		final long bodyHandle;
+		final long bytes;
+
+		Entry(AbstractNote note, long bodyHandle, long bytes) {
+			this.note = note;
+			this.bodyHandle = bodyHandle;
+			this.bytes = bytes;
+		}
+	}
+}
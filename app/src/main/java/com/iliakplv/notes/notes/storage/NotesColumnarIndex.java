@@ -0,0 +1,366 @@
+package com.iliakplv.notes.notes.storage;
+
+import com.iliakplv.notes.notes.AbstractNote;
+import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.utils.CollationKeys;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable struct-of-arrays snapshot of notes list fields needed for sorting and filtering:
+ * ids, create and change times, labels bitmasks and title collation keys.
+ * Sorts, filters and counts work with primitive arrays of row numbers.
+ * Notes are materialized only for rows actually requested from {@link #asNotesList}.
+ */
+public final class NotesColumnarIndex {
+
+	private final int size;
+	private final Serializable[] ids;
+	private final long[] createTimes;
+	private final long[] changeTimes;
+	private final long[] titlePrefixes;   // first bytes of title keys
+	private final byte[][] titleKeys;
+	private final long[] labelsMasks;     // wordsPerRow words for each row
+	private final int wordsPerRow;
+	private final Map<Serializable, Integer> labelsBits;
+
+
+	private NotesColumnarIndex(Builder builder) {
+		size = builder.ids.size();
+		ids = builder.ids.toArray(new Serializable[size]);
+		createTimes = trim(builder.createTimes, size);
+		changeTimes = trim(builder.changeTimes, size);
+		titleKeys = builder.titleKeys.toArray(new byte[size][]);
+		titlePrefixes = new long[size];
+		for (int row = 0; row < size; row++) {
+			titlePrefixes[row] = CollationKeys.getPrefix(titleKeys[row]);
+		}
+
+		labelsBits = new HashMap<Serializable, Integer>(builder.labelsBits);
+		wordsPerRow = (labelsBits.size() + 63) >>> 6;
+		labelsMasks = new long[size * wordsPerRow];
+		for (int i = 0; i < builder.labelsCount; i++) {
+			final int row = builder.labelsRows[i];
+			final int bit = builder.labelsBitsOfRows[i];
+			labelsMasks[row * wordsPerRow + (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+	public Serializable getId(int row) {
+		return ids[row];
+	}
+
+	/**
+	 * @param labelId label id or {@link NotesStorage#NOTES_FOR_ALL_LABELS}
+	 * @return rows of notes with label, in index order
+	 */
+	public int[] selectRows(Serializable labelId) {
+		if (NotesStorage.NOTES_FOR_ALL_LABELS.equals(labelId)) {
+			final int[] rows = new int[size];
+			for (int row = 0; row < size; row++) {
+				rows[row] = row;
+			}
+			return rows;
+		}
+
+		final Integer bit = labelsBits.get(labelId);
+		if (bit == null) {
+			return new int[0];
+		}
+		final int[] rows = new int[countRows(bit)];
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			if (hasBit(row, bit)) {
+				rows[count++] = row;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @return rows of notes with ids (e.g. of saved search), in index order
+	 */
+	public int[] selectRowsOfNotes(Collection<Serializable> notesIds) {
+		if (notesIds.isEmpty()) {
+			return new int[0];
+		}
+		final int[] rows = new int[notesIds.size()];
+		int count = 0;
+		for (int row = 0; row < size && count < rows.length; row++) {
+			if (notesIds.contains(ids[row])) {
+				rows[count++] = row;
+			}
+		}
+		final int[] result = new int[count];
+		System.arraycopy(rows, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * @return rows of notes with all labels of query and times in query ranges, in index order
+	 * (text condition of query is not checked)
+	 */
+	public int[] selectRows(NotesQuery query) {
+		final int[] bits = new int[query.getLabelsIds().size()];
+		int bitsCount = 0;
+		for (Serializable labelId : query.getLabelsIds()) {
+			final Integer bit = labelsBits.get(labelId);
+			if (bit == null) {
+				return new int[0];
+			}
+			bits[bitsCount++] = bit;
+		}
+
+		final int[] rows = new int[size];
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			if (!query.matchesTimes(createTimes[row], changeTimes[row])) {
+				continue;
+			}
+			boolean hasLabels = true;
+			for (int i = 0; i < bitsCount && hasLabels; i++) {
+				hasLabels = hasBit(row, bits[i]);
+			}
+			if (hasLabels) {
+				rows[count++] = row;
+			}
+		}
+		final int[] result = new int[count];
+		System.arraycopy(rows, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * @param labelId label id or {@link NotesStorage#NOTES_FOR_ALL_LABELS}
+	 */
+	public int count(Serializable labelId) {
+		if (NotesStorage.NOTES_FOR_ALL_LABELS.equals(labelId)) {
+			return size;
+		}
+		final Integer bit = labelsBits.get(labelId);
+		return bit == null ? 0 : countRows(bit);
+	}
+
+	private int countRows(int bit) {
+		int count = 0;
+		for (int row = 0; row < size; row++) {
+			if (hasBit(row, bit)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private boolean hasBit(int row, int bit) {
+		return (labelsMasks[row * wordsPerRow + (bit >>> 6)] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Stable in-place sort of rows. Comparison reads primitive columns only.
+	 */
+	public void sort(int[] rows, NotesUtils.NoteSortOrder order) {
+		if (order == null) {
+			throw new NullPointerException("Order is null");
+		}
+		if (rows.length > 1) {
+			final int[] buffer = rows.clone();
+			mergeSort(buffer, rows, 0, rows.length, order);
+		}
+	}
+
+	// sorts src[from, to) into dst[from, to), both arrays initially contain same rows
+	private void mergeSort(int[] src, int[] dst, int from, int to, NotesUtils.NoteSortOrder order) {
+		final int length = to - from;
+		if (length < 8) {
+			for (int i = from + 1; i < to; i++) {
+				final int row = dst[i];
+				int j = i - 1;
+				while (j >= from && compareRows(dst[j], row, order) > 0) {
+					dst[j + 1] = dst[j];
+					j--;
+				}
+				dst[j + 1] = row;
+			}
+			return;
+		}
+
+		final int middle = (from + to) >>> 1;
+		mergeSort(dst, src, from, middle, order);
+		mergeSort(dst, src, middle, to, order);
+
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < middle && compareRows(src[left], src[right], order) <= 0)) {
+				dst[i] = src[left++];
+			} else {
+				dst[i] = src[right++];
+			}
+		}
+	}
+
+	private int compareRows(int lhs, int rhs, NotesUtils.NoteSortOrder order) {
+		switch (order) {
+			case Title:
+				final int prefixes = CollationKeys.comparePrefixes(titlePrefixes[lhs], titlePrefixes[rhs]);
+				return prefixes != 0 ?
+						prefixes :
+						CollationKeys.compare(titleKeys[lhs], titleKeys[rhs]);
+			case CreateDateAscending:
+				return compareLongs(createTimes[lhs], createTimes[rhs]);
+			case CreateDateDescending:
+				return compareLongs(createTimes[rhs], createTimes[lhs]);
+			case ChangeDate: // Descending
+				return compareLongs(changeTimes[rhs], changeTimes[lhs]);
+			default:
+				throw new IllegalArgumentException("Unknown sort order type: " + order.toString());
+		}
+	}
+
+	private static int compareLongs(long lhs, long rhs) {
+		return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+	}
+
+	/**
+	 * @return unmodifiable list of notes for rows, notes are loaded on access
+	 * (null for note deleted after index was built, storage listeners are notified of deletion)
+	 */
+	public List<AbstractNote> asNotesList(int[] rows, NoteLoader loader) {
+		return new NotesList(rows, loader);
+	}
+
+	/**
+	 * @return rough estimation of memory used by index
+	 */
+	public long getRetainedBytes() {
+		long bytes = 8L * (createTimes.length + changeTimes.length + titlePrefixes.length + labelsMasks.length) +
+				4L * (ids.length + titleKeys.length);
+		for (int row = 0; row < size; row++) {
+			bytes += 16 + titleKeys[row].length;
+		}
+		return bytes;
+	}
+
+
+	private static long[] trim(long[] array, int length) {
+		final long[] result = new long[length];
+		System.arraycopy(array, 0, result, 0, length);
+		return result;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	public static interface NoteLoader {
+		/**
+		 * @return note or null if note is deleted
+		 */
+		public AbstractNote loadNote(Serializable id);
+	}
+
+	public static final class Builder {
+
+		private final List<Serializable> ids = new ArrayList<Serializable>();
+		private final List<byte[]> titleKeys = new ArrayList<byte[]>();
+		private long[] createTimes = new long[16];
+		private long[] changeTimes = new long[16];
+
+		private final Map<Serializable, Integer> rowsByIds = new HashMap<Serializable, Integer>();
+		private final Map<Serializable, Integer> labelsBits = new HashMap<Serializable, Integer>();
+		private int[] labelsRows = new int[16];
+		private int[] labelsBitsOfRows = new int[16];
+		private int labelsCount = 0;
+
+		public Builder addNote(Serializable id, String title, long createTime, long changeTime) {
+			final int row = ids.size();
+			if (row == createTimes.length) {
+				createTimes = grow(createTimes);
+				changeTimes = grow(changeTimes);
+			}
+			ids.add(id);
+			titleKeys.add(CollationKeys.getKey(title));
+			createTimes[row] = createTime;
+			changeTimes[row] = changeTime;
+			rowsByIds.put(id, row);
+			return this;
+		}
+
+		/**
+		 * Notes labels should be added after notes. Labels of unknown notes are ignored.
+		 */
+		public Builder addNoteLabel(Serializable noteId, Serializable labelId) {
+			final Integer row = rowsByIds.get(noteId);
+			if (row == null) {
+				return this;
+			}
+			Integer bit = labelsBits.get(labelId);
+			if (bit == null) {
+				bit = labelsBits.size();
+				labelsBits.put(labelId, bit);
+			}
+			if (labelsCount == labelsRows.length) {
+				labelsRows = grow(labelsRows);
+				labelsBitsOfRows = grow(labelsBitsOfRows);
+			}
+			labelsRows[labelsCount] = row;
+			labelsBitsOfRows[labelsCount] = bit;
+			labelsCount++;
+			return this;
+		}
+
+		public NotesColumnarIndex build() {
+			return new NotesColumnarIndex(this);
+		}
+
+		private static long[] grow(long[] array) {
+			final long[] grown = new long[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+
+		private static int[] grow(int[] array) {
+			final int[] grown = new int[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+
+	private final class NotesList extends AbstractList<AbstractNote> implements RandomAccess {
+
+		private final int[] rows;
+		private final NoteLoader loader;
+
+		NotesList(int[] rows, NoteLoader loader) {
+			this.rows = rows;
+			this.loader = loader;
+		}
+
+		@Override
+		public AbstractNote get(int location) {
+			return loader.loadNote(ids[rows[location]]);
+		}
+
+		@Override
+		public int size() {
+			return rows.length;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.iliakplv.notes.notes.storage;
+
+import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.search.RegexQuery;
+import com.iliakplv.notes.notes.search.SearchNormalizer;
+import com.iliakplv.notes.utils.StringUtils;
+
+import org.joda.time.DateTime;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Structured notes query, note should satisfy all set conditions:
+ * has all labels, contains text (in title or body) or matches regular expression text
+ * (see {@link RegexQuery}), create and change times are in ranges.
+ * Executed by {@link NotesStorage#getNotes(NotesQuery)}, each storage checks conditions
+ * with its cheapest indexes.
+ */
+public final class NotesQuery {
+
+	public static final int NO_LIMIT = 0;
+
+	private final Set<Serializable> labelsIds;
+	private final String text;
+	private final long createTimeFrom;
+	private final long createTimeTo;
+	private final long changeTimeFrom;
+	private final long changeTimeTo;
+	private final NotesUtils.NoteSortOrder sortOrder;
+	private final int limit;
+
+
+	private NotesQuery(Builder builder) {
+		labelsIds = Collections.unmodifiableSet(new HashSet<Serializable>(builder.labelsIds));
+		text = builder.text;
+		createTimeFrom = builder.createTimeFrom;
+		createTimeTo = builder.createTimeTo;
+		changeTimeFrom = builder.changeTimeFrom;
+		changeTimeTo = builder.changeTimeTo;
+		sortOrder = builder.sortOrder;
+		limit = builder.limit;
+	}
+
+
+	/**
+	 * @return ids of labels note should have (all of them)
+	 */
+	public Set<Serializable> getLabelsIds() {
+		return labelsIds;
+	}
+
+	/**
+	 * @return normalized text (see {@link SearchNormalizer#normalizeQuery(String)}) or null
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public boolean hasText() {
+		return text != null;
+	}
+
+	// time ranges in millis, start inclusive, end exclusive
+
+	public long getCreateTimeFrom() {
+		return createTimeFrom;
+	}
+
+	public long getCreateTimeTo() {
+		return createTimeTo;
+	}
+
+	public long getChangeTimeFrom() {
+		return changeTimeFrom;
+	}
+
+	public long getChangeTimeTo() {
+		return changeTimeTo;
+	}
+
+	public boolean hasCreateTimeRange() {
+		return createTimeFrom != Long.MIN_VALUE || createTimeTo != Long.MAX_VALUE;
+	}
+
+	public boolean hasChangeTimeRange() {
+		return changeTimeFrom != Long.MIN_VALUE || changeTimeTo != Long.MAX_VALUE;
+	}
+
+	public boolean matchesTimes(long createTime, long changeTime) {
+		return createTime >= createTimeFrom && createTime < createTimeTo &&
+				changeTime >= changeTimeFrom && changeTime < changeTimeTo;
+	}
+
+	/**
+	 * @return sort order or null for storage sort order (relevance order if query has text)
+	 */
+	public NotesUtils.NoteSortOrder getSortOrder() {
+		return sortOrder;
+	}
+
+	/**
+	 * @return max notes count or {@link #NO_LIMIT}
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public String toString() {
+		return "NotesQuery{labels=" + labelsIds + ", text=" + text +
+				", create=[" + createTimeFrom + ", " + createTimeTo + ")" +
+				", change=[" + changeTimeFrom + ", " + changeTimeTo + ")" +
+				", sort=" + sortOrder + ", limit=" + limit + "}";
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	public static final class Builder {
+
+		private final Set<Serializable> labelsIds = new HashSet<Serializable>();
+		private String text = null;
+		private long createTimeFrom = Long.MIN_VALUE;
+		private long createTimeTo = Long.MAX_VALUE;
+		private long changeTimeFrom = Long.MIN_VALUE;
+		private long changeTimeTo = Long.MAX_VALUE;
+		private NotesUtils.NoteSortOrder sortOrder = null;
+		private int limit = NO_LIMIT;
+
+		public Builder addLabel(Serializable labelId) {
+			if (labelId == null) {
+				throw new NullPointerException("Label id is null");
+			}
+			labelsIds.add(labelId);
+			return this;
+		}
+
+		/**
+		 * @param text text to search, blank text means no text condition
+		 */
+		public Builder setText(String text) {
+			this.text = StringUtils.isBlank(text) ? null : SearchNormalizer.normalizeQuery(text);
+			return this;
+		}
+
+		/**
+		 * @param from start of range (inclusive) or null
+		 * @param to end of range (exclusive) or null
+		 */
+		public Builder setCreateTimeRange(DateTime from, DateTime to) {
+			createTimeFrom = from != null ? from.getMillis() : Long.MIN_VALUE;
+			createTimeTo = to != null ? to.getMillis() : Long.MAX_VALUE;
+			return this;
+		}
+
+		/**
+		 * @param from start of range (inclusive) or null
+		 * @param to end of range (exclusive) or null
+		 */
+		public Builder setChangeTimeRange(DateTime from, DateTime to) {
+			changeTimeFrom = from != null ? from.getMillis() : Long.MIN_VALUE;
+			changeTimeTo = to != null ? to.getMillis() : Long.MAX_VALUE;
+			return this;
+		}
+
+		public Builder setSortOrder(NotesUtils.NoteSortOrder sortOrder) {
+			this.sortOrder = sortOrder;
+			return this;
+		}
+
+		public Builder setLimit(int limit) {
+			if (limit < 0) {
+				throw new IllegalArgumentException("Negative limit: " + limit);
+			}
+			this.limit = limit;
+			return this;
+		}
+
+		public NotesQuery build() {
+			return new NotesQuery(this);
+		}
+	}
+}
@@ -5,6 +5,10 @@ import android.util.Pair;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
+import com.iliakplv.notes.notes.search.SearchTask;
+
+import org.joda.time.DateTime;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -16,6 +20,13 @@ public interface NotesStorage {
 	public static final Integer NOTES_FOR_ALL_LABELS = 0;
 	public static final List<AbstractNote> EMPTY_NOTES_LIST = new ArrayList<AbstractNote>(0);
 
+	// fields projection for visitNotes(), not loaded texts are empty and times are NOT_LOADED_TIME
+	public static final int FIELD_TITLE = 1;
+	public static final int FIELD_BODY = 2;
+	public static final int FIELD_TIMES = 4;
+	public static final int ALL_FIELDS = FIELD_TITLE | FIELD_BODY | FIELD_TIMES;
+	public static final DateTime NOT_LOADED_TIME = new DateTime(0);
+
 
 	// sort
 
@@ -25,13 +36,17 @@ public interface NotesStorage {
 	// notes
 
 	public AbstractNote getNote(Serializable id);
-	public List<AbstractNote> getNotesForLabel(Serializable labelId); // for all notes use NOTES_FOR_ALL_LABELS
+	public List<AbstractNote> getNotesForLabel(Serializable labelId); // for all notes use NOTES_FOR_ALL_LABELS, also saved search id
 	public List<AbstractNote> getNotesForQuery(String searchQuery); // ignores case, spaces and empty strings
+	public List<AbstractNote> getNotes(NotesQuery query);
+	public SearchTask startSearch(String searchQuery, long timeBudgetMillis, SearchTask.Listener listener); // in background
 
 	public Serializable insertNote(AbstractNote note);
 	public boolean updateNote(Serializable id, AbstractNote note);
 	public boolean deleteNote(Serializable id);
 
+	public void visitNotes(int fields, NotesVisitor visitor); // all notes in storage order, no caching
+
 
 	// labels
 
@@ -43,6 +58,21 @@ public interface NotesStorage {
 	public boolean deleteLabel(Serializable id);
 
 
+	// saved searches (smart labels)
+
+	public SavedSearch getSavedSearch(Serializable id);
+	public List<SavedSearch> getAllSavedSearches();
+
+	public Serializable insertSavedSearch(SavedSearch search);
+	public boolean deleteSavedSearch(Serializable id);
+
+
+	// search suggestions
+
+	public List<String> getSearchSuggestions(String prefix, int limit); // recent queries and notes titles
+	public void addRecentSearchQuery(String query);
+
+
 	// notes_labels
 
 	public List<Label> getLabelsForNote(Serializable noteId);
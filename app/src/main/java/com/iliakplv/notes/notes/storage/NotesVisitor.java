@@ -0,0 +1,15 @@
+package com.iliakplv.notes.notes.storage;
+
+import com.iliakplv.notes.notes.AbstractNote;
+
+/**
+ * Receives notes one by one from {@link NotesStorage#visitNotes(int, NotesVisitor)}.
+ * Notes are not retained by storage, so scan needs constant memory.
+ */
+public interface NotesVisitor {
+
+	/**
+	 * @return true to continue iteration, false to stop
+	 */
+	public boolean visitNote(AbstractNote note);
+}
@@ -0,0 +1,331 @@
+package com.iliakplv.notes.notes.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores note bodies outside of Java heap as UTF-8 bytes in direct {@link ByteBuffer} slabs.
+ * Text is decoded on demand, so large bodies could stay resident without GC pressure.
+ *
+ * Allocator is simple: blocks have power of two sizes, freed blocks are kept
+ * in per-size free lists and reused, new blocks are taken from the end of the current slab.
+ * Text longer than slab is stored in dedicated buffer, which is released on free.
+ * Slabs without blocks in use are released by {@link #releaseFreeSlabs()} (e.g. after cache is trimmed).
+ */
+public final class OffHeapBodyStore {
+
+	public static final long NO_HANDLE = -1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int SLAB_SIZE = 1024 * 1024;
+	private static final int MIN_BLOCK_SHIFT = 6;                  // 64 bytes
+	private static final int MAX_BLOCK_SHIFT = 20;                 // SLAB_SIZE
+	private static final int HEADER_BYTES = 4;                     // encoded length
+	private static final long DEFAULT_CAPACITY_BYTES = 16L * SLAB_SIZE;
+	private static final int DEDICATED_SHIFT = MAX_BLOCK_SHIFT + 1;
+
+	private final long capacityBytes;
+	private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>(); // null for released slab
+	private int[] slabsUsedBytes = new int[16];
+	private final LongStack freeSlabIndexes = new LongStack();
+	private final List<ByteBuffer> dedicated = new ArrayList<ByteBuffer>();
+	private final LongStack freeDedicatedIndexes = new LongStack();
+	private final LongStack[] freeBlocks = new LongStack[MAX_BLOCK_SHIFT + 1];
+	private int currentSlab = -1;
+	private int lastSlabPosition = SLAB_SIZE; // in current slab
+	private long allocatedBytes = 0;   // direct memory reserved by slabs
+	private long usedBytes = 0;        // memory in blocks in use
+
+	private final CharsetEncoder encoder = UTF_8.newEncoder();
+	private final CharsetDecoder decoder = UTF_8.newDecoder();
+
+
+	public OffHeapBodyStore() {
+		this(DEFAULT_CAPACITY_BYTES);
+	}
+
+	public OffHeapBodyStore(long capacityBytes) {
+		this.capacityBytes = capacityBytes;
+		for (int i = MIN_BLOCK_SHIFT; i < freeBlocks.length; i++) {
+			freeBlocks[i] = new LongStack();
+		}
+	}
+
+
+	/**
+	 * @return handle of stored text or {@link #NO_HANDLE} if capacity exceeded
+	 */
+	public synchronized long store(String text) {
+		final int length = utf8Length(text);
+		final long handle = allocate(HEADER_BYTES + length);
+		if (handle == NO_HANDLE) {
+			return NO_HANDLE;
+		}
+
+		final ByteBuffer block = blockBuffer(handle);
+		block.putInt(length);
+		encoder.reset();
+		final CoderResult result = encoder.encode(CharBuffer.wrap(text), block, true);
+		encoder.flush(block);
+		if (result.isError()) {
+			// unpaired surrogates, should not happen for text from edit fields
+			free(handle);
+			return NO_HANDLE;
+		}
+		return handle;
+	}
+
+	public synchronized String load(long handle) {
+		final ByteBuffer block = blockBuffer(handle);
+		final int length = block.getInt();
+		block.limit(block.position() + length);
+		try {
+			decoder.reset();
+			return decoder.decode(block).toString();
+		} catch (CharacterCodingException e) {
+			throw new IllegalStateException("Corrupted block: " + handle, e);
+		}
+	}
+
+	public synchronized void free(long handle) {
+		final int slab = slabIndex(handle);
+		final int shift = blockShift(handle);
+		if (shift == DEDICATED_SHIFT) {
+			final ByteBuffer buffer = dedicated.set(slab, null);
+			allocatedBytes -= buffer.capacity();
+			usedBytes -= buffer.capacity();
+			freeDedicatedIndexes.push(slab);
+		} else {
+			usedBytes -= 1 << shift;
+			slabsUsedBytes[slab] -= 1 << shift;
+			freeBlocks[shift].push(handle);
+		}
+	}
+
+	public synchronized void clear() {
+		slabs.clear();
+		freeSlabIndexes.clear();
+		dedicated.clear();
+		freeDedicatedIndexes.clear();
+		for (int i = MIN_BLOCK_SHIFT; i < freeBlocks.length; i++) {
+			freeBlocks[i].clear();
+		}
+		currentSlab = -1;
+		lastSlabPosition = SLAB_SIZE;
+		allocatedBytes = 0;
+		usedBytes = 0;
+	}
+
+	/**
+	 * Releases slabs without blocks in use, their free blocks are dropped
+	 * @return released bytes
+	 */
+	public synchronized long releaseFreeSlabs() {
+		long released = 0;
+		for (int slab = 0; slab < slabs.size(); slab++) {
+			if (slabs.get(slab) != null && slabsUsedBytes[slab] == 0) {
+				slabs.set(slab, null);
+				freeSlabIndexes.push(slab);
+				released += SLAB_SIZE;
+				if (slab == currentSlab) {
+					currentSlab = -1;
+					lastSlabPosition = SLAB_SIZE;
+				}
+			}
+		}
+		if (released > 0) {
+			for (int i = MIN_BLOCK_SHIFT; i < freeBlocks.length; i++) {
+				final LongStack blocks = freeBlocks[i];
+				int count = 0;
+				for (int j = 0; j < blocks.size; j++) {
+					if (slabs.get(slabIndex(blocks.values[j])) != null) {
+						blocks.values[count++] = blocks.values[j];
+					}
+				}
+				blocks.size = count;
+			}
+			allocatedBytes -= released;
+		}
+		return released;
+	}
+
+	/**
+	 * @return direct memory reserved by store
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return direct memory in blocks currently in use
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+
+	// Allocation
+
+	private long allocate(int size) {
+		if (size > SLAB_SIZE) {
+			return allocateDedicated(size);
+		}
+
+		final int shift = Math.max(MIN_BLOCK_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+		final int blockSize = 1 << shift;
+		if (!freeBlocks[shift].isEmpty()) {
+			final long handle = freeBlocks[shift].pop();
+			usedBytes += blockSize;
+			slabsUsedBytes[slabIndex(handle)] += blockSize;
+			return handle;
+		}
+
+		// blocks are aligned to their size, so block never crosses slab end
+		int position = (lastSlabPosition + blockSize - 1) & -blockSize;
+		if (position + blockSize > SLAB_SIZE) {
+			if (allocatedBytes + SLAB_SIZE > capacityBytes) {
+				return NO_HANDLE;
+			}
+			currentSlab = addSlab();
+			position = 0;
+		}
+		lastSlabPosition = position + blockSize;
+		usedBytes += blockSize;
+		slabsUsedBytes[currentSlab] += blockSize;
+		return handle(currentSlab, position, shift);
+	}
+
+	// index of new slab, released slab index is reused
+	private int addSlab() {
+		final ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+		allocatedBytes += SLAB_SIZE;
+		if (!freeSlabIndexes.isEmpty()) {
+			final int index = (int) freeSlabIndexes.pop();
+			slabs.set(index, slab);
+			slabsUsedBytes[index] = 0;
+			return index;
+		}
+		slabs.add(slab);
+		final int index = slabs.size() - 1;
+		if (index == slabsUsedBytes.length) {
+			final int[] grown = new int[slabsUsedBytes.length * 2];
+			System.arraycopy(slabsUsedBytes, 0, grown, 0, slabsUsedBytes.length);
+			slabsUsedBytes = grown;
+		}
+		slabsUsedBytes[index] = 0;
+		return index;
+	}
+
+	private long allocateDedicated(int size) {
+		if (allocatedBytes + size > capacityBytes) {
+			return NO_HANDLE;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+		allocatedBytes += size;
+		usedBytes += size;
+
+		final int index;
+		if (freeDedicatedIndexes.isEmpty()) {
+			dedicated.add(buffer);
+			index = dedicated.size() - 1;
+		} else {
+			index = (int) freeDedicatedIndexes.pop();
+			dedicated.set(index, buffer);
+		}
+		return handle(index, 0, DEDICATED_SHIFT);
+	}
+
+	private ByteBuffer blockBuffer(long handle) {
+		if (blockShift(handle) == DEDICATED_SHIFT) {
+			return dedicated.get(slabIndex(handle)).duplicate();
+		}
+		final ByteBuffer buffer = slabs.get(slabIndex(handle)).duplicate();
+		final int offset = blockOffset(handle);
+		buffer.limit(offset + (1 << blockShift(handle)));
+		buffer.position(offset);
+		return buffer;
+	}
+
+
+	// Handle: [slab (or dedicated buffer) index: 32 bits][block shift: 8 bits][offset: 24 bits]
+
+	private static long handle(int slab, int offset, int shift) {
+		return ((long) slab << 32) | ((long) shift << 24) | offset;
+	}
+
+	private static int slabIndex(long handle) {
+		return (int) (handle >>> 32);
+	}
+
+	private static int blockShift(long handle) {
+		return (int) (handle >>> 24) & 0xFF;
+	}
+
+	private static int blockOffset(long handle) {
+		return (int) handle & 0xFFFFFF;
+	}
+
+
+	private static int utf8Length(String s) {
+		final int length = s.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			final char c = s.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					bytes += 1;
+				} else if (Character.isHighSurrogate(c) && i + 1 < length &&
+						Character.isLowSurrogate(s.charAt(i + 1))) {
+					bytes += 2; // 4 bytes for 2 chars
+					i++;
+				} else {
+					bytes += 2;
+				}
+			}
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * ******************************************
+	 *
+	 * Inner classes
+	 *
+	 * *******************************************
+	 */
+
+	private static final class LongStack {
+		private long[] values = new long[16];
+		private int size = 0;
+
+		void push(long value) {
+			if (size == values.length) {
+				final long[] grown = new long[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = value;
+		}
+
+		long pop() {
+			return values[--size];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+}
@@ -6,6 +6,8 @@ import android.util.Pair;
 import com.iliakplv.notes.notes.AbstractNote;
 import com.iliakplv.notes.notes.Label;
 import com.iliakplv.notes.notes.NotesUtils;
+import com.iliakplv.notes.notes.SavedSearch;
+import com.iliakplv.notes.notes.search.SearchTask;
 
 import java.io.Serializable;
 import java.util.List;
@@ -40,6 +42,16 @@ import java.util.Set;
 		return target.getNotesForQuery(searchQuery);
 	}
 
+	@Override
+	public List<AbstractNote> getNotes(NotesQuery query) {
+		return target.getNotes(query);
+	}
+
+	@Override
+	public SearchTask startSearch(String searchQuery, long timeBudgetMillis, SearchTask.Listener listener) {
+		return target.startSearch(searchQuery, timeBudgetMillis, listener);
+	}
+
 	public Serializable insertNote(AbstractNote note) {
 		return target.insertNote(note);
 	}
@@ -52,6 +64,10 @@ import java.util.Set;
 		return target.deleteNote(id);
 	}
 
+	public void visitNotes(int fields, NotesVisitor visitor) {
+		target.visitNotes(fields, visitor);
+	}
+
 	// labels
 
 	public Label getLabel(Serializable id) {
@@ -74,6 +90,40 @@ import java.util.Set;
 		return target.deleteLabel(id);
 	}
 
+	// saved searches
+
+	@Override
+	public SavedSearch getSavedSearch(Serializable id) {
+		return target.getSavedSearch(id);
+	}
+
+	@Override
+	public List<SavedSearch> getAllSavedSearches() {
+		return target.getAllSavedSearches();
+	}
+
+	@Override
+	public Serializable insertSavedSearch(SavedSearch search) {
+		return target.insertSavedSearch(search);
+	}
+
+	@Override
+	public boolean deleteSavedSearch(Serializable id) {
+		return target.deleteSavedSearch(id);
+	}
+
+	// search suggestions
+
+	@Override
+	public List<String> getSearchSuggestions(String prefix, int limit) {
+		return target.getSearchSuggestions(prefix, limit);
+	}
+
+	@Override
+	public void addRecentSearchQuery(String query) {
+		target.addRecentSearchQuery(query);
+	}
+
 	// notes_labels
 
 	public List<Label> getLabelsForNote(Serializable noteId) {
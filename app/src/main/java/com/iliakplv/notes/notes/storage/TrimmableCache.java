@@ -0,0 +1,20 @@
+package com.iliakplv.notes.notes.storage;
+
+/**
+ * Cache which can report its memory usage and release memory on request.
+ * Caches register themselves in {@link MemoryBudget}.
+ */
+public interface TrimmableCache {
+
+	/**
+	 * @return approximate size of retained data in bytes
+	 */
+	public long getRetainedBytes();
+
+	/**
+	 * Evict entries until retained size is not greater than specified
+	 * @param maxBytes max retained size in bytes, 0 to evict everything
+	 */
+	public void trimToSize(long maxBytes);
+
+}
@@ -0,0 +1,73 @@
+package com.iliakplv.notes.utils;
+
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Locale-aware sort keys. Key is computed once for string and compared as bytes,
+ * order of keys is the same as order of strings by collator of current locale
+ * (case is ignored, accents are not).
+ */
+public final class CollationKeys {
+
+	private CollationKeys() {
+		throw new AssertionError("Instance creation not allowed!");
+	}
+
+	public static final byte[] EMPTY_KEY = new byte[0];
+
+	private static Locale collatorLocale;
+	private static Collator collator;
+
+
+	public static byte[] getKey(String s) {
+		if (StringUtils.isNullOrEmpty(s)) {
+			return EMPTY_KEY;
+		}
+		synchronized (CollationKeys.class) { // collator is not thread safe
+			return getCollator().getCollationKey(s).toByteArray();
+		}
+	}
+
+	private static Collator getCollator() {
+		final Locale locale = Locale.getDefault();
+		if (collator == null || !locale.equals(collatorLocale)) {
+			collator = Collator.getInstance(locale);
+			collator.setStrength(Collator.SECONDARY);
+			collatorLocale = locale;
+		}
+		return collator;
+	}
+
+	/**
+	 * Compares keys as unsigned bytes
+	 */
+	public static int compare(byte[] lhs, byte[] rhs) {
+		final int length = Math.min(lhs.length, rhs.length);
+		for (int i = 0; i < length; i++) {
+			final int l = lhs[i] & 0xFF;
+			final int r = rhs[i] & 0xFF;
+			if (l != r) {
+				return l - r;
+			}
+		}
+		return lhs.length - rhs.length;
+	}
+
+	/**
+	 * @return first 8 bytes of key packed to long, compare with {@link #comparePrefixes(long, long)}
+	 */
+	public static long getPrefix(byte[] key) {
+		long prefix = 0;
+		for (int i = 0; i < 8; i++) {
+			prefix = (prefix << 8) | (i < key.length ? key[i] & 0xFF : 0);
+		}
+		return prefix;
+	}
+
+	public static int comparePrefixes(long lhs, long rhs) {
+		lhs += Long.MIN_VALUE;
+		rhs += Long.MIN_VALUE;
+		return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+	}
+}
@@ -0,0 +1,83 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+public class EnglishStemmerTest extends TestCase {
+
+	// words and stems from Snowball English vocabulary
+	private static final String[] VOCABULARY = {
+			"consign", "consign",
+			"consigned", "consign",
+			"consigning", "consign",
+			"consignment", "consign",
+			"consisted", "consist",
+			"consistency", "consist",
+			"consistently", "consist",
+			"consolation", "consol",
+			"consolatory", "consolatori",
+			"consoled", "consol",
+			"consolidating", "consolid",
+			"consolingly", "consol",
+			"consonant", "conson",
+			"conspicuously", "conspicu",
+			"conspiracy", "conspiraci",
+			"conspirators", "conspir",
+			"constables", "constabl",
+			"constancy", "constanc",
+			"constant", "constant",
+			"knackeries", "knackeri",
+			"kneaded", "knead",
+			"kneeling", "kneel",
+			"knees", "knee",
+			"knightly", "knight",
+			"knitting", "knit",
+			"knives", "knive",
+			"knocker", "knocker",
+			"caresses", "caress",
+			"ponies", "poni",
+			"ties", "tie",
+			"cats", "cat",
+			"running", "run",
+			"hopping", "hop",
+			"happiness", "happi",
+			"relational", "relat",
+			"hopeful", "hope",
+			"generate", "generat",
+			"generously", "generous"};
+
+	private final EnglishStemmer stemmer = new EnglishStemmer();
+
+	public void testVocabulary() {
+		for (int i = 0; i < VOCABULARY.length; i += 2) {
+			Assert.assertEquals(VOCABULARY[i], VOCABULARY[i + 1], stemmer.stem(VOCABULARY[i]));
+		}
+	}
+
+	public void testExceptions() {
+		Assert.assertEquals("sky", stemmer.stem("skies"));
+		Assert.assertEquals("die", stemmer.stem("dying"));
+		Assert.assertEquals("news", stemmer.stem("news"));
+		Assert.assertEquals("inning", stemmer.stem("inning"));
+		Assert.assertEquals("proceed", stemmer.stem("proceed"));
+	}
+
+	public void testWordFormsHaveSameStem() {
+		Assert.assertEquals(stemmer.stem("meeting"), stemmer.stem("meetings"));
+		Assert.assertEquals(stemmer.stem("meeting"), stemmer.stem("meet"));
+		Assert.assertFalse(stemmer.stem("meeting").equals(stemmer.stem("meetup")));
+	}
+
+	public void testShortWords() {
+		Assert.assertEquals("a", stemmer.stem("a"));
+		Assert.assertEquals("at", stemmer.stem("at"));
+	}
+
+	public void testCanStem() {
+		Assert.assertTrue(stemmer.canStem("meeting"));
+		Assert.assertFalse(stemmer.canStem("книга"));
+		Assert.assertFalse(stemmer.canStem("2017"));
+		Assert.assertFalse(stemmer.canStem("Meeting")); // not normalized
+	}
+}
@@ -0,0 +1,127 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+public class FuzzyVocabularyTest extends TestCase {
+
+	FuzzyVocabulary vocabulary;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		vocabulary = new FuzzyVocabulary();
+	}
+
+	public void testDistance() {
+		Assert.assertEquals(0, FuzzyVocabulary.distance("hello", "hello", 2));
+		Assert.assertEquals(1, FuzzyVocabulary.distance("hello", "helo", 2));
+		Assert.assertEquals(1, FuzzyVocabulary.distance("hello", "hallo", 2));
+		Assert.assertEquals(1, FuzzyVocabulary.distance("hello", "helloo", 2));
+		Assert.assertEquals(1, FuzzyVocabulary.distance("the", "teh", 2)); // transposition
+		Assert.assertEquals(1, FuzzyVocabulary.distance("meeting", "metting", 3));
+		Assert.assertEquals(3, FuzzyVocabulary.distance("kitten", "sitting", 3));
+		Assert.assertEquals(3, FuzzyVocabulary.distance("kitten", "sitting", 2)); // over limit
+		Assert.assertEquals(2, FuzzyVocabulary.distance("a", "abcdef", 1));
+	}
+
+	public void testMaxDistance() {
+		Assert.assertEquals(0, FuzzyVocabulary.getMaxDistance(2));
+		Assert.assertEquals(1, FuzzyVocabulary.getMaxDistance(3));
+		Assert.assertEquals(1, FuzzyVocabulary.getMaxDistance(5));
+		Assert.assertEquals(2, FuzzyVocabulary.getMaxDistance(6));
+		Assert.assertEquals(2, FuzzyVocabulary.getMaxDistance(20));
+	}
+
+	public void testFindSimilarWords() {
+		for (String word : new String[] {"hello", "help", "hell", "yellow", "world", "shell"}) {
+			vocabulary.add(word);
+		}
+		final Map<String, Integer> similar = vocabulary.findSimilarWords("helo", 1);
+		Assert.assertEquals(Integer.valueOf(1), similar.get("hello"));
+		Assert.assertEquals(Integer.valueOf(1), similar.get("help"));
+		Assert.assertEquals(Integer.valueOf(1), similar.get("hell"));
+		Assert.assertNull(similar.get("yellow"));
+		Assert.assertNull(similar.get("world"));
+		Assert.assertNull(similar.get("shell"));
+
+		Assert.assertEquals(Integer.valueOf(0), vocabulary.findSimilarWords("hello", 1).get("hello"));
+		Assert.assertTrue(vocabulary.findSimilarWords("hello", 0).isEmpty());
+	}
+
+	public void testTypoAfterPrefix() {
+		vocabulary.add("documentation");
+		Assert.assertEquals(Integer.valueOf(1), vocabulary.findSimilarWords("documentaiton", 2).get("documentation"));
+		Assert.assertEquals(Integer.valueOf(2), vocabulary.findSimilarWords("dcoumentaiton", 2).get("documentation"));
+	}
+
+	public void testShortWordsNotAdded() {
+		Assert.assertEquals(-1, vocabulary.add("at"));
+		Assert.assertTrue(vocabulary.findSimilarWords("att", 1).isEmpty());
+	}
+
+	public void testRemove() {
+		final int hello = vocabulary.add("hello");
+		final int help = vocabulary.add("help");
+		vocabulary.remove(hello);
+		final Map<String, Integer> similar = vocabulary.findSimilarWords("helo", 1);
+		Assert.assertNull(similar.get("hello"));
+		Assert.assertEquals(Integer.valueOf(1), similar.get("help"));
+
+		Assert.assertEquals(hello, vocabulary.add("jelly")); // id reused
+		Assert.assertEquals(Integer.valueOf(1), vocabulary.findSimilarWords("jello", 1).get("jelly"));
+		vocabulary.remove(help);
+		vocabulary.remove(hello);
+		Assert.assertTrue(vocabulary.findSimilarWords("helo", 1).isEmpty());
+		Assert.assertTrue(vocabulary.findSimilarWords("jello", 1).isEmpty());
+	}
+
+	/**
+	 * Lookup by deletes finds exactly words found by distance to each word
+	 */
+	public void testSameAsBruteForce() {
+		final Random random = new Random(42);
+		final List<String> words = new ArrayList<String>();
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i = 0; i < 2000; i++) {
+			final String word = randomWord(random);
+			if (!ids.containsKey(word)) {
+				ids.put(word, vocabulary.add(word));
+				words.add(word);
+			}
+		}
+		for (int i = 0; i < words.size(); i += 3) { // removed words are not found
+			vocabulary.remove(ids.remove(words.get(i)));
+		}
+
+		for (int i = 0; i < 300; i++) {
+			final String term = randomWord(random);
+			final int maxDistance = FuzzyVocabulary.getMaxDistance(term.length());
+			final Map<String, Integer> expected = new HashMap<String, Integer>();
+			for (String word : ids.keySet()) {
+				final int distance = FuzzyVocabulary.distance(term, word, maxDistance);
+				if (distance <= maxDistance) {
+					expected.put(word, distance);
+				}
+			}
+			Assert.assertEquals(term, expected, vocabulary.findSimilarWords(term, maxDistance));
+		}
+	}
+
+	// words of few letters, so there are many similar words
+	private static String randomWord(Random random) {
+		final StringBuilder word = new StringBuilder();
+		final int length = 3 + random.nextInt(6);
+		for (int i = 0; i < length; i++) {
+			word.append("abcde".charAt(random.nextInt(5)));
+		}
+		return word.toString();
+	}
+}
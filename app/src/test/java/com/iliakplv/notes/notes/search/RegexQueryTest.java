@@ -0,0 +1,99 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+
+public class RegexQueryTest extends TestCase {
+
+	public void testIsRegex() {
+		Assert.assertTrue(RegexQuery.isRegex("/id-\\d+/"));
+		Assert.assertFalse(RegexQuery.isRegex("//"));
+		Assert.assertFalse(RegexQuery.isRegex("/id"));
+		Assert.assertFalse(RegexQuery.isRegex(null));
+	}
+
+	public void testPathologicalPatternsRejected() {
+		final String[] patterns = {
+				"(a+)+b",
+				"(a*)*b",
+				"(x+x+)+y",
+				"(a|aa)*b",
+				"(?:a|ab)+c",
+				"(a|a?)+b",
+				"(.|\\s)*x",
+				"((a|aa))*b",
+				"(.*){1,9999}x",
+				"(a+){20}b",
+				"(\\w+\\s?)*$"};
+		for (String pattern : patterns) {
+			Assert.assertTrue(pattern, RegexQuery.hasNestedUnboundedQuantifiers(pattern));
+			Assert.assertNull(pattern, RegexQuery.compile("/" + pattern + "/"));
+		}
+	}
+
+	public void testSafePatternsAccepted() {
+		final String[] patterns = {
+				"id-\\d+",
+				"(foo|bar)+",
+				"(?:cat|dog)s*",
+				"a{2,5}",
+				"(ab){1,3}",
+				"(a+){2}b",
+				"[a-z]+@[a-z]+\\.com",
+				"(\\d+)-(\\d+)"};
+		for (String pattern : patterns) {
+			Assert.assertFalse(pattern, RegexQuery.hasNestedUnboundedQuantifiers(pattern));
+			Assert.assertNotNull(pattern, RegexQuery.compile("/" + pattern + "/"));
+		}
+	}
+
+	public void testInvalidPattern() {
+		Assert.assertNull(RegexQuery.compile("/(ab/"));
+	}
+
+	public void testFindMatch() {
+		final RegexQuery regex = RegexQuery.compile("/id-\\d+/");
+		Assert.assertTrue(Arrays.equals(new int[] {5, 12}, regex.findMatch("Task ID-1234 done")));
+		Assert.assertNull(regex.findMatch("Task id- done"));
+		Assert.assertNull(regex.findMatch(null));
+	}
+
+	public void testRequiredLiterals() {
+		Assert.assertEquals(Arrays.asList("id-"), RegexQuery.getRequiredLiterals("id-\\d+"));
+		Assert.assertEquals(Arrays.asList("hello", "world"), RegexQuery.getRequiredLiterals("Hello\\s+world"));
+		Assert.assertEquals(Collections.<String>emptyList(), RegexQuery.getRequiredLiterals("foo|bar"));
+		Assert.assertEquals(Arrays.asList("abc"), RegexQuery.getRequiredLiterals("abcd?"));
+	}
+
+	/**
+	 * Slow pattern which is not rejected is stopped by steps limit, only slow text is skipped,
+	 * query is compiled again after that
+	 */
+	public void testSlowMatchTimesOut() {
+		final String query = "/.*.*.*.*.*.*=/";
+		final RegexQuery regex = RegexQuery.compile(query);
+		Assert.assertNotNull(regex);
+		Assert.assertSame(regex, RegexQuery.compile(query)); // cached
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			text.append('a');
+		}
+
+		final long start = System.currentTimeMillis();
+		Assert.assertNull(regex.findMatches(text.toString(), "a="));
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+		Assert.assertTrue(Arrays.equals(new int[] {0, 2}, regex.findMatch("a="))); // not disabled
+		Assert.assertNotSame(regex, RegexQuery.compile(query));
+	}
+
+	public void testFindMatches() {
+		final int[][] matches = RegexQuery.compile("/id-\\d+/").findMatches("no id", "Task ID-1234 done");
+		Assert.assertNull(matches[0]);
+		Assert.assertTrue(Arrays.equals(new int[] {5, 12}, matches[1]));
+	}
+}
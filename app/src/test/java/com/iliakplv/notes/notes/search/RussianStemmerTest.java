@@ -0,0 +1,54 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+public class RussianStemmerTest extends TestCase {
+
+	// words and stems from Snowball Russian vocabulary
+	private static final String[] VOCABULARY = {
+			"вагон", "вагон",
+			"вагона", "вагон",
+			"вагоне", "вагон",
+			"вагонов", "вагон",
+			"вагоном", "вагон",
+			"вагоны", "вагон",
+			"важная", "важн",
+			"важнее", "важн",
+			"важнейшие", "важн",
+			"важнейшими", "важн",
+			"важничал", "важнича",
+			"важного", "важн",
+			"важному", "важн",
+			"важности", "важност",
+			"важностию", "важност",
+			"важностью", "важност",
+			"важную", "важн",
+			"важных", "важн",
+			"вазах", "ваз",
+			"вакханка", "вакханк",
+			"вал", "вал",
+			"валандался", "валанда",
+			"валентина", "валентин"};
+
+	private final RussianStemmer stemmer = new RussianStemmer();
+
+	public void testVocabulary() {
+		for (int i = 0; i < VOCABULARY.length; i += 2) {
+			Assert.assertEquals(VOCABULARY[i], VOCABULARY[i + 1], stemmer.stem(VOCABULARY[i]));
+		}
+	}
+
+	public void testWordFormsHaveSameStem() {
+		Assert.assertEquals("книг", stemmer.stem("книга"));
+		Assert.assertEquals("книг", stemmer.stem("книги"));
+		Assert.assertEquals("книг", stemmer.stem("книгой"));
+	}
+
+	public void testCanStem() {
+		Assert.assertTrue(stemmer.canStem("книга"));
+		Assert.assertFalse(stemmer.canStem("book"));
+		Assert.assertFalse(stemmer.canStem("ёлка")); // not normalized
+	}
+}
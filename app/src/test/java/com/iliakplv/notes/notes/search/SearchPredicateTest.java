@@ -0,0 +1,44 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+
+public class SearchPredicateTest extends TestCase {
+
+	public void testSubstring() {
+		Assert.assertTrue(matches("hello world", "Say hello world!"));
+		Assert.assertTrue(matches("ell", "Hello"));
+		Assert.assertFalse(matches("ell", "Help"));
+		Assert.assertFalse(matches("", "Hello"));
+	}
+
+	public void testEachTerm() {
+		Assert.assertTrue(matches("world hello", "Hello, world"));
+		Assert.assertTrue(matches("at home", "Home at last"));
+		Assert.assertFalse(matches("at home", "Home"));
+		Assert.assertFalse(matches("of at", "Office at home")); // short terms only
+	}
+
+	public void testSimilarWords() {
+		Assert.assertTrue(matches("helo", "Hello"));
+		Assert.assertTrue(matches("documentaiton", "Documentation"));
+		Assert.assertTrue(matches("meeting", "Meet me"));
+		Assert.assertTrue(matches("meetings", "Meeting"));
+		Assert.assertFalse(matches("hello", "Shell"));      // "hell" is not a whole word
+		Assert.assertFalse(matches("meeting", "Meetup"));   // other stem
+		Assert.assertFalse(matches("helo yelow", "Hello")); // each term should match
+	}
+
+	public void testCyrillic() {
+		Assert.assertTrue(matches("книги", "Книга"));
+		Assert.assertTrue(matches("kniga", "Книга"));  // romanized shadow
+		Assert.assertTrue(matches("книга", "Kniga"));  // romanized query
+		Assert.assertFalse(matches("knigi", "Книга")); // shadow words are not similar words
+	}
+
+	private static boolean matches(String query, String title) {
+		return new SearchPredicate(SearchNormalizer.normalizeQuery(query))
+				.matchesText(TrigramIndex.normalizedText(title, ""));
+	}
+}
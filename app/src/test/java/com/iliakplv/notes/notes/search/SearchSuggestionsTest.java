@@ -0,0 +1,69 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+public class SearchSuggestionsTest extends TestCase {
+
+	public void testLowerBound() {
+		final SearchSuggestions.Keys keys = new SearchSuggestions.Keys(Arrays.asList(
+				new SearchSuggestions.Key("car", 0),
+				new SearchSuggestions.Key("apple", 1),
+				new SearchSuggestions.Key("card", 2)));
+		Assert.assertEquals(0, keys.lowerBound(""));
+		Assert.assertEquals(0, keys.lowerBound("a"));
+		Assert.assertEquals(1, keys.lowerBound("b"));
+		Assert.assertEquals(1, keys.lowerBound("car"));
+		Assert.assertEquals(2, keys.lowerBound("card"));
+		Assert.assertEquals(3, keys.lowerBound("d"));
+	}
+
+	public void testTitlesRankedByRecency() {
+		final SearchSuggestions.PrefixIndex index = new SearchSuggestions.PrefixIndex(Arrays.asList(
+				new SearchSuggestions.Title("Cargo", 10),
+				new SearchSuggestions.Title("Carpet", 30),
+				new SearchSuggestions.Title("Cartoon", 20),
+				new SearchSuggestions.Title("Dog", 40)), Collections.<String>emptyList());
+		Assert.assertEquals(Arrays.asList("Carpet", "Cartoon", "Cargo"), index.lookup("car", 10));
+		Assert.assertEquals(Arrays.asList("Carpet", "Cartoon"), index.lookup("car", 2));
+		Assert.assertEquals(Collections.<String>emptyList(), index.lookup("cat", 10));
+	}
+
+	public void testWholeWordFirst() {
+		final SearchSuggestions.PrefixIndex index = new SearchSuggestions.PrefixIndex(Arrays.asList(
+				new SearchSuggestions.Title("Cards", 30),
+				new SearchSuggestions.Title("Car", 10),
+				new SearchSuggestions.Title("Car rental", 20),
+				new SearchSuggestions.Title("Old car", 40),
+				new SearchSuggestions.Title("Old cards", 50)), Collections.<String>emptyList());
+		// titles starting with prefix, then titles with other word starting with it
+		Assert.assertEquals(Arrays.asList("Car rental", "Car", "Cards", "Old car", "Old cards"),
+				index.lookup("car", 10));
+	}
+
+	public void testRecentQueriesFirst() {
+		final SearchSuggestions.PrefixIndex index = new SearchSuggestions.PrefixIndex(Arrays.asList(
+				new SearchSuggestions.Title("Car", 10),
+				new SearchSuggestions.Title(" car ", 20)), // same title, trimmed text of recent one is suggested
+				Arrays.asList("carrot", "Car", "bus"));
+		Assert.assertEquals(Arrays.asList("carrot", "Car", "car"), index.lookup("car", 10));
+		Assert.assertEquals(Arrays.asList("carrot", "Car", "bus"), index.lookup("", 10));
+	}
+
+	public void testLongPrefix() {
+		final StringBuilder title = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			title.append('a');
+		}
+		final SearchSuggestions.PrefixIndex index = new SearchSuggestions.PrefixIndex(
+				Collections.singletonList(new SearchSuggestions.Title(title.toString(), 0)),
+				Collections.<String>emptyList());
+		final List<String> suggestions = index.lookup(title.toString(), 10);
+		Assert.assertEquals(Collections.singletonList(title.toString()), suggestions);
+	}
+}
@@ -0,0 +1,67 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+
+public class StemIndexTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("stems", null);
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testWriteAndLoad() {
+		final StringBuilder longWord = new StringBuilder();
+		for (int i = 0; i < 40000; i++) {
+			longWord.append('ж'); // 80000 bytes of UTF-8, more than writeUTF() allows
+		}
+		final String[] words = {"meeting", "meetings", "книги", longWord.toString()};
+
+		final StemIndex stems = createStemIndex();
+		for (String word : words) {
+			stems.add(word);
+		}
+		final Map<String, String> stemsToSave = stems.getStemsToSave();
+		Assert.assertEquals(words.length, stemsToSave.size());
+		Assert.assertNull(stems.getStemsToSave()); // not changed since copy
+		stems.write(file, stemsToSave);
+
+		final StemIndex loaded = createStemIndex();
+		loaded.load(file);
+		for (String word : words) {
+			loaded.add(word);
+		}
+		Assert.assertNull(loaded.getStemsToSave()); // all stems are loaded
+		Assert.assertEquals(Arrays.asList("meeting", "meetings"), loaded.getWordsWithSameStem("meet"));
+		Assert.assertEquals(Arrays.asList(longWord.toString()), loaded.getWordsWithSameStem(longWord.toString()));
+	}
+
+	public void testRemovedWordsSaved() {
+		final StemIndex stems = createStemIndex();
+		stems.add("meeting");
+		stems.write(file, stems.getStemsToSave());
+
+		final StemIndex loaded = createStemIndex();
+		loaded.load(file);
+		final Map<String, String> stemsToSave = loaded.getStemsToSave(); // loaded word is not added
+		Assert.assertNotNull(stemsToSave);
+		Assert.assertTrue(stemsToSave.isEmpty());
+	}
+
+	private static StemIndex createStemIndex() {
+		return new StemIndex(new EnglishStemmer(), new RussianStemmer());
+	}
+}
@@ -0,0 +1,101 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class TextFinderTest extends TestCase {
+
+	// 'a' and 'š' (U+0161) share low byte of shift table, as 'ж' (U+0436) and '6'
+	private static final String ALPHABET = "abAB šŠжЖ6.";
+
+	public void testFind() {
+		final TextFinder finder = new TextFinder("Hello");
+		Assert.assertEquals(4, finder.indexOf("Say hello, HELLO", 0));
+		Assert.assertEquals(11, finder.indexOf("Say hello, HELLO", 5));
+		Assert.assertEquals(-1, finder.indexOf("Say hell", 0));
+		Assert.assertEquals(-1, finder.indexOf("", 0));
+		Assert.assertEquals(0, new TextFinder("книга").indexOf("КНИГА", 0));
+	}
+
+	public void testRange() {
+		final TextFinder finder = new TextFinder("abc");
+		Assert.assertEquals(-1, finder.indexOf("xxabcxx", 0, 2));
+		Assert.assertEquals(2, finder.indexOf("xxabcxx", 0, 3));  // match could end after end
+		Assert.assertEquals(-1, finder.indexOf("xxabcxx", 3, 7));
+		Assert.assertEquals(2, finder.indexOf("xxabcxx", -5, 7));
+	}
+
+	public void testFindAll() {
+		final TextFinder finder = new TextFinder("aa");
+		assertEquals(new int[] {0, 2}, finder.findAll("aaaaa", 0, 5, 10)); // not overlapping
+		assertEquals(new int[] {0}, finder.findAll("aaaaa", 0, 5, 1));
+		assertEquals(new int[] {1}, finder.findAll("aaaaa", 1, 3, 10));
+	}
+
+	public void testEmptyPattern() {
+		try {
+			new TextFinder("");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Random texts and patterns of small alphabet (many partial matches and shared shifts)
+	 * are searched same as folded texts with {@link String#indexOf(String, int)}
+	 */
+	public void testSameAsIndexOf() {
+		final Random random = new Random(46);
+		for (int i = 0; i < 2000; i++) {
+			final String text = randomString(random, random.nextInt(200));
+			final String pattern = random.nextInt(4) == 0 && text.length() > 0 ?
+					substring(random, text) :
+					randomString(random, 1 + random.nextInt(6));
+			final TextFinder finder = new TextFinder(pattern);
+			final String foldedText = fold(text);
+			final String foldedPattern = fold(pattern);
+
+			final int from = random.nextInt(text.length() + 1);
+			Assert.assertEquals(pattern + " in " + text, foldedText.indexOf(foldedPattern, from),
+					finder.indexOf(text, from));
+
+			int count = 0;
+			int position = foldedText.indexOf(foldedPattern);
+			while (position >= 0) {
+				count++;
+				position = foldedText.indexOf(foldedPattern, position + pattern.length());
+			}
+			Assert.assertEquals(pattern + " in " + text, count, finder.findAll(text, 0, text.length(), 1000).length);
+		}
+	}
+
+	private static String randomString(Random random, int length) {
+		final StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return builder.toString();
+	}
+
+	private static String substring(Random random, String text) {
+		final int start = random.nextInt(text.length());
+		return text.substring(start, start + 1 + random.nextInt(Math.min(8, text.length() - start)));
+	}
+
+	private static String fold(String text) {
+		final StringBuilder builder = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			builder.append(Character.toLowerCase(Character.toUpperCase(text.charAt(i))));
+		}
+		return builder.toString();
+	}
+
+	private static void assertEquals(int[] expected, int[] actual) {
+		Assert.assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+	}
+}
@@ -0,0 +1,117 @@
+package com.iliakplv.notes.notes.search;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+public class TrigramIndexFileTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("trigrams", null);
+	}
+
+	@Override
+	protected void tearDown() {
+		TrigramIndexFile.delete(file);
+	}
+
+	public void testPostingsRoundTrip() {
+		final TrigramIndexFile.PostingsWriter writer = new TrigramIndexFile.PostingsWriter();
+		final int[] first = {0, 1, 2, 130, 20000, 3000000};
+		final int[] second = {5, 127, 128};
+		final int firstOffset = writer.startList();
+		for (int doc : first) {
+			writer.add(doc);
+		}
+		final int secondOffset = writer.startList();
+		for (int doc : second) {
+			writer.add(doc);
+		}
+		final ByteBuffer postings = writer.getPostings();
+
+		Assert.assertTrue(Arrays.equals(first,
+				TrigramIndexFile.readPostings(postings, firstOffset, first.length, 3000001)));
+		Assert.assertTrue(Arrays.equals(second,
+				TrigramIndexFile.readPostings(postings, secondOffset, second.length, 3000001)));
+		// docs out of range are not decoded
+		Assert.assertTrue(Arrays.equals(new int[] {0, 1, 2, 130},
+				TrigramIndexFile.readPostings(postings, firstOffset, first.length, 1000)));
+	}
+
+	public void testWriteAndRead() {
+		TrigramIndexFile.write(file, createContent());
+		final TrigramIndexFile.Content content = TrigramIndexFile.read(file);
+
+		Assert.assertNotNull(content);
+		Assert.assertTrue(Arrays.equals(new Object[] {1, "record"}, content.ids));
+		Assert.assertTrue(Arrays.equals(new long[] {10, 20}, content.changeTimes));
+		Assert.assertTrue(Arrays.equals(new String[] {"книга\u0000body", "title\u0000"}, content.texts));
+		Assert.assertTrue(Arrays.equals(new int[] {1, 1}, content.titleLengths));
+		Assert.assertTrue(Arrays.equals(new int[] {1, 0}, content.bodyLengths));
+		Assert.assertTrue(Arrays.equals(new String[] {"книга", "body", "title"}, content.words));
+		Assert.assertTrue(Arrays.equals(new int[] {1, 1, 1}, content.wordsDocsCounts));
+		Assert.assertTrue(Arrays.equals(new long[] {7}, content.trigrams));
+		Assert.assertTrue(Arrays.equals(new int[] {0, 1}, TrigramIndexFile.readPostings(content.postings,
+				content.postingsOffsets[0], content.postingsSizes[0], content.ids.length)));
+		Assert.assertTrue(content.hasValidChecksum());
+	}
+
+	public void testCorruptedFile() throws IOException {
+		TrigramIndexFile.write(file, createContent());
+		final RandomAccessFile output = new RandomAccessFile(file, "rw");
+		output.seek(50); // in text of first document
+		output.write('x');
+		output.close();
+
+		final TrigramIndexFile.Content content = TrigramIndexFile.read(file);
+		Assert.assertNotNull(content); // checksum is verified after load
+		Assert.assertFalse(content.hasValidChecksum());
+	}
+
+	public void testWrongCounts() throws IOException {
+		TrigramIndexFile.write(file, createContent());
+		final RandomAccessFile output = new RandomAccessFile(file, "rw");
+		output.seek(8);
+		output.writeInt(Integer.MAX_VALUE); // docs count
+		output.close();
+
+		Assert.assertNull(TrigramIndexFile.read(file));
+		Assert.assertFalse(file.exists());
+	}
+
+	private static TrigramIndexFile.Content createContent() {
+		final TrigramIndexFile.Content content = new TrigramIndexFile.Content(2, 3, 1);
+		content.ids[0] = 1;
+		content.ids[1] = "record";
+		content.changeTimes[0] = 10;
+		content.changeTimes[1] = 20;
+		content.texts[0] = "книга\u0000body";
+		content.texts[1] = "title\u0000";
+		content.titleLengths[0] = 1;
+		content.titleLengths[1] = 1;
+		content.bodyLengths[0] = 1;
+		content.words[0] = "книга";
+		content.words[1] = "body";
+		content.words[2] = "title";
+		content.wordsDocsCounts[0] = 1;
+		content.wordsDocsCounts[1] = 1;
+		content.wordsDocsCounts[2] = 1;
+		content.trigrams[0] = 7;
+		content.postingsSizes[0] = 2;
+		final TrigramIndexFile.PostingsWriter writer = new TrigramIndexFile.PostingsWriter();
+		content.postingsOffsets[0] = writer.startList();
+		writer.add(0);
+		writer.add(1);
+		content.postings = writer.getPostings();
+		return content;
+	}
+}